@@ -21,19 +21,19 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.Response;
-import okhttp3.ResponseBody;
-import org.jetbrains.annotations.NotNull;
 
 import static org.privacyidea.PIConstants.ENDPOINT_AUTH;
 
 /**
  * Instances of this class are submitted to the thread pool so that requests can be executed in parallel.
+ * <p>
+ * The requests are sent via the transport of the instance, which reports the result to an internal callback. This class
+ * does not depend on OkHttp, so that it is not loaded with the JDK transport.
  */
-public class AsyncRequestCallable implements Callable<String>, Callback
+public class AsyncRequestCallable implements Callable<String>
 {
+    // Maximum time to wait for the transport to complete one attempt
+    static final long ATTEMPT_TIMEOUT_MS = 30_000;
     private final String path;
     private final String method;
     private final Map<String, String> headers;
@@ -42,6 +42,22 @@ public class AsyncRequestCallable implements Callable<String>, Callback
     private final PrivacyIDEA privacyIDEA;
     final String[] callbackResult = {null};
     private CountDownLatch latch;
+    private int code;
+    private IOException failure;
+    private final HttpTransport.Callback transportCallback = new HttpTransport.Callback()
+    {
+        @Override
+        public void onResponse(int code, String body)
+        {
+            completed(code, body);
+        }
+
+        @Override
+        public void onFailure(IOException e)
+        {
+            failed(e);
+        }
+    };
 
     public AsyncRequestCallable(PrivacyIDEA privacyIDEA, Endpoint endpoint, String path, Map<String, String> params,
                                 Map<String, String> headers, String method)
@@ -58,8 +74,11 @@ public class AsyncRequestCallable implements Callable<String>, Callback
     public String call() throws Exception
     {
         latch = new CountDownLatch(1);
-        endpoint.sendRequestAsync(path, params, headers, method, this);
-        if (!latch.await(30, TimeUnit.SECONDS))
+        code = 0;
+        failure = null;
+        callbackResult[0] = null;
+        endpoint.sendRequestAsync(path, params, headers, method, transportCallback);
+        if (!latch.await(ATTEMPT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
         {
             privacyIDEA.error("Latch timed out...");
             return "";
@@ -67,33 +86,45 @@ public class AsyncRequestCallable implements Callable<String>, Callback
         return callbackResult[0];
     }
 
-    @Override
-    public void onFailure(@NotNull Call call, @NotNull IOException e)
+    /**
+     * @return http status code of the last response, 0 if there was no response
+     */
+    int code()
+    {
+        return code;
+    }
+
+    /**
+     * @return the reason why the last request failed or null if there was a response
+     */
+    IOException failure()
+    {
+        return failure;
+    }
+
+    private void failed(IOException e)
     {
         privacyIDEA.error(e);
+        failure = e;
         latch.countDown();
     }
 
-    @Override
-    public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException
+    private void completed(int code, String body)
     {
-        // For OkHttp, the response body is always available via `body()`, regardless of HTTP status.
-        // We must ensure the body is closed to prevent resource leaks, and it can only be consumed once.
-        // Using try-with-resources guarantees the body is properly closed after reading.
-        try (ResponseBody responseBody = response.body())
+        try
         {
-            if (responseBody != null)
+            // Formatting large responses is expensive, so it is skipped if the log is disabled anyway
+            if (body != null && !privacyIDEA.configuration().disableLog && !privacyIDEA.logExcludedEndpoints().contains(path) &&
+                !ENDPOINT_AUTH.equals(path))
             {
-                String s = responseBody.string();
-                if (!privacyIDEA.logExcludedEndpoints().contains(path) && !ENDPOINT_AUTH.equals(path))
-                {
-                    privacyIDEA.log(path + " (" + response.code() + "):\n" + privacyIDEA.parser.formatJson(s));
-                }
-                callbackResult[0] = s;
+                privacyIDEA.log(path + " (" + code + "):\n" + privacyIDEA.parser.formatJson(body));
             }
+            this.code = code;
+            callbackResult[0] = body;
         }
-        finally {
+        finally
+        {
             latch.countDown();
         }
     }
-}
\ No newline at end of file
+}
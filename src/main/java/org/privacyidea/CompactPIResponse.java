@@ -0,0 +1,431 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.privacyidea.PIConstants.CONTAINER_TYPE_SMARTPHONE;
+import static org.privacyidea.PIConstants.TOKEN_TYPE_PASSKEY;
+import static org.privacyidea.PIConstants.TOKEN_TYPE_PUSH;
+import static org.privacyidea.PIConstants.TOKEN_TYPE_WEBAUTHN;
+
+/**
+ * Immutable, memory efficient representation of a {@link PIResponse} for keeping it in session state, e.g. between the
+ * steps of a login. Empty values share a single instance, well known values like client modes and token types are
+ * canonicalized, booleans are packed into a single field and the raw message of the server is not kept.
+ * <p>
+ * Create an instance with {@link #from(PIResponse)} and convert it back with {@link #toPIResponse()} if the full object
+ * is required.
+ */
+public final class CompactPIResponse
+{
+    private static final int FLAG_STATUS = 1;
+    private static final int FLAG_VALUE = 1 << 1;
+    private static final int FLAG_ENROLL_VIA_MULTICHALLENGE = 1 << 2;
+    private static final int FLAG_ENROLL_VIA_MULTICHALLENGE_OPTIONAL = 1 << 3;
+
+    // Values that occur in almost every response. Responses share these instances instead of holding their own copy.
+    private static final Map<String, String> CANONICAL_VALUES = new HashMap<>();
+
+    static
+    {
+        for (String value : new String[]{"", "2.0", "interactive", "poll", "u2f", "otp", TOKEN_TYPE_PUSH,
+                                         TOKEN_TYPE_WEBAUTHN, TOKEN_TYPE_PASSKEY, CONTAINER_TYPE_SMARTPHONE, "hotp", "totp",
+                                         "sms", "email", "tiqr", "indexedsecret", "question", "spass", "yubico", "yubikey",
+                                         "radius", "remote", "daypassword", "applspec", "certificate", "sshkey", "tan",
+                                         "paper", "registration", "4eyes", "motp", "vasco", "ocra", "password"})
+        {
+            CANONICAL_VALUES.put(value, value);
+        }
+    }
+
+    private final String message;
+    private final String preferredClientMode;
+    private final List<String> messages;
+    private final List<Challenge> multiChallenge;
+    private final String transactionID;
+    private final String serial;
+    private final ChallengeStatus challengeStatus;
+    private final String image;
+    private final int id;
+    private final String jsonRPCVersion;
+    private final int flags;
+    private final AuthenticationStatus authentication;
+    private final String piVersion;
+    private final String signature;
+    private final String type;
+    private final int otpLength;
+    private final PIError error;
+    private final String passkeyChallenge;
+    private final String passkeyRegistration;
+    private final String passkeyMessage;
+    private final String username;
+    private final String enrollmentLink;
+    private final String webAuthnSignRequest;
+    private final String webAuthnTransactionId;
+
+    private CompactPIResponse(PIResponse response)
+    {
+        // Values like the transaction id, serials and messages are repeated across the response and its challenges.
+        // Equal values share one instance within the compact representation.
+        Map<String, String> pool = new HashMap<>();
+        Function<String, String> compact = value -> compact(value, pool);
+        this.message = compact.apply(response.message);
+        this.preferredClientMode = canonical(response.preferredClientMode);
+        this.messages = compactMessages(response.messages, compact);
+        this.multiChallenge = compactChallenges(response.multiChallenge, compact);
+        this.transactionID = compact.apply(response.transactionID);
+        this.serial = compact.apply(response.serial);
+        this.challengeStatus = response.challengeStatus;
+        this.image = compact.apply(response.image);
+        this.id = response.id;
+        this.jsonRPCVersion = canonical(response.jsonRPCVersion);
+        this.flags = (response.status ? FLAG_STATUS : 0) | (response.value ? FLAG_VALUE : 0) |
+                     (response.isEnrollViaMultichallenge ? FLAG_ENROLL_VIA_MULTICHALLENGE : 0) |
+                     (response.isEnrollViaMultichallengeOptional ? FLAG_ENROLL_VIA_MULTICHALLENGE_OPTIONAL : 0);
+        this.authentication = response.authentication;
+        this.piVersion = compact.apply(response.piVersion);
+        this.signature = compact.apply(response.signature);
+        this.type = canonical(response.type);
+        this.otpLength = response.otpLength;
+        this.error = response.error;
+        this.passkeyChallenge = compact.apply(response.passkeyChallenge);
+        this.passkeyRegistration = compact.apply(response.passkeyRegistration);
+        this.passkeyMessage = compact.apply(response.passkeyMessage);
+        this.username = compact.apply(response.username);
+        this.enrollmentLink = compact.apply(response.enrollmentLink);
+        this.webAuthnSignRequest = compact.apply(response.webAuthnSignRequest);
+        this.webAuthnTransactionId = compact.apply(response.webAuthnTransactionId);
+    }
+
+    /**
+     * Create the compact representation of the response. The raw message is not kept.
+     *
+     * @param response response
+     * @return CompactPIResponse or null if the response is null
+     */
+    public static CompactPIResponse from(PIResponse response)
+    {
+        return response != null ? new CompactPIResponse(response) : null;
+    }
+
+    /**
+     * @return a new PIResponse with the values of this object. The raw message is empty.
+     */
+    public PIResponse toPIResponse()
+    {
+        PIResponse response = new PIResponse();
+        response.message = message;
+        response.preferredClientMode = preferredClientMode;
+        response.messages = new ArrayList<>(messages);
+        response.multiChallenge = new ArrayList<>(multiChallenge.size());
+        for (Challenge c : multiChallenge)
+        {
+            // The challenges of a PIResponse are modifiable, so they must not be the shared ones of this instance
+            Challenge copy = new Challenge(c.serial, c.message, c.clientMode, c.image, c.transactionID, c.type);
+            copy.attributes.putAll(c.getAttributes());
+            response.multiChallenge.add(copy);
+        }
+        response.transactionID = transactionID;
+        response.serial = serial;
+        response.challengeStatus = challengeStatus;
+        response.image = image;
+        response.id = id;
+        response.jsonRPCVersion = jsonRPCVersion;
+        response.status = status();
+        response.value = value();
+        response.authentication = authentication;
+        response.piVersion = piVersion;
+        response.signature = signature;
+        response.type = type;
+        response.otpLength = otpLength;
+        response.error = error;
+        response.passkeyChallenge = passkeyChallenge;
+        response.passkeyRegistration = passkeyRegistration;
+        response.passkeyMessage = passkeyMessage;
+        response.username = username;
+        response.enrollmentLink = enrollmentLink;
+        response.isEnrollViaMultichallenge = isEnrollViaMultichallenge();
+        response.isEnrollViaMultichallengeOptional = isEnrollViaMultichallengeOptional();
+        response.webAuthnSignRequest = webAuthnSignRequest;
+        response.webAuthnTransactionId = webAuthnTransactionId;
+        return response;
+    }
+
+    /**
+     * @see PIResponse#authenticationSuccessful()
+     */
+    public boolean authenticationSuccessful()
+    {
+        return PIResponse.authenticationSuccessful(authentication, value(), multiChallenge);
+    }
+
+    /**
+     * @see PIResponse#pushAvailable()
+     */
+    public boolean pushAvailable()
+    {
+        return PIResponse.pushAvailable(multiChallenge);
+    }
+
+    /**
+     * @see PIResponse#otpTransactionId()
+     */
+    public String otpTransactionId()
+    {
+        return PIResponse.otpTransactionId(multiChallenge);
+    }
+
+    /**
+     * @see PIResponse#pushTransactionId()
+     */
+    public String pushTransactionId()
+    {
+        return PIResponse.pushTransactionId(multiChallenge);
+    }
+
+    /**
+     * @see PIResponse#hasChallenges()
+     */
+    public boolean hasChallenges()
+    {
+        return !multiChallenge.isEmpty() || PIResponse.isNotBlank(webAuthnSignRequest) || PIResponse.isNotBlank(passkeyChallenge);
+    }
+
+    public String message()
+    {
+        return message;
+    }
+
+    public String preferredClientMode()
+    {
+        return preferredClientMode;
+    }
+
+    /**
+     * @return unmodifiable list of messages
+     */
+    public List<String> messages()
+    {
+        return messages;
+    }
+
+    /**
+     * @return unmodifiable list of challenges
+     */
+    public List<Challenge> multiChallenge()
+    {
+        return multiChallenge;
+    }
+
+    public String transactionID()
+    {
+        return transactionID;
+    }
+
+    public String serial()
+    {
+        return serial;
+    }
+
+    public ChallengeStatus challengeStatus()
+    {
+        return challengeStatus;
+    }
+
+    public String image()
+    {
+        return image;
+    }
+
+    public int id()
+    {
+        return id;
+    }
+
+    public String jsonRPCVersion()
+    {
+        return jsonRPCVersion;
+    }
+
+    public boolean status()
+    {
+        return (flags & FLAG_STATUS) != 0;
+    }
+
+    public boolean value()
+    {
+        return (flags & FLAG_VALUE) != 0;
+    }
+
+    public AuthenticationStatus authentication()
+    {
+        return authentication;
+    }
+
+    public String piVersion()
+    {
+        return piVersion;
+    }
+
+    public String signature()
+    {
+        return signature;
+    }
+
+    public String type()
+    {
+        return type;
+    }
+
+    public int otpLength()
+    {
+        return otpLength;
+    }
+
+    public PIError error()
+    {
+        return error;
+    }
+
+    public String passkeyChallenge()
+    {
+        return passkeyChallenge;
+    }
+
+    public String passkeyRegistration()
+    {
+        return passkeyRegistration;
+    }
+
+    public String passkeyMessage()
+    {
+        return passkeyMessage;
+    }
+
+    public String username()
+    {
+        return username;
+    }
+
+    public String enrollmentLink()
+    {
+        return enrollmentLink;
+    }
+
+    public boolean isEnrollViaMultichallenge()
+    {
+        return (flags & FLAG_ENROLL_VIA_MULTICHALLENGE) != 0;
+    }
+
+    public boolean isEnrollViaMultichallengeOptional()
+    {
+        return (flags & FLAG_ENROLL_VIA_MULTICHALLENGE_OPTIONAL) != 0;
+    }
+
+    public String webAuthnSignRequest()
+    {
+        return webAuthnSignRequest;
+    }
+
+    public String webAuthnTransactionId()
+    {
+        return webAuthnTransactionId;
+    }
+
+    private static String compact(String value, Map<String, String> pool)
+    {
+        if (value == null || value.isEmpty())
+        {
+            return "";
+        }
+        String canonical = CANONICAL_VALUES.get(value);
+        return canonical != null ? canonical : pool.computeIfAbsent(value, v -> v);
+    }
+
+    /**
+     * Get the shared instance of a well known value.
+     *
+     * @param value value
+     * @return shared instance or the input if the value is not well known
+     */
+    static String canonical(String value)
+    {
+        if (value == null)
+        {
+            return "";
+        }
+        String canonical = CANONICAL_VALUES.get(value);
+        return canonical != null ? canonical : value;
+    }
+
+    private static List<String> compactMessages(List<String> messages, Function<String, String> compact)
+    {
+        if (messages == null || messages.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>(messages.size());
+        for (String message : messages)
+        {
+            list.add(compact.apply(message));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private static List<Challenge> compactChallenges(List<Challenge> challenges, Function<String, String> compact)
+    {
+        if (challenges == null || challenges.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        List<Challenge> list = new ArrayList<>(challenges.size());
+        for (Challenge c : challenges)
+        {
+            list.add(new CompactChallenge(compact.apply(c.serial), compact.apply(c.message), canonical(c.clientMode),
+                                          compact.apply(c.image), compact.apply(c.transactionID), canonical(c.type),
+                                          c.getAttributes()));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Challenge of a CompactPIResponse, its attributes can not be modified. Challenges without attributes share the empty
+     * map, the attributes of the others are copied once. Null values are kept.
+     */
+    private static final class CompactChallenge extends Challenge
+    {
+        private final Map<String, String> compactAttributes;
+
+        private CompactChallenge(String serial, String message, String clientMode, String image, String transactionID,
+                                 String type, Map<String, String> attributes)
+        {
+            super(serial, message, clientMode, image, transactionID, type);
+            this.compactAttributes = attributes == null || attributes.isEmpty() ? Collections.emptyMap()
+                                                                                : Collections.unmodifiableMap(new HashMap<>(attributes));
+        }
+
+        @Override
+        public Map<String, String> getAttributes()
+        {
+            return compactAttributes;
+        }
+    }
+}
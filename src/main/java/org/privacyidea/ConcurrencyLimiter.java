@@ -0,0 +1,184 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit for the number of requests that are sent to the server at the same time. The limit follows the latency
+ * of the requests (AIMD): while the average latency stays close to the lowest latency seen recently and the limit is
+ * used, it is increased by one per round trip. If the average latency exceeds that baseline by the tolerance factor or a
+ * request fails, the limit is decreased by 10%, at most once per round trip. The average is an exponential moving
+ * average, so that single slow requests do not lower the limit. A server that slows down under load therefore receives fewer
+ * concurrent requests instead of more.
+ * <p>
+ * Requests that exceed the limit wait for a free slot up to a maximum time and are rejected after that.
+ * <p>
+ * Enable the limiter with {@link PrivacyIDEA.Builder#concurrencyLimit(int, int, long)}.
+ */
+public class ConcurrencyLimiter
+{
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double DEFAULT_TOLERANCE = 2.0;
+    private static final double SMOOTHING = 0.2;
+    // The baseline is the lowest latency of the last window, so that it can rise if the server becomes slower permanently
+    private static final int WINDOW_SAMPLES = 500;
+
+    private final int maxLimit;
+    private final long maxWaitNanos;
+    private final double tolerance;
+    private double limit;
+    private int inFlight = 0;
+    private long minRttNanos = 0;
+    private double averageRttNanos = 0;
+    private long windowMinRttNanos = Long.MAX_VALUE;
+    private int windowSamples = 0;
+    private long lastDecreaseNanos;
+    private final AtomicLong rejected = new AtomicLong();
+
+    ConcurrencyLimiter(int initialLimit, int maxLimit, long maxWaitMs)
+    {
+        this(initialLimit, maxLimit, maxWaitMs, DEFAULT_TOLERANCE);
+    }
+
+    ConcurrencyLimiter(int initialLimit, int maxLimit, long maxWaitMs, double tolerance)
+    {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.tolerance = tolerance;
+        this.lastDecreaseNanos = System.nanoTime() - TimeUnit.HOURS.toNanos(1);
+    }
+
+    /**
+     * Take a slot, waiting at most the maximum wait time for one to become free.
+     *
+     * @return true if a slot was taken and must be given back with {@link #release(long, boolean)}, false if the request
+     * is rejected
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    synchronized boolean acquire() throws InterruptedException
+    {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (inFlight >= (int) limit)
+        {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+                rejected.incrementAndGet();
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Give back a slot and adjust the limit with the latency of the request.
+     *
+     * @param startNanos {@link System#nanoTime()} when the request was started
+     * @param dropped    whether the request failed without a response
+     */
+    synchronized void release(long startNanos, boolean dropped)
+    {
+        long now = System.nanoTime();
+        long rtt = now - startNanos;
+        // Only increase if the limit is actually used, otherwise it would grow without bounds while the load is low
+        boolean limitUsed = inFlight * 2 >= limit;
+        inFlight--;
+        if (dropped)
+        {
+            decrease(startNanos, now);
+        }
+        else
+        {
+            updateBaseline(rtt);
+            averageRttNanos = averageRttNanos == 0 ? rtt : averageRttNanos * (1 - SMOOTHING) + rtt * SMOOTHING;
+            if (averageRttNanos > minRttNanos * tolerance)
+            {
+                decrease(startNanos, now);
+            }
+            else if (limitUsed)
+            {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    private void decrease(long startNanos, long now)
+    {
+        // Requests that were started before the last decrease do not reflect it yet
+        if (startNanos - lastDecreaseNanos > 0)
+        {
+            limit = Math.max(1, limit * BACKOFF_RATIO);
+            lastDecreaseNanos = now;
+        }
+    }
+
+    private void updateBaseline(long rtt)
+    {
+        windowMinRttNanos = Math.min(windowMinRttNanos, rtt);
+        minRttNanos = minRttNanos == 0 ? rtt : Math.min(minRttNanos, rtt);
+        if (++windowSamples >= WINDOW_SAMPLES)
+        {
+            minRttNanos = windowMinRttNanos;
+            windowMinRttNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+
+    /**
+     * @return the current limit for concurrent requests
+     */
+    public synchronized int limit()
+    {
+        return (int) limit;
+    }
+
+    /**
+     * @return the moving average of the latency in milliseconds
+     */
+    public synchronized double averageLatencyMs()
+    {
+        return averageRttNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return the number of requests that are currently sent
+     */
+    public synchronized int inFlight()
+    {
+        return inFlight;
+    }
+
+    /**
+     * @return the lowest latency of the recent requests in milliseconds, which the latency is compared to
+     */
+    public synchronized double baselineLatencyMs()
+    {
+        return minRttNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return number of requests that were rejected because no slot became free within the maximum wait time
+     */
+    public long rejectedCount()
+    {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A file whose content is encrypted with AES-GCM. The file consists of a version byte, the IV and the encrypted data
+ * with the authentication tag. The version is authenticated as well. Without a key, the content is stored as is.
+ * The file is replaced atomically when it is written, so that it is never only partially written.
+ */
+final class EncryptedFile
+{
+    private static final int FILE_VERSION = 1;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final Path file;
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param file the file
+     * @param key  AES key with 16, 24 or 32 bytes or null to store the content unencrypted
+     */
+    EncryptedFile(Path file, byte[] key)
+    {
+        this.file = file;
+        this.key = key != null ? new SecretKeySpec(key, "AES") : null;
+    }
+
+    Path path()
+    {
+        return file;
+    }
+
+    boolean exists()
+    {
+        return Files.exists(file);
+    }
+
+    /**
+     * @return the decrypted content
+     * @throws GeneralSecurityException if the file was not written with the same key or was modified
+     */
+    byte[] read() throws IOException, GeneralSecurityException
+    {
+        byte[] data = Files.readAllBytes(file);
+        return key != null ? decrypt(data) : data;
+    }
+
+    /**
+     * Encrypt the content and replace the file with it. The caller must serialize concurrent writes.
+     *
+     * @param plain content
+     */
+    void write(byte[] plain) throws IOException, GeneralSecurityException
+    {
+        byte[] data = key != null ? encrypt(plain) : plain;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, data);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return version, IV and the encrypted data with the authentication tag
+     */
+    byte[] encrypt(byte[] plain) throws GeneralSecurityException
+    {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        cipher.updateAAD(new byte[]{FILE_VERSION});
+        byte[] encrypted = cipher.doFinal(plain);
+        byte[] data = new byte[1 + IV_LENGTH + encrypted.length];
+        data[0] = FILE_VERSION;
+        System.arraycopy(iv, 0, data, 1, IV_LENGTH);
+        System.arraycopy(encrypted, 0, data, 1 + IV_LENGTH, encrypted.length);
+        return data;
+    }
+
+    byte[] decrypt(byte[] data) throws GeneralSecurityException
+    {
+        if (data.length < 1 + IV_LENGTH || data[0] != FILE_VERSION)
+        {
+            throw new GeneralSecurityException("Unsupported file format");
+        }
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, data, 1, IV_LENGTH));
+        cipher.updateAAD(new byte[]{FILE_VERSION});
+        return cipher.doFinal(data, 1 + IV_LENGTH, data.length - 1 - IV_LENGTH);
+    }
+}
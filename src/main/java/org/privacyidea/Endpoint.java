@@ -16,184 +16,97 @@
  */
 package org.privacyidea;
 
-import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-import okhttp3.Callback;
-import okhttp3.FormBody;
-import okhttp3.HttpUrl;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
 
-import static org.privacyidea.PIConstants.GET;
-import static org.privacyidea.PIConstants.HEADER_USER_AGENT;
-import static org.privacyidea.PIConstants.POST;
-import static org.privacyidea.PIConstants.WEBAUTHN_PARAMETERS;
+import static org.privacyidea.PIConstants.PASS;
+import static org.privacyidea.PIConstants.PASSWORD;
 
 /**
- * This class handles sending requests to the server.
+ * This class handles sending requests to the server. The requests are sent by the {@link HttpTransport} selected with
+ * {@link PrivacyIDEA.Builder#transport(TransportType)}.
  */
 public class Endpoint
 {
     private final PrivacyIDEA privacyIDEA;
     private final PIConfig piConfig;
-    private final OkHttpClient client;
-
-    final TrustManager[] trustAllManager = new TrustManager[]{new X509TrustManager()
-    {
-        @Override
-        public void checkClientTrusted(java.security.cert.X509Certificate[] chain, String authType)
-        {
-        }
-
-        @Override
-        public void checkServerTrusted(java.security.cert.X509Certificate[] chain, String authType)
-        {
-        }
-
-        @Override
-        public java.security.cert.X509Certificate[] getAcceptedIssuers()
-        {
-            return new java.security.cert.X509Certificate[]{};
-        }
-    }};
+    private final HttpTransport transport;
 
     Endpoint(PrivacyIDEA privacyIDEA)
     {
         this.privacyIDEA = privacyIDEA;
         this.piConfig = privacyIDEA.configuration();
-
-        OkHttpClient.Builder builder = new OkHttpClient.Builder();
-        builder.connectTimeout(piConfig.httpTimeoutMs, TimeUnit.MILLISECONDS)
-               .writeTimeout(piConfig.httpTimeoutMs, TimeUnit.MILLISECONDS)
-               .readTimeout(piConfig.httpTimeoutMs, TimeUnit.MILLISECONDS);
-
-        if (!this.piConfig.verifySSL)
+        // Only the selected transport is loaded, so that OkHttp is not loaded if the JDK client is used
+        if (piConfig.transportType == TransportType.JDK)
         {
-            // Trust all certs and verify every host
-            try
-            {
-                final SSLContext sslContext = SSLContext.getInstance("SSL");
-                sslContext.init(null, trustAllManager, new java.security.SecureRandom());
-                final SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-                builder.sslSocketFactory(sslSocketFactory, (X509TrustManager) trustAllManager[0]);
-                builder.hostnameVerifier((s, sslSession) -> true);
-            }
-            catch (KeyManagementException | NoSuchAlgorithmException e)
-            {
-                privacyIDEA.error(e);
-            }
+            this.transport = new JdkHttpTransport(privacyIDEA);
         }
-
-        if (!piConfig.proxyHost.isEmpty())
+        else
         {
-            Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(piConfig.proxyHost, piConfig.proxyPort));
-            builder.proxy(proxy);
+            this.transport = new OkHttpTransport(privacyIDEA);
         }
-
-        this.client = builder.build();
     }
 
     /**
-     * Add a request to the okhttp queue. The callback will be invoked upon success or failure.
+     * Send the request with the transport. The callback will be invoked upon success or failure.
      *
      * @param endpoint server endpoint
      * @param params   request parameters
      * @param headers  request headers
      * @param method   http request method
-     * @param callback okhttp3 callback
+     * @param callback callback
      */
-    void sendRequestAsync(String endpoint, Map<String, String> params, Map<String, String> headers, String method, Callback callback)
+    void sendRequestAsync(String endpoint, Map<String, String> params, Map<String, String> headers, String method,
+                          HttpTransport.Callback callback)
     {
-        HttpUrl httpUrl = HttpUrl.parse(piConfig.serverURL + endpoint);
-        if (httpUrl == null)
-        {
-            privacyIDEA.error("Server url could not be parsed: " + (piConfig.serverURL + endpoint));
-            // Invoke the callback to terminate the thread that called this function.
-            callback.onFailure(null, new IOException("Request could not be created because the url could not be parsed"));
-            return;
-        }
-        HttpUrl.Builder urlBuilder = httpUrl.newBuilder();
-        privacyIDEA.log(method + " " + endpoint);
-        params.forEach((k, v) ->
-                       {
-                           if (k.equals("pass") || k.equals("password"))
-                           {
-                               v = "*".repeat(v.length());
-                           }
-                           privacyIDEA.log(k + "=" + v);
-                       });
-
-        if (GET.equals(method))
+        if (!piConfig.disableLog)
         {
-            params.forEach((key, value) ->
+            privacyIDEA.log(method + " " + endpoint);
+            params.forEach((k, v) ->
                            {
-                               String encValue = URLEncoder.encode(value, StandardCharsets.UTF_8);
-                               urlBuilder.addQueryParameter(key, encValue);
+                               if (k.equals(PASS) || k.equals(PASSWORD))
+                               {
+                                   v = "*".repeat(v.length());
+                               }
+                               privacyIDEA.log(k + "=" + v);
                            });
         }
+        transport.sendAsync(endpoint, params, headers, method, callback);
+    }
 
-        String url = urlBuilder.build().toString();
-        //privacyIDEA.log("URL: " + url);
-        Request.Builder requestBuilder = new Request.Builder().url(url);
+    /**
+     * Establish connections to the server so that they are available for the first requests. This also verifies the TLS
+     * connection to the server.
+     *
+     * @param count number of connections
+     */
+    void prewarm(int count)
+    {
+        transport.prewarm(count);
+    }
 
-        // Add the headers. A caller-supplied User-Agent (in the per-request headers) overrides the configured
-        // default, so a single request can be marked as originating from a specific flow. Only add the default
-        // when the caller did not provide one, to avoid sending two User-Agent headers.
-        boolean callerProvidedUserAgent = headers != null &&
-                                          headers.keySet().stream().anyMatch(h -> h.equalsIgnoreCase(HEADER_USER_AGENT));
-        if (!callerProvidedUserAgent)
-        {
-            requestBuilder.addHeader(HEADER_USER_AGENT, piConfig.userAgent);
-        }
-        if (headers != null && !headers.isEmpty())
-        {
-            headers.forEach((k, v) ->
-                            {
-                                if (v == null)
-                                {
-                                    privacyIDEA.error("Unable to add header " + k + " because the value is null");
-                                }
-                                else
-                                {
-                                    requestBuilder.addHeader(k, v);
-                                }
-                            });
-        }
+    /**
+     * Release the resources of the http client.
+     *
+     * @param cancelCalls whether calls that are still running should be cancelled
+     */
+    void close(boolean cancelCalls)
+    {
+        transport.close(cancelCalls);
+    }
 
-        if (POST.equals(method))
-        {
-            FormBody.Builder formBodyBuilder = new FormBody.Builder();
-            params.forEach((key, value) ->
-                           {
-                               if (key != null && value != null)
-                               {
-                                   String encValue = value;
-                                   // WebAuthn params are excluded from url encoding,
-                                   // they are already in the correct encoding for the server
-                                   if (!WEBAUTHN_PARAMETERS.contains(key))
-                                   {
-                                       encValue = URLEncoder.encode(value, StandardCharsets.UTF_8);
-                                   }
-                                   formBodyBuilder.add(key, encValue);
-                               }
-                           });
-            // This switches okhttp to make a post request
-            requestBuilder.post(formBodyBuilder.build());
-        }
+    /**
+     * @return number of connections to the server or -1 if the transport does not provide it
+     */
+    int connectionCount()
+    {
+        return transport.connectionCount();
+    }
 
-        Request request = requestBuilder.build();
-        privacyIDEA.log("Header: " + request.headers().toString().replace("\n", " | "));
-        client.newCall(request).enqueue(callback);
+    /**
+     * @return the transport that sends the requests
+     */
+    HttpTransport transport()
+    {
+        return transport;
     }
-}
\ No newline at end of file
+}
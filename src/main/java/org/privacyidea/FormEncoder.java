@@ -0,0 +1,278 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.privacyidea.PIConstants.WEBAUTHN_PARAMETERS;
+
+/**
+ * Encodes form parameters while they are written, without creating encoded copies of the values first. The output is the
+ * same as that of a {@link okhttp3.FormBody} whose values have been encoded with {@link java.net.URLEncoder} before,
+ * which is the format the server expects:
+ * <ul>
+ *     <li>Values that are added with {@link #add(String, String)} are encoded twice, i.e. a space becomes "%2B" and
+ *     other reserved characters become "%25" followed by the hex value of the byte.</li>
+ *     <li>Values that are added with {@link #addEncoded(String, String)}, like the WebAuthn parameters, are only encoded
+ *     once like FormBody does.</li>
+ * </ul>
+ * The encoder does not depend on a http client, it is used by the body of OkHttp requests and by the JDK transport.
+ */
+class FormEncoder
+{
+    // Characters that FormBody encodes in addition to control characters, non-ASCII characters and '%'
+    private static final String FORM_ENCODE_SET = " !\"#$&'()+,/:;<=>?@[\\]^`{|}~";
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes();
+    private static final Set<String> WEBAUTHN_PARAMETER_SET = new HashSet<>(WEBAUTHN_PARAMETERS);
+
+    private final List<String> names = new ArrayList<>();
+    private final List<String> values = new ArrayList<>();
+    private final List<Boolean> encodeTwice = new ArrayList<>();
+
+    /**
+     * Create the encoder for the request parameters. Parameters with a null name or value are skipped.
+     *
+     * @param params request parameters
+     * @return encoder
+     */
+    static FormEncoder of(Map<String, String> params)
+    {
+        FormEncoder encoder = new FormEncoder();
+        params.forEach((key, value) ->
+                       {
+                           if (key != null && value != null)
+                           {
+                               // WebAuthn params are excluded from url encoding,
+                               // they are already in the correct encoding for the server
+                               if (WEBAUTHN_PARAMETER_SET.contains(key))
+                               {
+                                   encoder.addEncoded(key, value);
+                               }
+                               else
+                               {
+                                   encoder.add(key, value);
+                               }
+                           }
+                       });
+        return encoder;
+    }
+
+    /**
+     * Destination of the encoded bytes.
+     */
+    interface ByteWriter
+    {
+        void write(int b) throws IOException;
+    }
+
+    /**
+     * Add a parameter whose value is encoded like a value that was url encoded before being added to a FormBody.
+     *
+     * @param name  name
+     * @param value value
+     */
+    void add(String name, String value)
+    {
+        names.add(name);
+        values.add(value);
+        encodeTwice.add(true);
+    }
+
+    /**
+     * Add a parameter whose value is only encoded by the form encoding, like the WebAuthn parameters.
+     *
+     * @param name  name
+     * @param value value
+     */
+    void addEncoded(String name, String value)
+    {
+        names.add(name);
+        values.add(value);
+        encodeTwice.add(false);
+    }
+
+    /**
+     * @return true if no parameter has been added
+     */
+    boolean isEmpty()
+    {
+        return names.isEmpty();
+    }
+
+    /**
+     * @return the encoded parameters
+     */
+    byte[] toByteArray()
+    {
+        try
+        {
+            byte[] bytes = new byte[(int) write(null)];
+            int[] position = {0};
+            write(b -> bytes[position[0]++] = (byte) b);
+            return bytes;
+        }
+        catch (IOException e)
+        {
+            // Writing to an array does not do any I/O
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write the encoded parameters to the sink, or only count the bytes if the sink is null.
+     *
+     * @param sink sink or null
+     * @return number of bytes
+     */
+    long write(ByteWriter sink) throws IOException
+    {
+        long count = 0;
+        for (int i = 0; i < names.size(); i++)
+        {
+            if (i > 0)
+            {
+                count += writeByte(sink, '&');
+            }
+            count += formEncode(sink, names.get(i));
+            count += writeByte(sink, '=');
+            if (encodeTwice.get(i))
+            {
+                count += urlAndFormEncode(sink, values.get(i));
+            }
+            else
+            {
+                count += formEncode(sink, values.get(i));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Same result as FormBody encoding the output of URLEncoder: characters that URLEncoder keeps are written as they
+     * are, a space becomes "+" and then "%2B" and every other byte becomes "%XY" and then "%25XY".
+     */
+    private static long urlAndFormEncode(ByteWriter sink, String value) throws IOException
+    {
+        long count = 0;
+        for (int i = 0; i < value.length(); )
+        {
+            int codePoint = value.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isUrlEncoderSafe(codePoint))
+            {
+                count += writeByte(sink, codePoint);
+            }
+            else if (codePoint == ' ')
+            {
+                // URLEncoder writes a '+', which FormBody encodes
+                count += writeByte(sink, '%') + writeByte(sink, '2') + writeByte(sink, 'B');
+            }
+            else
+            {
+                count += percentEncode(sink, codePoint, true);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Same result as the encoding of FormBody.
+     */
+    private static long formEncode(ByteWriter sink, String value) throws IOException
+    {
+        long count = 0;
+        for (int i = 0; i < value.length(); )
+        {
+            int codePoint = value.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (codePoint < 0x20 || codePoint >= 0x7F || codePoint == '%' || FORM_ENCODE_SET.indexOf(codePoint) >= 0)
+            {
+                count += percentEncode(sink, codePoint, false);
+            }
+            else
+            {
+                count += writeByte(sink, codePoint);
+            }
+        }
+        return count;
+    }
+
+    private static boolean isUrlEncoderSafe(int c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' ||
+               c == '*' || c == '_';
+    }
+
+    /**
+     * Percent encode the UTF-8 bytes of the code point. Unpaired surrogates are encoded as '?', like the encoders do.
+     */
+    private static long percentEncode(ByteWriter sink, int codePoint, boolean encodePercent) throws IOException
+    {
+        if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)
+        {
+            codePoint = '?';
+        }
+        long count = 0;
+        if (codePoint < 0x80)
+        {
+            count += percentEncodeByte(sink, codePoint, encodePercent);
+        }
+        else if (codePoint < 0x800)
+        {
+            count += percentEncodeByte(sink, 0xC0 | (codePoint >> 6), encodePercent);
+            count += percentEncodeByte(sink, 0x80 | (codePoint & 0x3F), encodePercent);
+        }
+        else if (codePoint < 0x10000)
+        {
+            count += percentEncodeByte(sink, 0xE0 | (codePoint >> 12), encodePercent);
+            count += percentEncodeByte(sink, 0x80 | ((codePoint >> 6) & 0x3F), encodePercent);
+            count += percentEncodeByte(sink, 0x80 | (codePoint & 0x3F), encodePercent);
+        }
+        else
+        {
+            count += percentEncodeByte(sink, 0xF0 | (codePoint >> 18), encodePercent);
+            count += percentEncodeByte(sink, 0x80 | ((codePoint >> 12) & 0x3F), encodePercent);
+            count += percentEncodeByte(sink, 0x80 | ((codePoint >> 6) & 0x3F), encodePercent);
+            count += percentEncodeByte(sink, 0x80 | (codePoint & 0x3F), encodePercent);
+        }
+        return count;
+    }
+
+    private static long percentEncodeByte(ByteWriter sink, int b, boolean encodePercent) throws IOException
+    {
+        long count = writeByte(sink, '%');
+        if (encodePercent)
+        {
+            count += writeByte(sink, '2') + writeByte(sink, '5');
+        }
+        count += writeByte(sink, HEX_DIGITS[(b >> 4) & 0xF]);
+        count += writeByte(sink, HEX_DIGITS[b & 0xF]);
+        return count;
+    }
+
+    private static long writeByte(ByteWriter sink, int b) throws IOException
+    {
+        if (sink != null)
+        {
+            sink.write(b);
+        }
+        return 1;
+    }
+}
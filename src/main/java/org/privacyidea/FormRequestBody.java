@@ -0,0 +1,98 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Form body that encodes the parameters with a {@link FormEncoder} while they are written to the connection, without
+ * creating encoded copies of the values first.
+ */
+class FormRequestBody extends RequestBody
+{
+    private static final MediaType CONTENT_TYPE = MediaType.get("application/x-www-form-urlencoded");
+
+    private final FormEncoder encoder;
+    private long contentLength = -1;
+
+    FormRequestBody()
+    {
+        this(new FormEncoder());
+    }
+
+    FormRequestBody(FormEncoder encoder)
+    {
+        this.encoder = encoder;
+    }
+
+    /**
+     * @param name  name
+     * @param value value
+     * @return this
+     * @see FormEncoder#add(String, String)
+     */
+    FormRequestBody add(String name, String value)
+    {
+        encoder.add(name, value);
+        contentLength = -1;
+        return this;
+    }
+
+    /**
+     * @param name  name
+     * @param value value
+     * @return this
+     * @see FormEncoder#addEncoded(String, String)
+     */
+    FormRequestBody addEncoded(String name, String value)
+    {
+        encoder.addEncoded(name, value);
+        contentLength = -1;
+        return this;
+    }
+
+    @Override
+    public MediaType contentType()
+    {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public long contentLength()
+    {
+        if (contentLength < 0)
+        {
+            try
+            {
+                contentLength = encoder.write(null);
+            }
+            catch (IOException e)
+            {
+                // Counting does not do any I/O
+                throw new IllegalStateException(e);
+            }
+        }
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException
+    {
+        encoder.write(sink::writeByte);
+    }
+}
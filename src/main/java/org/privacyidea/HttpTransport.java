@@ -0,0 +1,96 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.privacyidea.PIConstants.HEADER_USER_AGENT;
+
+/**
+ * Sends the requests of an {@link Endpoint} to the server. Implementations create their http client on first use and
+ * must invoke the callback exactly once for every request, also if the request could not be created.
+ *
+ * @see TransportType
+ */
+interface HttpTransport
+{
+    /**
+     * Receives the result of a request.
+     */
+    interface Callback
+    {
+        /**
+         * @param code http status code
+         * @param body decoded body of the response
+         */
+        void onResponse(int code, String body);
+
+        /**
+         * @param e the reason why the request failed
+         */
+        void onFailure(IOException e);
+    }
+
+    /**
+     * Send the request asynchronously. The parameters are sent as query for GET requests and as form body for POST
+     * requests, encoded like {@link FormEncoder} does.
+     *
+     * @param endpoint server endpoint
+     * @param params   request parameters
+     * @param headers  request headers, may be null. A User-Agent header replaces the default one.
+     * @param method   http request method
+     * @param callback callback
+     */
+    void sendAsync(String endpoint, Map<String, String> params, Map<String, String> headers, String method, Callback callback);
+
+    /**
+     * Establish the given number of connections to the server, waiting at most the http timeout.
+     *
+     * @param count number of connections
+     */
+    void prewarm(int count);
+
+    /**
+     * Release the threads and connections of the http client.
+     *
+     * @param cancelCalls whether calls that are still running should be cancelled
+     */
+    void close(boolean cancelCalls);
+
+    /**
+     * @return number of open connections to the server or -1 if the client does not provide it
+     */
+    int connectionCount();
+
+    /**
+     * A User-Agent supplied by the caller overrides the configured default, so a single request can be marked as
+     * originating from a specific flow.
+     *
+     * @param headers request headers
+     * @return true if the headers contain a User-Agent, the name is case-insensitive
+     */
+    static boolean containsUserAgent(Map<String, String> headers)
+    {
+        for (String name : headers.keySet())
+        {
+            if (HEADER_USER_AGENT.equalsIgnoreCase(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
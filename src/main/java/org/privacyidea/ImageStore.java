@@ -0,0 +1,219 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed store for the images contained in the responses of privacyIDEA, e.g. the QR codes of enrollments or
+ * the images of challenges. Identical images are stored once and all parsed objects share the same instance of the
+ * image string. An image can be identified by a reference (the hex encoded SHA-256 of its content), which can be used
+ * by the application to serve the image via its own URL instead of embedding the data URI into every page. The
+ * reference is only computed when it is requested, parsing a response just looks up the image by its content.
+ * <p>
+ * Enable the store with {@link PrivacyIDEA.Builder#imageStore(int)}.
+ */
+public class ImageStore
+{
+    private static final String DATA_URI_PREFIX = "data:";
+    private static final String BASE64_MARKER = ";base64,";
+
+    private final int maxEntries;
+    // Image content to the shared instance and its reference
+    private final Map<String, StoredImage> images;
+    // Reference to the shared instance, for the images of which the reference was requested
+    private final Map<String, String> references;
+
+    ImageStore(int maxEntries)
+    {
+        this.maxEntries = Math.max(1, maxEntries);
+        // Access order makes the map evict the least recently used image first
+        this.images = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredImage> eldest)
+            {
+                return size() > ImageStore.this.maxEntries;
+            }
+        };
+        this.references = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+            {
+                return size() > ImageStore.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the shared instance of the image. If the image is not in the store yet, it is added.
+     *
+     * @param image image, usually a data URI
+     * @return the stored instance with the same content or the input if it is empty
+     */
+    String deduplicate(String image)
+    {
+        if (image == null || image.isEmpty())
+        {
+            return image;
+        }
+        return store(image).image;
+    }
+
+    /**
+     * Add the image to the store and get its reference.
+     *
+     * @param image image, usually a data URI
+     * @return reference to the image or an empty string if the image is empty
+     */
+    public String reference(String image)
+    {
+        if (image == null || image.isEmpty())
+        {
+            return "";
+        }
+        StoredImage stored = store(image);
+        String id = stored.reference;
+        if (id == null)
+        {
+            // The digest is computed once per stored image, outside the lock
+            id = hash(stored.image);
+            stored.reference = id;
+        }
+        synchronized (images)
+        {
+            references.putIfAbsent(id, stored.image);
+        }
+        return id;
+    }
+
+    private StoredImage store(String image)
+    {
+        // The lookup uses String.hashCode, which the string caches, so no digest of the image is computed here
+        synchronized (images)
+        {
+            return images.computeIfAbsent(image, StoredImage::new);
+        }
+    }
+
+    /**
+     * @param reference reference of the image
+     * @return the image or null if it is not in the store (anymore)
+     */
+    public String get(String reference)
+    {
+        synchronized (images)
+        {
+            return references.get(reference);
+        }
+    }
+
+    /**
+     * Get the content type of the image if it is a data URI, e.g. "image/png".
+     *
+     * @param reference reference of the image
+     * @return content type or null if the image is not in the store or is not a data URI
+     */
+    public String contentType(String reference)
+    {
+        String image = get(reference);
+        if (image == null || !image.startsWith(DATA_URI_PREFIX))
+        {
+            return null;
+        }
+        int end = image.indexOf(BASE64_MARKER);
+        if (end < 0)
+        {
+            end = image.indexOf(',');
+        }
+        return end > DATA_URI_PREFIX.length() ? image.substring(DATA_URI_PREFIX.length(), end) : null;
+    }
+
+    /**
+     * Get the decoded bytes of an image that is a base64 encoded data URI, so it can be served directly.
+     *
+     * @param reference reference of the image
+     * @return the bytes or null if the image is not in the store or is not a base64 encoded data URI
+     */
+    public byte[] bytes(String reference)
+    {
+        String image = get(reference);
+        if (image == null || !image.startsWith(DATA_URI_PREFIX))
+        {
+            return null;
+        }
+        int start = image.indexOf(BASE64_MARKER);
+        if (start < 0)
+        {
+            return null;
+        }
+        try
+        {
+            return Base64.getDecoder().decode(image.substring(start + BASE64_MARKER.length()));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return number of images in the store
+     */
+    public int size()
+    {
+        synchronized (images)
+        {
+            return images.size();
+        }
+    }
+
+    private static final class StoredImage
+    {
+        private final String image;
+        // Hex encoded SHA-256 of the image, set when the reference is requested for the first time
+        private volatile String reference;
+
+        private StoredImage(String image)
+        {
+            this.image = image;
+        }
+    }
+
+    private static String hash(String image)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(image.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+            {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // SHA-256 is required to be available on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -27,9 +27,11 @@ import com.google.gson.JsonSyntaxException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.privacyidea.PIConstants.ASSERTIONCLIENTEXTENSIONS;
 import static org.privacyidea.PIConstants.ATTESTATION_OBJECT;
@@ -38,6 +40,7 @@ import static org.privacyidea.PIConstants.AUTHENTICATION;
 import static org.privacyidea.PIConstants.AUTHENTICATORDATA;
 import static org.privacyidea.PIConstants.AUTHENTICATOR_ATTACHMENT;
 import static org.privacyidea.PIConstants.AUTHENTICATOR_DATA;
+import static org.privacyidea.PIConstants.AUTH_ITEMS;
 import static org.privacyidea.PIConstants.CHALLENGE_STATUS;
 import static org.privacyidea.PIConstants.CLIENTDATA;
 import static org.privacyidea.PIConstants.CLIENTDATAJSON;
@@ -59,6 +62,7 @@ import static org.privacyidea.PIConstants.MAXFAIL;
 import static org.privacyidea.PIConstants.MESSAGE;
 import static org.privacyidea.PIConstants.MESSAGES;
 import static org.privacyidea.PIConstants.MULTI_CHALLENGE;
+import static org.privacyidea.PIConstants.OFFLINE;
 import static org.privacyidea.PIConstants.OTPLEN;
 import static org.privacyidea.PIConstants.PASSKEY;
 import static org.privacyidea.PIConstants.PASSKEY_REGISTRATION;
@@ -105,7 +109,6 @@ public class JSONParser
         }
 
         JsonObject obj;
-        Gson gson = new GsonBuilder().setPrettyPrinting().setLenient().create();
         try
         {
             obj = JsonParser.parseString(json).getAsJsonObject();
@@ -116,7 +119,34 @@ public class JSONParser
             return json;
         }
 
-        return gson.toJson(obj);
+        return PrettyGson.INSTANCE.toJson(obj);
+    }
+
+    /**
+     * Extract the offline values of the tokens from the auth_items of the response.
+     *
+     * @param serverResponse response of the server
+     * @return list of offline tokens, empty if there are none or if error
+     */
+    List<OfflineStore.OfflineToken> parseOfflineTokens(String serverResponse)
+    {
+        if (serverResponse == null || !serverResponse.contains(AUTH_ITEMS))
+        {
+            return new ArrayList<>();
+        }
+        try
+        {
+            JsonObject authItems = JsonParser.parseString(serverResponse).getAsJsonObject().getAsJsonObject(AUTH_ITEMS);
+            if (authItems != null && authItems.get(OFFLINE) instanceof JsonArray)
+            {
+                return OfflineStore.parseOfflineTokens(authItems.getAsJsonArray(OFFLINE));
+            }
+        }
+        catch (JsonSyntaxException | IllegalStateException | ClassCastException e)
+        {
+            privacyIDEA.error("Unable to parse the offline values: " + e.getMessage());
+        }
+        return new ArrayList<>();
     }
 
     /**
@@ -237,7 +267,7 @@ public class JSONParser
             }
             response.message = getString(detail, MESSAGE);
             response.username = getString(detail, USERNAME);
-            response.image = getString(detail, IMAGE);
+            response.image = image(getString(detail, IMAGE));
             response.serial = getString(detail, SERIAL);
             response.transactionID = getString(detail, TRANSACTION_ID);
             response.type = getString(detail, TYPE);
@@ -282,14 +312,14 @@ public class JSONParser
             JsonArray arrChallenges = detail.getAsJsonArray(MULTI_CHALLENGE);
             if (arrChallenges != null)
             {
-                List<String> webauthnSignRequests = new ArrayList<>();
+                List<JsonObject> webauthnSignRequests = new ArrayList<>();
                 for (int i = 0; i < arrChallenges.size(); i++)
                 {
                     JsonObject challenge = arrChallenges.get(i).getAsJsonObject();
                     String serial = getString(challenge, SERIAL);
                     String message = getString(challenge, MESSAGE);
                     String clientMode = getString(challenge, CLIENT_MODE);
-                    String image = getString(challenge, IMAGE);
+                    String image = image(getString(challenge, IMAGE));
 
                     String transactionID = getString(challenge, TRANSACTION_ID);
                     String type = getString(challenge, TYPE);
@@ -306,9 +336,9 @@ public class JSONParser
 
                     if (TOKEN_TYPE_WEBAUTHN.equals(type))
                     {
-                        String webauthnSignRequest = getItemFromAttributes(challenge);
+                        JsonObject webauthnSignRequest = getSignRequestFromAttributes(challenge);
                         response.webAuthnTransactionId = transactionID;
-                        if (webauthnSignRequest != null && !webauthnSignRequest.isEmpty())
+                        if (webauthnSignRequest != null)
                         {
                             webauthnSignRequests.add(webauthnSignRequest);
                         }
@@ -324,7 +354,7 @@ public class JSONParser
                 }
                 if (!webauthnSignRequests.isEmpty())
                 {
-                    response.webAuthnSignRequest = mergeWebAuthnSignRequest(webauthnSignRequests);
+                    response.webAuthnSignRequest = mergeSignRequests(webauthnSignRequests);
                 }
             }
         }
@@ -333,38 +363,64 @@ public class JSONParser
 
     String mergeWebAuthnSignRequest(List<String> webAuthnSignRequests) throws JsonSyntaxException
     {
-        String first = webAuthnSignRequests.get(0);
-        //webAuthnSignRequests.remove(0);
-
-        List<JsonArray> extracted = new ArrayList<>();
+        List<JsonObject> signRequests = new ArrayList<>(webAuthnSignRequests.size());
         for (String signRequest : webAuthnSignRequests)
         {
-            JsonObject obj = JsonParser.parseString(signRequest).getAsJsonObject();
-            extracted.add(obj.getAsJsonArray("allowCredentials"));
+            signRequests.add(JsonParser.parseString(signRequest).getAsJsonObject());
+        }
+        return mergeSignRequests(signRequests);
+    }
+
+    /**
+     * Merge the allowCredentials of the sign requests into the first sign request, so that it can be used with any of the
+     * registered devices. Credentials that are contained in multiple sign requests are only added once.
+     *
+     * @param signRequests sign requests of the webauthn challenges, at least one
+     * @return merged sign request as json string
+     */
+    private static String mergeSignRequests(List<JsonObject> signRequests)
+    {
+        JsonObject signRequest = signRequests.get(0);
+        if (signRequests.size() == 1)
+        {
+            // Nothing to merge, the only sign request is used as it is
+            return signRequest.toString();
         }
 
-        JsonObject signRequest = JsonParser.parseString(first).getAsJsonObject();
         JsonArray allowCredentials = new JsonArray();
-        extracted.forEach(allowCredentials::addAll);
-
+        Set<String> credentialIds = new HashSet<>();
+        for (JsonObject request : signRequests)
+        {
+            JsonElement credentials = request.get("allowCredentials");
+            if (credentials == null || !credentials.isJsonArray())
+            {
+                continue;
+            }
+            for (JsonElement credential : credentials.getAsJsonArray())
+            {
+                JsonElement id = credential.isJsonObject() ? credential.getAsJsonObject().get("id") : null;
+                if (id == null || !id.isJsonPrimitive() || credentialIds.add(id.getAsString()))
+                {
+                    allowCredentials.add(credential);
+                }
+            }
+        }
         signRequest.add("allowCredentials", allowCredentials);
-
         return signRequest.toString();
     }
 
-    private String getItemFromAttributes(JsonObject jsonObject)
+    private JsonObject getSignRequestFromAttributes(JsonObject jsonObject)
     {
-        String ret = "";
         JsonElement attributeElement = jsonObject.get(ATTRIBUTES);
-        if (attributeElement != null && !attributeElement.isJsonNull())
+        if (attributeElement != null && attributeElement.isJsonObject())
         {
             JsonElement requestElement = attributeElement.getAsJsonObject().get(PIConstants.WEBAUTHN_SIGN_REQUEST);
-            if (requestElement != null && !requestElement.isJsonNull())
+            if (requestElement != null && requestElement.isJsonObject())
             {
-                ret = requestElement.toString();
+                return requestElement.getAsJsonObject();
             }
         }
-        return ret;
+        return null;
     }
 
     /**
@@ -402,8 +458,12 @@ public class JSONParser
                 JsonArray tokens = value.getAsJsonArray(TOKENS);
                 if (tokens != null)
                 {
-                    List<TokenInfo> infos = new ArrayList<>();
-                    tokens.forEach(jsonValue -> infos.add(parseSingleTokenInfo(jsonValue.toString())));
+                    List<TokenInfo> infos = new ArrayList<>(tokens.size());
+                    for (JsonElement token : tokens)
+                    {
+                        infos.add(token != null && token.isJsonObject() ? parseSingleTokenInfo(token.getAsJsonObject())
+                                                                        : new TokenInfo());
+                    }
                     ret = infos;
                 }
             }
@@ -412,31 +472,15 @@ public class JSONParser
     }
 
     /**
-     * Parse the info of a single token into an object.
+     * Parse the info of a single token into an object. The element of the already parsed response is used directly
+     * instead of being converted to a string and parsed again.
      *
-     * @param json json array element as string
-     * @return TokenInfo object, might be null object is json is empty
+     * @param obj json object of the token
+     * @return TokenInfo object
      */
-    private TokenInfo parseSingleTokenInfo(String json)
+    private TokenInfo parseSingleTokenInfo(JsonObject obj)
     {
-        TokenInfo info = new TokenInfo();
-        if (json == null || json.isEmpty())
-        {
-            return info;
-        }
-
-        info.rawJson = json;
-
-        JsonObject obj;
-        try
-        {
-            obj = JsonParser.parseString(json).getAsJsonObject();
-        }
-        catch (JsonSyntaxException e)
-        {
-            privacyIDEA.error(e);
-            return info;
-        }
+        TokenInfo info = new TokenInfo(obj);
 
         info.active = getBoolean(obj, "active");
         info.count = getInt(obj, "count");
@@ -451,7 +495,7 @@ public class JSONParser
         info.revoked = getBoolean(obj, "revoked");
         info.rolloutState = getString(obj, "rollout_state");
         info.serial = getString(obj, SERIAL);
-        info.image = getString(obj, IMAGE);
+        info.image = image(getString(obj, IMAGE));
         info.syncWindow = getInt(obj, "sync_window");
         info.tokenType = getString(obj, "tokentype");
         info.userEditable = getBoolean(obj, "user_editable");
@@ -459,28 +503,28 @@ public class JSONParser
         info.userRealm = getString(obj, "user_realm");
         info.username = getString(obj, USERNAME);
 
-        JsonObject joInfo = obj.getAsJsonObject(INFO);
-        if (joInfo != null)
+        JsonElement joInfo = obj.get(INFO);
+        if (joInfo != null && joInfo.isJsonObject())
         {
-            joInfo.entrySet().forEach(entry ->
-                                      {
-                                          if (entry.getKey() != null && entry.getValue() != null)
-                                          {
-                                              info.info.put(entry.getKey(), entry.getValue().getAsString());
-                                          }
-                                      });
+            for (Map.Entry<String, JsonElement> entry : joInfo.getAsJsonObject().entrySet())
+            {
+                if (entry.getKey() != null && entry.getValue() != null && !entry.getValue().isJsonNull())
+                {
+                    info.info.put(entry.getKey(), entry.getValue().getAsString());
+                }
+            }
         }
 
-        JsonArray arrRealms = obj.getAsJsonArray(REALMS);
-        if (arrRealms != null)
+        JsonElement arrRealms = obj.get(REALMS);
+        if (arrRealms != null && arrRealms.isJsonArray())
         {
-            arrRealms.forEach(val ->
-                              {
-                                  if (val != null)
-                                  {
-                                      info.realms.add(val.getAsString());
-                                  }
-                              });
+            for (JsonElement val : arrRealms.getAsJsonArray())
+            {
+                if (val != null && !val.isJsonNull())
+                {
+                    info.realms.add(val.getAsString());
+                }
+            }
         }
         return info;
     }
@@ -525,7 +569,7 @@ public class JSONParser
                 if (google != null)
                 {
                     rInfo.googleurl.description = getString(google, "description");
-                    rInfo.googleurl.img = getString(google, "img");
+                    rInfo.googleurl.img = image(getString(google, "img"));
                     rInfo.googleurl.value = getString(google, "value");
                 }
 
@@ -533,7 +577,7 @@ public class JSONParser
                 if (oath != null)
                 {
                     rInfo.oathurl.description = getString(oath, "description");
-                    rInfo.oathurl.img = getString(oath, "img");
+                    rInfo.oathurl.img = image(getString(oath, "img"));
                     rInfo.oathurl.value = getString(oath, "value");
                 }
 
@@ -541,7 +585,7 @@ public class JSONParser
                 if (otp != null)
                 {
                     rInfo.otpkey.description = getString(otp, "description");
-                    rInfo.otpkey.img = getString(otp, "img");
+                    rInfo.otpkey.img = image(getString(otp, "img"));
                     rInfo.otpkey.value = getString(otp, "value");
                     rInfo.otpkey.value_b32 = getString(otp, "value_b32");
                 }
@@ -632,6 +676,17 @@ public class JSONParser
         return params;
     }
 
+    /**
+     * Get the shared instance of the image from the image store, if it is enabled.
+     *
+     * @param image image from the response
+     * @return shared instance or the input
+     */
+    private String image(String image)
+    {
+        ImageStore imageStore = privacyIDEA.imageStore();
+        return imageStore != null ? imageStore.deduplicate(image) : image;
+    }
 
     private boolean getBoolean(JsonObject obj, String name)
     {
@@ -688,4 +743,13 @@ public class JSONParser
         params.put(RAW_ID, getString(obj, RAW_ID));
         return params;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gson instances are thread-safe, so the formatter is shared instead of created for every call. It is only created
+     * when it is used for the first time, i.e. when a response is logged.
+     */
+    private static class PrettyGson
+    {
+        private static final Gson INSTANCE = new GsonBuilder().setPrettyPrinting().setLenient().create();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.privacyidea.PIConstants.JWT;
+import static org.privacyidea.PIConstants.JWT_EXPIRATION_TIME;
+
+/**
+ * Keeps the JWT of the service account in a file encrypted with AES-GCM, so that an instance that is restarted can use
+ * the JWT until it expires instead of requesting a new one from /auth.
+ * The file also contains the server and the service account, a JWT is only used for the same server and account.
+ * <p>
+ * Enable the store with {@link PrivacyIDEA.Builder#jwtStore(Path, byte[])}. {@link SharedJWTFile} shares the JWT with
+ * other processes.
+ */
+class JWTStore
+{
+    private static final String SERVER = "server";
+    private static final String ACCOUNT = "account";
+    private static final String ACCOUNT_REALM = "realm";
+
+    final PrivacyIDEA privacyIDEA;
+    final EncryptedFile file;
+    private final String server;
+    private final String account;
+    private final String accountRealm;
+
+    JWTStore(PrivacyIDEA privacyIDEA, Path file, byte[] key, String server, String account, String accountRealm)
+    {
+        this.privacyIDEA = privacyIDEA;
+        this.file = new EncryptedFile(file, key);
+        this.server = server;
+        this.account = account;
+        this.accountRealm = accountRealm != null ? accountRealm : "";
+    }
+
+    /**
+     * @return the stored JWT and its expiration time like {@link JSONParser#getJWT(String)}, or null if there is none
+     * for the server and service account
+     */
+    LinkedHashMap<String, String> load()
+    {
+        byte[] plain = null;
+        try
+        {
+            plain = read();
+            if (plain == null)
+            {
+                return null;
+            }
+            JsonObject obj = JsonParser.parseString(new String(plain, StandardCharsets.UTF_8)).getAsJsonObject();
+            if (!server.equals(obj.get(SERVER).getAsString()) || !account.equals(obj.get(ACCOUNT).getAsString()) ||
+                !accountRealm.equals(obj.get(ACCOUNT_REALM).getAsString()))
+            {
+                privacyIDEA.log("The stored JWT is for a different server or service account.");
+                return null;
+            }
+            return new LinkedHashMap<>(Map.of(JWT, obj.get(JWT).getAsString(),
+                                              JWT_EXPIRATION_TIME, obj.get(JWT_EXPIRATION_TIME).getAsString()));
+        }
+        catch (Exception e)
+        {
+            privacyIDEA.error("Unable to load the JWT from " + file.path() + ": " + e.getMessage());
+            return null;
+        }
+        finally
+        {
+            if (plain != null)
+            {
+                Arrays.fill(plain, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Replace the stored JWT.
+     *
+     * @param jwtMap JWT and its expiration time like {@link JSONParser#getJWT(String)}
+     */
+    void save(Map<String, String> jwtMap)
+    {
+        JsonObject obj = new JsonObject();
+        obj.addProperty(SERVER, server);
+        obj.addProperty(ACCOUNT, account);
+        obj.addProperty(ACCOUNT_REALM, accountRealm);
+        obj.addProperty(JWT, jwtMap.get(JWT));
+        obj.addProperty(JWT_EXPIRATION_TIME, jwtMap.get(JWT_EXPIRATION_TIME));
+        byte[] plain = obj.toString().getBytes(StandardCharsets.UTF_8);
+        try
+        {
+            write(plain);
+        }
+        catch (IOException | GeneralSecurityException e)
+        {
+            privacyIDEA.error("Unable to save the JWT to " + file.path() + ": " + e.getMessage());
+        }
+        finally
+        {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+
+    /**
+     * Retrieve a new JWT and store it.
+     *
+     * @param retrieval retrieves the JWT from the server and returns it like {@link JSONParser#getJWT(String)}
+     * @return the new JWT or null if the retrieval failed
+     */
+    LinkedHashMap<String, String> retrieve(Supplier<LinkedHashMap<String, String>> retrieval)
+    {
+        LinkedHashMap<String, String> jwtMap = retrieval.get();
+        if (jwtMap != null)
+        {
+            save(jwtMap);
+        }
+        return jwtMap;
+    }
+
+    /**
+     * @param jwtMap JWT and its expiration time like {@link JSONParser#getJWT(String)}
+     * @return true if the JWT is valid for longer than the time before expiration at which it is refreshed
+     */
+    static boolean isFresh(Map<String, String> jwtMap)
+    {
+        long jwtExpiration = Long.parseLong(jwtMap.get(JWT_EXPIRATION_TIME));
+        return jwtExpiration - PrivacyIDEA.JWT_REFRESH_BEFORE_EXPIRATION_S > System.currentTimeMillis() / 1000L;
+    }
+
+    /**
+     * @return the decrypted content or null if nothing is stored
+     */
+    byte[] read() throws IOException, GeneralSecurityException
+    {
+        return file.exists() ? file.read() : null;
+    }
+
+    /**
+     * @param plain content to encrypt and store
+     */
+    synchronized void write(byte[] plain) throws IOException, GeneralSecurityException
+    {
+        file.write(plain);
+    }
+}
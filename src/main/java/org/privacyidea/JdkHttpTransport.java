@@ -0,0 +1,428 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+import static org.privacyidea.PIConstants.GET;
+import static org.privacyidea.PIConstants.HEADER_CONTENT_ENCODING;
+import static org.privacyidea.PIConstants.HEADER_USER_AGENT;
+import static org.privacyidea.PIConstants.POST;
+
+/**
+ * Transport that sends the requests with the {@link HttpClient} of the JDK. The client uses HTTP/2 if the server supports
+ * it and a single executor for all requests. Like OkHttp, it requests gzip compressed responses and decompresses them.
+ */
+class JdkHttpTransport implements HttpTransport
+{
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    private static final String CHARSET = "charset=";
+
+    private final PrivacyIDEA privacyIDEA;
+    private final PIConfig piConfig;
+    // Created on first use, like the OkHttp client
+    private volatile HttpClient client;
+    private volatile ExecutorService executor;
+    // The server url does not change, so the uri of each endpoint is only parsed once
+    private final Map<String, URI> baseUris = new ConcurrentHashMap<>();
+    private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Trusts all certificates. Being an X509ExtendedTrustManager, it also disables the hostname verification of the engine.
+    private static final X509ExtendedTrustManager TRUST_ALL = new X509ExtendedTrustManager()
+    {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+        {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+        {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+        {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+        {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType)
+        {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType)
+        {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers()
+        {
+            return new X509Certificate[]{};
+        }
+    };
+
+    JdkHttpTransport(PrivacyIDEA privacyIDEA)
+    {
+        this.privacyIDEA = privacyIDEA;
+        this.piConfig = privacyIDEA.configuration();
+    }
+
+    /**
+     * @return the http client, created on first use
+     */
+    HttpClient client()
+    {
+        HttpClient c = this.client;
+        if (c == null)
+        {
+            synchronized (this)
+            {
+                c = this.client;
+                if (c == null)
+                {
+                    c = createClient();
+                    this.client = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private HttpClient createClient()
+    {
+        // No more threads than requests can be sent at the same time over the pools of the client, the bulkheads and the
+        // concurrency limiter bound the requests. Threads are only kept while there are requests, like the dispatcher
+        // of OkHttp does.
+        int threads = piConfig.maxConcurrentRequests();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                                         PrivacyIDEA.namedThreadFactory("privacyidea-http-"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                                               .version(HttpClient.Version.HTTP_2)
+                                               .connectTimeout(Duration.ofMillis(piConfig.httpTimeoutMs))
+                                               .followRedirects(HttpClient.Redirect.NORMAL)
+                                               .executor(pool);
+        if (!piConfig.verifySSL)
+        {
+            try
+            {
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, new TrustManager[]{TRUST_ALL}, new java.security.SecureRandom());
+                builder.sslContext(sslContext);
+            }
+            catch (GeneralSecurityException e)
+            {
+                privacyIDEA.error(e);
+            }
+        }
+        if (!piConfig.proxyHost.isEmpty())
+        {
+            builder.proxy(ProxySelector.of(new InetSocketAddress(piConfig.proxyHost, piConfig.proxyPort)));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public void sendAsync(String endpoint, Map<String, String> params, Map<String, String> headers, String method,
+                          Callback callback)
+    {
+        HttpRequest request = buildRequest(endpoint, params, headers, method);
+        if (request == null)
+        {
+            // Invoke the callback to terminate the thread that called this function.
+            callback.onFailure(new IOException("Request could not be created because the url could not be parsed"));
+            return;
+        }
+        CompletableFuture<HttpResponse<byte[]>> future = client().sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        inFlight.add(future);
+        future.whenComplete((response, throwable) ->
+                            {
+                                inFlight.remove(future);
+                                if (throwable != null)
+                                {
+                                    callback.onFailure(ioException(throwable));
+                                    return;
+                                }
+                                String body;
+                                try
+                                {
+                                    body = bodyString(response);
+                                }
+                                catch (IOException e)
+                                {
+                                    callback.onFailure(e);
+                                    return;
+                                }
+                                callback.onResponse(response.statusCode(), body);
+                            });
+    }
+
+    @Override
+    public void prewarm(int count)
+    {
+        URI uri = baseUri("");
+        if (uri == null)
+        {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(uri)
+                                                        .timeout(Duration.ofMillis(piConfig.httpTimeoutMs))
+                                                        .method("HEAD", HttpRequest.BodyPublishers.noBody());
+        if (piConfig.userAgent != null)
+        {
+            requestBuilder.header(HEADER_USER_AGENT, piConfig.userAgent);
+        }
+        HttpRequest request = requestBuilder.build();
+        List<CompletableFuture<HttpResponse<Void>>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            futures.add(client().sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+        try
+        {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(piConfig.httpTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e)
+        {
+            privacyIDEA.error("Connection warm-up failed: " + ioException(e.getCause()).getMessage());
+        }
+        catch (TimeoutException e)
+        {
+            privacyIDEA.error("Connection warm-up did not complete within " + piConfig.httpTimeoutMs + "ms");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        privacyIDEA.log("Connection warm-up: " + count + " request(s) in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Cancel the running requests if requested and stop the threads of the executor. The HttpClient of the JDK can not be
+     * closed before Java 21, its connections are closed when it is no longer referenced.
+     */
+    @Override
+    public void close(boolean cancelCalls)
+    {
+        if (cancelCalls)
+        {
+            for (CompletableFuture<?> future : inFlight)
+            {
+                future.cancel(true);
+            }
+        }
+        ExecutorService e = this.executor;
+        if (e != null)
+        {
+            e.shutdown();
+        }
+        this.client = null;
+    }
+
+    /**
+     * The HttpClient of the JDK does not provide the number of its connections.
+     *
+     * @return -1
+     */
+    @Override
+    public int connectionCount()
+    {
+        return -1;
+    }
+
+    /**
+     * Build the request for the endpoint. The encoding of the parameters and the headers are the same as for OkHttp.
+     *
+     * @param endpoint server endpoint
+     * @param params   request parameters
+     * @param headers  request headers
+     * @param method   http request method
+     * @return request or null if the url could not be parsed
+     */
+    HttpRequest buildRequest(String endpoint, Map<String, String> params, Map<String, String> headers, String method)
+    {
+        URI uri = baseUri(endpoint);
+        if (uri == null)
+        {
+            return null;
+        }
+        FormEncoder encoder = FormEncoder.of(params);
+        if (GET.equals(method) && !encoder.isEmpty())
+        {
+            uri = URI.create(uri + "?" + new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+        }
+
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(piConfig.httpTimeoutMs));
+        List<String> logHeaders = new ArrayList<>();
+        boolean callerProvidedAcceptEncoding = false;
+        if (piConfig.userAgent != null && (headers == null || !HttpTransport.containsUserAgent(headers)))
+        {
+            requestBuilder.header(HEADER_USER_AGENT, piConfig.userAgent);
+            logHeaders.add(HEADER_USER_AGENT + ": " + piConfig.userAgent);
+        }
+        if (headers != null)
+        {
+            for (Map.Entry<String, String> header : headers.entrySet())
+            {
+                if (header.getValue() == null)
+                {
+                    privacyIDEA.error("Unable to add header " + header.getKey() + " because the value is null");
+                    continue;
+                }
+                callerProvidedAcceptEncoding |= HEADER_ACCEPT_ENCODING.equalsIgnoreCase(header.getKey());
+                requestBuilder.header(header.getKey(), header.getValue());
+                logHeaders.add(header.getKey() + ": " + header.getValue());
+            }
+        }
+        if (!callerProvidedAcceptEncoding)
+        {
+            requestBuilder.header(HEADER_ACCEPT_ENCODING, "gzip");
+        }
+
+        if (POST.equals(method))
+        {
+            requestBuilder.header(HEADER_CONTENT_TYPE, FORM_CONTENT_TYPE)
+                          .POST(HttpRequest.BodyPublishers.ofByteArray(encoder.toByteArray()));
+        }
+        else
+        {
+            requestBuilder.GET();
+        }
+
+        if (!piConfig.disableLog)
+        {
+            privacyIDEA.log("Header: " + String.join(" | ", logHeaders));
+        }
+        return requestBuilder.build();
+    }
+
+    /**
+     * @return the parsed uri of the endpoint or null if the server url is not a valid http(s) url
+     */
+    private URI baseUri(String endpoint)
+    {
+        URI uri = baseUris.get(endpoint);
+        if (uri == null)
+        {
+            try
+            {
+                uri = new URI(piConfig.serverURL + endpoint);
+                if (uri.getHost() == null || !("https".equalsIgnoreCase(uri.getScheme()) || "http".equalsIgnoreCase(uri.getScheme())))
+                {
+                    throw new URISyntaxException(uri.toString(), "Not a http(s) url");
+                }
+                baseUris.put(endpoint, uri);
+            }
+            catch (URISyntaxException e)
+            {
+                privacyIDEA.error("Server url could not be parsed: " + (piConfig.serverURL + endpoint));
+                return null;
+            }
+        }
+        return uri;
+    }
+
+    /**
+     * Decode the body of the response with the charset of the Content-Type, decompressing it if it is gzip compressed.
+     *
+     * @param response response
+     * @return body as string
+     * @throws IOException if the body can not be decompressed
+     */
+    static String bodyString(HttpResponse<byte[]> response) throws IOException
+    {
+        byte[] body = response.body();
+        if ("gzip".equalsIgnoreCase(response.headers().firstValue(HEADER_CONTENT_ENCODING).orElse(null)))
+        {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body)))
+            {
+                body = in.readAllBytes();
+            }
+        }
+        return new String(body, charset(response.headers().firstValue(HEADER_CONTENT_TYPE)));
+    }
+
+    private static Charset charset(Optional<String> contentType)
+    {
+        if (contentType.isPresent())
+        {
+            String value = contentType.get();
+            int index = value.toLowerCase().indexOf(CHARSET);
+            if (index >= 0)
+            {
+                String name = value.substring(index + CHARSET.length()).split(";")[0].trim().replace("\"", "");
+                try
+                {
+                    return Charset.forName(name);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    // Unknown charset, use the default
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static IOException ioException(Throwable throwable)
+    {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+}
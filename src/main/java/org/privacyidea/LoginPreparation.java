@@ -0,0 +1,71 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The combined result of {@link PrivacyIDEA#prepareLogin(String, Set, long)}, which runs the requests that are needed
+ * before the second factor of a user can be asked for at the same time. The result of a step is null if the step was
+ * not requested, failed or did not complete before the deadline. The steps that did not complete in time are in
+ * {@link #timedOut}, the steps that failed or could not be started are in {@link #failed}.
+ */
+public class LoginPreparation
+{
+    /**
+     * The requests that can be run for the preparation of a login.
+     */
+    public enum Step
+    {
+        /**
+         * {@link PrivacyIDEA#getTokenInfo(String)} for the user. Requires a service account.
+         */
+        TOKEN_INFO,
+        /**
+         * {@link PrivacyIDEA#triggerChallenges(String)} for the user. Requires a service account.
+         */
+        TRIGGER_CHALLENGES,
+        /**
+         * {@link PrivacyIDEA#validateInitialize(String)} with the type passkey. Independent of the user.
+         */
+        PASSKEY_CHALLENGE
+    }
+
+    public List<TokenInfo> tokenInfo = null;
+    public PIResponse triggeredChallenges = null;
+    public PIResponse passkeyChallenge = null;
+    public final Set<Step> timedOut = EnumSet.noneOf(Step.class);
+    public final Set<Step> failed = EnumSet.noneOf(Step.class);
+    public long elapsedMs = 0;
+
+    /**
+     * @return true if all requested steps completed before the deadline. A step may still have failed, then it is in
+     * {@link #failed} and its result is null.
+     */
+    public boolean complete()
+    {
+        return timedOut.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LoginPreparation{" + "tokenInfo=" + (tokenInfo != null ? tokenInfo.size() + " tokens" : null) +
+               ", triggeredChallenges=" + (triggeredChallenges != null) + ", passkeyChallenge=" + (passkeyChallenge != null) +
+               ", timedOut=" + timedOut + ", failed=" + failed + ", elapsedMs=" + elapsedMs + '}';
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import static org.privacyidea.PIConstants.REFILLTOKEN;
+import static org.privacyidea.PIConstants.RESPONSE;
+import static org.privacyidea.PIConstants.SERIAL;
+import static org.privacyidea.PIConstants.USER;
+
+/**
+ * Store for the offline OTP values of HOTP tokens that are attached to this machine with the offline application in
+ * privacyIDEA. If such a token is used successfully, privacyIDEA includes hashes of the next OTP values (PIN + OTP) in
+ * the response. These are kept here so that the user can still log in if the server is unreachable. A value that was
+ * used offline, and all values before it, can not be used again. When the server is reachable again, the store is
+ * refilled with the last used value via /validate/offlinerefill.
+ * <p>
+ * The hashes are kept in memory and, if a file and key are configured, in a file encrypted with AES-GCM. The file also
+ * contains the last value that was used offline until the refill has been done.
+ * <p>
+ * Enable the store with {@link PrivacyIDEA.Builder#offlineStore()} or {@link PrivacyIDEA.Builder#offlineStore(Path, byte[])}.
+ */
+public class OfflineStore
+{
+    private static final String TOKENS = "tokens";
+    private static final String LAST_PASS = "last_pass";
+
+    private final PrivacyIDEA privacyIDEA;
+    private final EncryptedFile file;
+    private final Object fileLock = new Object();
+    // Serial -> token
+    private final Map<String, OfflineToken> tokens = new LinkedHashMap<>();
+
+    OfflineStore(PrivacyIDEA privacyIDEA, Path file, byte[] key)
+    {
+        this.privacyIDEA = privacyIDEA;
+        this.file = file != null ? new EncryptedFile(file, key) : null;
+        if (this.file != null && this.file.exists())
+        {
+            load();
+        }
+    }
+
+    /**
+     * Offline values of a single token.
+     */
+    static class OfflineToken
+    {
+        final String serial;
+        final String username;
+        final String refillToken;
+        // Counter -> passlib pbkdf2 hash of PIN + OTP
+        final TreeMap<Integer, String> hashes;
+        // The last value used offline, required for the refill
+        String lastPass;
+
+        OfflineToken(String serial, String username, String refillToken, TreeMap<Integer, String> hashes)
+        {
+            this.serial = serial;
+            this.username = username;
+            this.refillToken = refillToken;
+            this.hashes = hashes;
+        }
+    }
+
+    /**
+     * Add the offline values from a response. Existing values of the same token are replaced.
+     *
+     * @param offlineTokens tokens parsed from the response
+     */
+    void put(List<OfflineToken> offlineTokens)
+    {
+        if (offlineTokens.isEmpty())
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            for (OfflineToken token : offlineTokens)
+            {
+                tokens.put(token.serial, token);
+            }
+        }
+        save();
+    }
+
+    /**
+     * Check the pass against the offline values of the user. If it matches, the matching value and all values before it
+     * are removed, so that they can not be used again.
+     *
+     * @param username username
+     * @param pass     PIN + OTP
+     * @return the token that matched or null
+     */
+    OfflineToken validate(String username, String pass)
+    {
+        if (username == null || pass == null || pass.isEmpty())
+        {
+            return null;
+        }
+        List<OfflineToken> candidates = new ArrayList<>();
+        List<Map<Integer, String>> candidateHashes = new ArrayList<>();
+        synchronized (this)
+        {
+            for (OfflineToken token : tokens.values())
+            {
+                if (username.equals(token.username))
+                {
+                    candidates.add(token);
+                    candidateHashes.add(new TreeMap<>(token.hashes));
+                }
+            }
+        }
+        // The hashes are verified outside the lock, because that is slow on purpose
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            OfflineToken token = candidates.get(i);
+            for (Map.Entry<Integer, String> entry : candidateHashes.get(i).entrySet())
+            {
+                if (verify(pass, entry.getValue()))
+                {
+                    boolean consumed;
+                    synchronized (this)
+                    {
+                        // Another thread may have used the same value in the meantime
+                        consumed = tokens.get(token.serial) == token && token.hashes.containsKey(entry.getKey());
+                        if (consumed)
+                        {
+                            token.hashes.headMap(entry.getKey(), true).clear();
+                            token.lastPass = pass;
+                        }
+                    }
+                    if (consumed)
+                    {
+                        save();
+                        return token;
+                    }
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the tokens that have been used offline and need to be refilled, with the last value used offline
+     */
+    synchronized Map<OfflineToken, String> pendingRefills()
+    {
+        Map<OfflineToken, String> pending = new LinkedHashMap<>();
+        for (OfflineToken token : tokens.values())
+        {
+            if (token.lastPass != null)
+            {
+                pending.put(token, token.lastPass);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Replace the token with the refilled values or remove it if the refill was rejected by the server.
+     *
+     * @param used     the token that was refilled
+     * @param pass     the value that was sent for the refill
+     * @param refilled the new values or null if the server rejected the refill
+     */
+    void refilled(OfflineToken used, String pass, OfflineToken refilled)
+    {
+        synchronized (this)
+        {
+            // The token has been replaced by a response or used again offline in the meantime. In the latter case, the
+            // new values could contain the one that was just used, so the next refill has to be done with that.
+            if (tokens.get(used.serial) != used || !pass.equals(used.lastPass))
+            {
+                return;
+            }
+            if (refilled != null)
+            {
+                tokens.put(used.serial, refilled);
+            }
+            else
+            {
+                tokens.remove(used.serial);
+            }
+        }
+        save();
+    }
+
+    /**
+     * @return true if any token has been used offline and not been refilled yet
+     */
+    public synchronized boolean hasPendingRefills()
+    {
+        for (OfflineToken token : tokens.values())
+        {
+            if (token.lastPass != null)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param serial serial of the token
+     * @return number of offline values left for the token
+     */
+    public synchronized int remaining(String serial)
+    {
+        OfflineToken token = tokens.get(serial);
+        return token != null ? token.hashes.size() : 0;
+    }
+
+    /**
+     * @return number of tokens in the store
+     */
+    public synchronized int size()
+    {
+        return tokens.size();
+    }
+
+    /**
+     * Remove the offline values of the user, e.g. if the user was disabled.
+     *
+     * @param username username
+     */
+    public void remove(String username)
+    {
+        synchronized (this)
+        {
+            tokens.values().removeIf(token -> token.username.equals(username));
+        }
+        save();
+    }
+
+    /**
+     * Remove all offline values.
+     */
+    public void clear()
+    {
+        synchronized (this)
+        {
+            tokens.clear();
+        }
+        save();
+    }
+
+    /**
+     * Verify a value against a passlib pbkdf2 hash in the format $pbkdf2-sha512$rounds$salt$checksum. The checksum is
+     * compared in constant time.
+     *
+     * @param pass value to check
+     * @param hash passlib hash
+     * @return true if the value matches the hash
+     */
+    static boolean verify(String pass, String hash)
+    {
+        String[] parts = hash.split("\\$");
+        if (parts.length != 5 || pass.isEmpty())
+        {
+            return false;
+        }
+        String algorithm;
+        switch (parts[1])
+        {
+            case "pbkdf2-sha512":
+                algorithm = "PBKDF2WithHmacSHA512";
+                break;
+            case "pbkdf2-sha256":
+                algorithm = "PBKDF2WithHmacSHA256";
+                break;
+            case "pbkdf2":
+                algorithm = "PBKDF2WithHmacSHA1";
+                break;
+            default:
+                return false;
+        }
+        try
+        {
+            int rounds = Integer.parseInt(parts[2]);
+            byte[] salt = ab64Decode(parts[3]);
+            byte[] checksum = ab64Decode(parts[4]);
+            PBEKeySpec spec = new PBEKeySpec(pass.toCharArray(), salt, rounds, checksum.length * 8);
+            byte[] derived = SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+            spec.clearPassword();
+            return MessageDigest.isEqual(derived, checksum);
+        }
+        catch (IllegalArgumentException | GeneralSecurityException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Decode the "adapted base64" of passlib, which uses '.' instead of '+' and no padding.
+     */
+    private static byte[] ab64Decode(String value)
+    {
+        return Base64.getDecoder().decode(value.replace('.', '+'));
+    }
+
+    /**
+     * Parse the offline tokens from the "offline" array of the auth_items of a response.
+     *
+     * @param offline array of offline items
+     * @return tokens, items without serial or values are skipped
+     */
+    static List<OfflineToken> parseOfflineTokens(JsonArray offline)
+    {
+        List<OfflineToken> result = new ArrayList<>();
+        for (JsonElement element : offline)
+        {
+            OfflineToken token = element.isJsonObject() ? parseOfflineToken(element.getAsJsonObject()) : null;
+            if (token != null)
+            {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    private static OfflineToken parseOfflineToken(JsonObject item)
+    {
+        String serial = string(item, SERIAL);
+        // Older versions of privacyIDEA use "username"
+        String username = item.has(USER) ? string(item, USER) : string(item, PIConstants.USERNAME);
+        JsonElement response = item.get(RESPONSE);
+        if (serial == null || username == null || response == null || !response.isJsonObject())
+        {
+            return null;
+        }
+        TreeMap<Integer, String> hashes = new TreeMap<>();
+        for (Map.Entry<String, JsonElement> entry : response.getAsJsonObject().entrySet())
+        {
+            try
+            {
+                hashes.put(Integer.parseInt(entry.getKey()), entry.getValue().getAsString());
+            }
+            catch (NumberFormatException | UnsupportedOperationException | IllegalStateException e)
+            {
+                // Not a counter and hash
+            }
+        }
+        return new OfflineToken(serial, username, string(item, REFILLTOKEN), hashes);
+    }
+
+    private static String string(JsonObject obj, String name)
+    {
+        JsonElement element = obj.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
+    private void load()
+    {
+        try
+        {
+            String json = new String(file.read(), StandardCharsets.UTF_8);
+            JsonObject obj = JsonParser.parseString(json).getAsJsonObject();
+            synchronized (this)
+            {
+                for (JsonElement element : obj.getAsJsonArray(TOKENS))
+                {
+                    OfflineToken token = parseOfflineToken(element.getAsJsonObject());
+                    if (token != null)
+                    {
+                        token.lastPass = string(element.getAsJsonObject(), LAST_PASS);
+                        tokens.put(token.serial, token);
+                    }
+                }
+            }
+        }
+        catch (IOException | GeneralSecurityException | RuntimeException e)
+        {
+            privacyIDEA.error("Unable to load the offline values from " + file.path() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the current state to the file.
+     */
+    private void save()
+    {
+        if (file == null)
+        {
+            return;
+        }
+        // Saves are serialized, so that an older state never overwrites a newer one
+        synchronized (fileLock)
+        {
+            JsonArray items = new JsonArray();
+            synchronized (this)
+            {
+                for (OfflineToken token : tokens.values())
+                {
+                    JsonObject item = new JsonObject();
+                    item.addProperty(SERIAL, token.serial);
+                    item.addProperty(USER, token.username);
+                    item.addProperty(REFILLTOKEN, token.refillToken);
+                    JsonObject response = new JsonObject();
+                    token.hashes.forEach((counter, hash) -> response.addProperty(String.valueOf(counter), hash));
+                    item.add(RESPONSE, response);
+                    if (token.lastPass != null)
+                    {
+                        item.addProperty(LAST_PASS, token.lastPass);
+                    }
+                    items.add(item);
+                }
+            }
+            JsonObject obj = new JsonObject();
+            obj.add(TOKENS, items);
+            byte[] plain = obj.toString().getBytes(StandardCharsets.UTF_8);
+            try
+            {
+                file.write(plain);
+            }
+            catch (IOException | GeneralSecurityException e)
+            {
+                privacyIDEA.error("Unable to save the offline values to " + file.path() + ": " + e.getMessage());
+            }
+            finally
+            {
+                Arrays.fill(plain, (byte) 0);
+            }
+        }
+    }
+}
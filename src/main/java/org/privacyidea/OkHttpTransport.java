@@ -0,0 +1,454 @@
+/*
+ * Copyright 2023 NetKnights GmbH - nils.behlen@netknights.it
+ * lukas.matusiewicz@netknights.it
+ * - Modified
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.net.URLEncoder;
+import java.net.http.HttpConnectTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.Okio;
+import org.jetbrains.annotations.NotNull;
+
+import static org.privacyidea.PIConstants.GET;
+import static org.privacyidea.PIConstants.HEADER_CONTENT_ENCODING;
+import static org.privacyidea.PIConstants.HEADER_USER_AGENT;
+import static org.privacyidea.PIConstants.POST;
+
+/**
+ * Transport that sends the requests with OkHttp.
+ */
+class OkHttpTransport implements HttpTransport
+{
+    private final PrivacyIDEA privacyIDEA;
+    private final PIConfig piConfig;
+    // Created on first use, creating the client and its SSL context is expensive
+    private volatile OkHttpClient client;
+    // The server url does not change, so the url of each endpoint is only parsed once
+    private final Map<String, HttpUrl> baseUrls = new ConcurrentHashMap<>();
+    private final Headers defaultHeaders;
+    // Default of okhttp
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    private static final int TLS_SESSION_CACHE_SIZE = 100;
+    private static final int TLS_SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    /**
+     * Tag of a request that records whether a connection was acquired for it. OkHttp reports a connect timeout and a
+     * read timeout both as {@link SocketTimeoutException}, this tells them apart.
+     */
+    static final class ConnectionState
+    {
+        volatile boolean acquired;
+    }
+
+    private static final EventListener CONNECTION_LISTENER = new EventListener()
+    {
+        @Override
+        public void connectionAcquired(@NotNull Call call, @NotNull Connection connection)
+        {
+            ConnectionState state = call.request().tag(ConnectionState.class);
+            if (state != null)
+            {
+                state.acquired = true;
+            }
+        }
+    };
+
+    final TrustManager[] trustAllManager = new TrustManager[]{new X509TrustManager()
+    {
+        @Override
+        public void checkClientTrusted(java.security.cert.X509Certificate[] chain, String authType)
+        {
+        }
+
+        @Override
+        public void checkServerTrusted(java.security.cert.X509Certificate[] chain, String authType)
+        {
+        }
+
+        @Override
+        public java.security.cert.X509Certificate[] getAcceptedIssuers()
+        {
+            return new java.security.cert.X509Certificate[]{};
+        }
+    }};
+
+    OkHttpTransport(PrivacyIDEA privacyIDEA)
+    {
+        this.privacyIDEA = privacyIDEA;
+        this.piConfig = privacyIDEA.configuration();
+        this.defaultHeaders = piConfig.userAgent != null ? Headers.of(HEADER_USER_AGENT, piConfig.userAgent) : Headers.of();
+    }
+
+    /**
+     * @return the http client, created on first use
+     */
+    OkHttpClient client()
+    {
+        OkHttpClient c = this.client;
+        if (c == null)
+        {
+            synchronized (this)
+            {
+                c = this.client;
+                if (c == null)
+                {
+                    c = createClient();
+                    this.client = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private OkHttpClient createClient()
+    {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        builder.connectTimeout(piConfig.httpTimeoutMs, TimeUnit.MILLISECONDS)
+               .writeTimeout(piConfig.httpTimeoutMs, TimeUnit.MILLISECONDS)
+               .readTimeout(piConfig.httpTimeoutMs, TimeUnit.MILLISECONDS)
+               .eventListener(CONNECTION_LISTENER);
+
+        boolean limited = piConfig.concurrencyMaxLimit > 0 || !piConfig.bulkheads.isEmpty();
+        if (piConfig.prewarmConnections > 0 || limited)
+        {
+            // Keep at least the pre-warmed connections in the pool and allow them to be opened in parallel
+            int connections = Math.max(DEFAULT_MAX_IDLE_CONNECTIONS, piConfig.prewarmConnections);
+            builder.connectionPool(new ConnectionPool(connections, 5, TimeUnit.MINUTES));
+            // With the concurrency limiter or bulkheads, the limit of the dispatcher must not be lower. It would queue
+            // the requests of all classes together, so that a bulkhead could block the others.
+            Dispatcher dispatcher = new Dispatcher();
+            int maxRequests = limited ? Math.max(connections, piConfig.maxConcurrentRequests()) : connections;
+            dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), maxRequests));
+            dispatcher.setMaxRequestsPerHost(Math.max(dispatcher.getMaxRequestsPerHost(), maxRequests));
+            builder.dispatcher(dispatcher);
+        }
+
+        if (!this.piConfig.verifySSL)
+        {
+            // Trust all certs and verify every host
+            try
+            {
+                final SSLContext sslContext = SSLContext.getInstance("SSL");
+                sslContext.init(null, trustAllManager, new java.security.SecureRandom());
+                // Sessions are cached per SSLContext, so that new connections to the server can resume the TLS session
+                // instead of doing a full handshake. Set explicitly, because this context is created by us.
+                sslContext.getClientSessionContext().setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+                sslContext.getClientSessionContext().setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+                final SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
+                builder.sslSocketFactory(sslSocketFactory, (X509TrustManager) trustAllManager[0]);
+                builder.hostnameVerifier((s, sslSession) -> true);
+            }
+            catch (KeyManagementException | NoSuchAlgorithmException e)
+            {
+                privacyIDEA.error(e);
+            }
+        }
+
+        if (!piConfig.proxyHost.isEmpty())
+        {
+            Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(piConfig.proxyHost, piConfig.proxyPort));
+            builder.proxy(proxy);
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public void sendAsync(String endpoint, Map<String, String> params, Map<String, String> headers, String method,
+                          HttpTransport.Callback callback)
+    {
+        Request request = buildRequest(endpoint, params, headers, method);
+        if (request == null)
+        {
+            // Invoke the callback to terminate the thread that called this function.
+            callback.onFailure(new IOException("Request could not be created because the url could not be parsed"));
+            return;
+        }
+        client().newCall(request).enqueue(adapt(callback));
+    }
+
+    /**
+     * Adapt the callback of the transport to OkHttp. The body of a response is read and closed before it is passed on,
+     * a connect timeout is reported as such.
+     *
+     * @param callback callback of the transport
+     * @return OkHttp callback
+     */
+    static okhttp3.Callback adapt(HttpTransport.Callback callback)
+    {
+        // Qualified, because the callback of HttpTransport has the same name
+        return new okhttp3.Callback()
+        {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e)
+            {
+                callback.onFailure(connectFailure(call, e));
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response)
+            {
+                // For OkHttp, the response body is always available via `body()`, regardless of HTTP status.
+                // We must ensure the body is closed to prevent resource leaks, and it can only be consumed once.
+                // Using try-with-resources guarantees the body is properly closed after reading.
+                String body;
+                try (ResponseBody responseBody = response.body())
+                {
+                    body = responseBody != null ? bodyString(response, responseBody) : null;
+                }
+                catch (IOException e)
+                {
+                    callback.onFailure(e);
+                    return;
+                }
+                callback.onResponse(response.code(), body);
+            }
+        };
+    }
+
+    /**
+     * A timeout before a connection was acquired happened while connecting (or during the TLS handshake), so the request
+     * was not sent. It is reported as {@link HttpConnectTimeoutException}, like the JDK client does.
+     *
+     * @param call    failed call
+     * @param failure reason why the call failed
+     * @return the failure, or a connect timeout if the call timed out before it had a connection
+     */
+    static IOException connectFailure(Call call, IOException failure)
+    {
+        ConnectionState state = call.request().tag(ConnectionState.class);
+        if (!(failure instanceof SocketTimeoutException) || state == null || state.acquired)
+        {
+            return failure;
+        }
+        HttpConnectTimeoutException timeout = new HttpConnectTimeoutException(failure.getMessage());
+        timeout.initCause(failure);
+        return timeout;
+    }
+
+    /**
+     * Establish connections to the server so that they are available in the connection pool for the first requests.
+     * This also verifies the TLS connection to the server. The calls are made in parallel, waiting at most the http
+     * timeout for all of them to complete.
+     *
+     * @param count number of connections
+     */
+    @Override
+    public void prewarm(int count)
+    {
+        HttpUrl url = HttpUrl.parse(piConfig.serverURL);
+        if (url == null)
+        {
+            privacyIDEA.error("Server url could not be parsed: " + piConfig.serverURL);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        CountDownLatch latch = new CountDownLatch(count);
+        Request request = new Request.Builder().url(url).headers(defaultHeaders).head().build();
+        for (int i = 0; i < count; i++)
+        {
+            client().newCall(request).enqueue(new okhttp3.Callback()
+            {
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e)
+                {
+                    privacyIDEA.error("Connection warm-up failed: " + e.getMessage());
+                    latch.countDown();
+                }
+
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response)
+                {
+                    // Any response means that the connection (and TLS) has been established
+                    response.close();
+                    latch.countDown();
+                }
+            });
+        }
+        try
+        {
+            if (!latch.await(piConfig.httpTimeoutMs, TimeUnit.MILLISECONDS))
+            {
+                privacyIDEA.error("Connection warm-up did not complete within " + piConfig.httpTimeoutMs + "ms");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        privacyIDEA.log("Connection warm-up: " + connectionCount() + " connection(s) in " +
+                        (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Release the resources of the http client: the threads of the dispatcher and the pooled connections.
+     *
+     * @param cancelCalls whether calls that are still running should be cancelled
+     */
+    @Override
+    public void close(boolean cancelCalls)
+    {
+        OkHttpClient c = this.client;
+        if (c == null)
+        {
+            return;
+        }
+        if (cancelCalls)
+        {
+            c.dispatcher().cancelAll();
+        }
+        c.dispatcher().executorService().shutdown();
+        c.connectionPool().evictAll();
+    }
+
+    /**
+     * @return number of connections in the connection pool
+     */
+    @Override
+    public int connectionCount()
+    {
+        OkHttpClient c = this.client;
+        return c != null ? c.connectionPool().connectionCount() : 0;
+    }
+
+    /**
+     * Build the request for the endpoint. The parsed url of each endpoint and the default headers are reused, so that only
+     * the parameters and additional headers have to be added for a request.
+     *
+     * @param endpoint server endpoint
+     * @param params   request parameters
+     * @param headers  request headers
+     * @param method   http request method
+     * @return request or null if the url could not be parsed
+     */
+    Request buildRequest(String endpoint, Map<String, String> params, Map<String, String> headers, String method)
+    {
+        HttpUrl httpUrl = baseUrls.computeIfAbsent(endpoint, e -> HttpUrl.parse(piConfig.serverURL + e));
+        if (httpUrl == null)
+        {
+            privacyIDEA.error("Server url could not be parsed: " + (piConfig.serverURL + endpoint));
+            return null;
+        }
+
+        if (GET.equals(method) && !params.isEmpty())
+        {
+            HttpUrl.Builder urlBuilder = httpUrl.newBuilder();
+            params.forEach((key, value) ->
+                           {
+                               String encValue = URLEncoder.encode(value, StandardCharsets.UTF_8);
+                               urlBuilder.addQueryParameter(key, encValue);
+                           });
+            httpUrl = urlBuilder.build();
+        }
+
+        Request.Builder requestBuilder = new Request.Builder().url(httpUrl).tag(ConnectionState.class, new ConnectionState());
+
+        // Add the headers. A caller-supplied User-Agent (in the per-request headers) overrides the configured
+        // default, so a single request can be marked as originating from a specific flow. Only add the default
+        // when the caller did not provide one, to avoid sending two User-Agent headers.
+        if (headers == null || headers.isEmpty())
+        {
+            requestBuilder.headers(defaultHeaders);
+        }
+        else
+        {
+            Headers.Builder headersBuilder = new Headers.Builder();
+            if (!HttpTransport.containsUserAgent(headers))
+            {
+                headersBuilder.addAll(defaultHeaders);
+            }
+            headers.forEach((k, v) ->
+                            {
+                                if (v == null)
+                                {
+                                    privacyIDEA.error("Unable to add header " + k + " because the value is null");
+                                }
+                                else
+                                {
+                                    headersBuilder.add(k, v);
+                                }
+                            });
+            requestBuilder.headers(headersBuilder.build());
+        }
+
+        if (POST.equals(method))
+        {
+            // The values are encoded while the body is written, which avoids copies of large WebAuthn/passkey values.
+            // This switches okhttp to make a post request.
+            requestBuilder.post(new FormRequestBody(FormEncoder.of(params)));
+        }
+
+        Request request = requestBuilder.build();
+        if (!piConfig.disableLog)
+        {
+            privacyIDEA.log("Header: " + request.headers().toString().replace("\n", " | "));
+        }
+        return request;
+    }
+
+    /**
+     * Read the response body as string. OkHttp requests gzip compressed responses and decompresses them transparently,
+     * unless the caller has set the Accept-Encoding header. In that case a gzip compressed body is decompressed here while
+     * it is read, so that the caller can not accidentally receive compressed bytes.
+     *
+     * @param response     response
+     * @param responseBody body of the response
+     * @return body as string
+     * @throws IOException if the body can not be read
+     */
+    static String bodyString(Response response, ResponseBody responseBody) throws IOException
+    {
+        if (!"gzip".equalsIgnoreCase(response.header(HEADER_CONTENT_ENCODING)))
+        {
+            return responseBody.string();
+        }
+        MediaType contentType = responseBody.contentType();
+        Charset charset = contentType != null ? contentType.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+        try (BufferedSource source = Okio.buffer(new GzipSource(responseBody.source())))
+        {
+            return source.readString(charset);
+        }
+    }
+}
@@ -16,6 +16,10 @@
  */
 package org.privacyidea;
 
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
 class PIConfig
 {
     public final String serverURL;
@@ -27,6 +31,31 @@ class PIConfig
     public String serviceAccountRealm = "";
     public boolean disableLog = false;
     public int httpTimeoutMs = 30000;
+    public long pollTransactionCacheMs = 0;
+    public boolean validateCheckDeduplication = false;
+    public long tokenInfoCacheTtlMs = 0;
+    public int tokenInfoCacheMaxSize = 0;
+    public int imageStoreMaxEntries = 0;
+    public int prewarmConnections = 0;
+    public long shutdownTimeoutMs = 5000;
+    public boolean offlineStore = false;
+    public Path offlineStoreFile = null;
+    public byte[] offlineStoreKey = null;
+    public TransportType transportType = TransportType.OKHTTP;
+    public int concurrencyInitialLimit = 0;
+    public int concurrencyMaxLimit = 0;
+    public long concurrencyMaxWaitMs = 0;
+    public Map<RequestClass, Bulkhead> bulkheads = new EnumMap<>(RequestClass.class);
+    public int maxRetries = 0;
+    public long retryInitialBackoffMs = 0;
+    public long retryMaxBackoffMs = 0;
+    public double retryBudgetRatio = 0;
+    public Path jwtStoreFile = null;
+    public byte[] jwtStoreKey = null;
+    public boolean jwtStoreShared = false;
+    public int passkeyChallengePoolSize = 0;
+    public long passkeyChallengeTtlMs = 0;
+    public long jwtAcquisitionJitterMs = 0;
     protected String proxyHost = "";
     protected int proxyPort = 0;
 
@@ -41,4 +70,37 @@ class PIConfig
         this.proxyHost = proxyHost;
         this.proxyPort = proxyPort;
     }
+
+    /**
+     * @return the number of threads of the shared request pool
+     */
+    int sharedPoolThreads()
+    {
+        return Math.max(20, concurrencyMaxLimit);
+    }
+
+    /**
+     * @return the number of requests that can be sent at the same time, over the shared pool and all bulkheads
+     */
+    int maxConcurrentRequests()
+    {
+        int max = sharedPoolThreads();
+        for (Bulkhead bulkhead : bulkheads.values())
+        {
+            max += bulkhead.maxConcurrent;
+        }
+        return max;
+    }
+
+    static class Bulkhead
+    {
+        final int maxConcurrent;
+        final int maxQueued;
+
+        Bulkhead(int maxConcurrent, int maxQueued)
+        {
+            this.maxConcurrent = maxConcurrent;
+            this.maxQueued = maxQueued;
+        }
+    }
 }
\ No newline at end of file
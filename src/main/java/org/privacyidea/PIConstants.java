@@ -32,10 +32,12 @@ public class PIConstants
     public static final String ENDPOINT_VALIDATE_CHECK = "/validate/check";
     public static final String ENDPOINT_VALIDATE_INITIALIZE = "/validate/initialize";
     public static final String ENDPOINT_TOKEN = "/token/";
+    public static final String ENDPOINT_OFFLINE_REFILL = "/validate/offlinerefill";
 
     public static final String HEADER_ORIGIN = "Origin";
     public static final String HEADER_AUTHORIZATION = "Authorization";
     public static final String HEADER_USER_AGENT = "User-Agent";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
 
     // TOKEN TYPES / CONTAINER
     public static final String TOKEN_TYPE_PUSH = "push";
@@ -89,6 +91,10 @@ public class PIConstants
     public static final String PASSKEY_REGISTRATION = "passkey_registration";
     public static final String AUTH_FORM = "authenticationForm";
     public static final String AUTH_FORM_RESULT = "authenticationFormResult";
+    public static final String AUTH_ITEMS = "auth_items";
+    public static final String OFFLINE = "offline";
+    public static final String REFILLTOKEN = "refilltoken";
+    public static final String RESPONSE = "response";
 
     // WebAuthn/Passkey params
     public static final String WEBAUTHN_SIGN_REQUEST = "webAuthnSignRequest";
@@ -0,0 +1,752 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.ReflectionAccessFilter;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Shared Gson instances with hand-written type adapters for the model classes. The adapters produce the same json as
+ * Gson's reflection based serialization (same names, same order, null values omitted), so data written by previous
+ * versions can still be read, but they do not use reflection. Gson instances are thread-safe and are therefore only
+ * created once.
+ * <p>
+ * Reflection is blocked for all classes, so that a type without an adapter fails instead of silently requiring
+ * reflection metadata in a native image.
+ */
+final class PIGson
+{
+    static final Gson GSON = register(new GsonBuilder()).create();
+    static final Gson PRETTY_GSON = register(new GsonBuilder()).setPrettyPrinting().create();
+
+    private PIGson()
+    {
+    }
+
+    private static GsonBuilder register(GsonBuilder builder)
+    {
+        return builder.addReflectionAccessFilter(type -> ReflectionAccessFilter.FilterResult.BLOCK_ALL)
+                      .registerTypeAdapter(PIResponse.class, new PIResponseAdapter().nullSafe())
+                      .registerTypeAdapter(Challenge.class, new ChallengeAdapter().nullSafe())
+                      .registerTypeAdapter(TokenInfo.class, new TokenInfoAdapter().nullSafe())
+                      .registerTypeAdapter(RolloutInfo.class, new RolloutInfoAdapter().nullSafe());
+    }
+
+    static class PIResponseAdapter extends TypeAdapter<PIResponse>
+    {
+        private final ChallengeAdapter challengeAdapter = new ChallengeAdapter();
+
+        @Override
+        public void write(JsonWriter out, PIResponse r) throws IOException
+        {
+            out.beginObject();
+            writeString(out, "message", r.message);
+            writeString(out, "preferredClientMode", r.preferredClientMode);
+            writeStrings(out, "messages", r.messages);
+            if (r.multiChallenge != null)
+            {
+                out.name("multiChallenge").beginArray();
+                for (Challenge c : r.multiChallenge)
+                {
+                    if (c == null)
+                    {
+                        out.nullValue();
+                    }
+                    else
+                    {
+                        challengeAdapter.write(out, c);
+                    }
+                }
+                out.endArray();
+            }
+            writeString(out, "transactionID", r.transactionID);
+            writeString(out, "serial", r.serial);
+            writeEnum(out, "challengeStatus", r.challengeStatus);
+            writeString(out, "image", r.image);
+            out.name("id").value(r.id);
+            writeString(out, "jsonRPCVersion", r.jsonRPCVersion);
+            out.name("status").value(r.status);
+            out.name("value").value(r.value);
+            writeEnum(out, "authentication", r.authentication);
+            writeString(out, "piVersion", r.piVersion);
+            writeString(out, "rawMessage", r.rawMessage);
+            writeString(out, "signature", r.signature);
+            writeString(out, "type", r.type);
+            out.name("otpLength").value(r.otpLength);
+            writeError(out, r.error);
+            writeString(out, "passkeyChallenge", r.passkeyChallenge);
+            writeString(out, "passkeyRegistration", r.passkeyRegistration);
+            writeString(out, "passkeyMessage", r.passkeyMessage);
+            writeString(out, "username", r.username);
+            writeString(out, "enrollmentLink", r.enrollmentLink);
+            out.name("isEnrollViaMultichallenge").value(r.isEnrollViaMultichallenge);
+            out.name("isEnrollViaMultichallengeOptional").value(r.isEnrollViaMultichallengeOptional);
+            writeString(out, "webAuthnSignRequest", r.webAuthnSignRequest);
+            writeString(out, "webAuthnTransactionId", r.webAuthnTransactionId);
+            out.endObject();
+        }
+
+        @Override
+        public PIResponse read(JsonReader in) throws IOException
+        {
+            PIResponse r = new PIResponse();
+            in.beginObject();
+            while (in.hasNext())
+            {
+                String name = in.nextName();
+                switch (name)
+                {
+                    case "message":
+                        r.message = readString(in);
+                        break;
+                    case "preferredClientMode":
+                        r.preferredClientMode = readString(in);
+                        break;
+                    case "messages":
+                        r.messages = readStrings(in);
+                        break;
+                    case "multiChallenge":
+                        r.multiChallenge = readChallenges(in);
+                        break;
+                    case "transactionID":
+                        r.transactionID = readString(in);
+                        break;
+                    case "serial":
+                        r.serial = readString(in);
+                        break;
+                    case "challengeStatus":
+                        r.challengeStatus = readEnum(in, ChallengeStatus.class);
+                        break;
+                    case "image":
+                        r.image = readString(in);
+                        break;
+                    case "id":
+                        r.id = readInt(in, r.id);
+                        break;
+                    case "jsonRPCVersion":
+                        r.jsonRPCVersion = readString(in);
+                        break;
+                    case "status":
+                        r.status = readBoolean(in, r.status);
+                        break;
+                    case "value":
+                        r.value = readBoolean(in, r.value);
+                        break;
+                    case "authentication":
+                        r.authentication = readEnum(in, AuthenticationStatus.class);
+                        break;
+                    case "piVersion":
+                        r.piVersion = readString(in);
+                        break;
+                    case "rawMessage":
+                        r.rawMessage = readString(in);
+                        break;
+                    case "signature":
+                        r.signature = readString(in);
+                        break;
+                    case "type":
+                        r.type = readString(in);
+                        break;
+                    case "otpLength":
+                        r.otpLength = readInt(in, r.otpLength);
+                        break;
+                    case "error":
+                        r.error = readError(in);
+                        break;
+                    case "passkeyChallenge":
+                        r.passkeyChallenge = readString(in);
+                        break;
+                    case "passkeyRegistration":
+                        r.passkeyRegistration = readString(in);
+                        break;
+                    case "passkeyMessage":
+                        r.passkeyMessage = readString(in);
+                        break;
+                    case "username":
+                        r.username = readString(in);
+                        break;
+                    case "enrollmentLink":
+                        r.enrollmentLink = readString(in);
+                        break;
+                    case "isEnrollViaMultichallenge":
+                        r.isEnrollViaMultichallenge = readBoolean(in, r.isEnrollViaMultichallenge);
+                        break;
+                    case "isEnrollViaMultichallengeOptional":
+                        r.isEnrollViaMultichallengeOptional = readBoolean(in, r.isEnrollViaMultichallengeOptional);
+                        break;
+                    case "webAuthnSignRequest":
+                        r.webAuthnSignRequest = readString(in);
+                        break;
+                    case "webAuthnTransactionId":
+                        r.webAuthnTransactionId = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return r;
+        }
+
+        private List<Challenge> readChallenges(JsonReader in) throws IOException
+        {
+            if (in.peek() == JsonToken.NULL)
+            {
+                in.nextNull();
+                return null;
+            }
+            List<Challenge> challenges = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext())
+            {
+                if (in.peek() == JsonToken.NULL)
+                {
+                    in.nextNull();
+                    challenges.add(null);
+                }
+                else
+                {
+                    challenges.add(challengeAdapter.read(in));
+                }
+            }
+            in.endArray();
+            return challenges;
+        }
+    }
+
+    static class ChallengeAdapter extends TypeAdapter<Challenge>
+    {
+        @Override
+        public void write(JsonWriter out, Challenge c) throws IOException
+        {
+            out.beginObject();
+            Map<String, String> attributes = c.getAttributes();
+            if (attributes != null)
+            {
+                out.name("attributes").beginObject();
+                for (Map.Entry<String, String> entry : attributes.entrySet())
+                {
+                    out.name(String.valueOf(entry.getKey())).value(entry.getValue());
+                }
+                out.endObject();
+            }
+            writeString(out, "serial", c.serial);
+            writeString(out, "clientMode", c.clientMode);
+            writeString(out, "message", c.message);
+            writeString(out, "transactionID", c.transactionID);
+            writeString(out, "type", c.type);
+            writeString(out, "image", c.image);
+            out.endObject();
+        }
+
+        @Override
+        public Challenge read(JsonReader in) throws IOException
+        {
+            // Missing values are empty strings, as the challenge is immutable and the getters expect non-null values
+            String serial = "", message = "", clientMode = "", image = "", transactionID = "", type = "";
+            Map<String, String> attributes = null;
+            in.beginObject();
+            while (in.hasNext())
+            {
+                String name = in.nextName();
+                switch (name)
+                {
+                    case "serial":
+                        serial = readNonNullString(in);
+                        break;
+                    case "message":
+                        message = readNonNullString(in);
+                        break;
+                    case "clientMode":
+                        clientMode = readNonNullString(in);
+                        break;
+                    case "image":
+                        image = readNonNullString(in);
+                        break;
+                    case "transactionID":
+                        transactionID = readNonNullString(in);
+                        break;
+                    case "type":
+                        type = readNonNullString(in);
+                        break;
+                    case "attributes":
+                        attributes = new HashMap<>();
+                        readStringMap(in, attributes);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            Challenge challenge = new Challenge(serial, message, clientMode, image, transactionID, type);
+            if (attributes != null && !attributes.isEmpty())
+            {
+                challenge.getAttributes().putAll(attributes);
+            }
+            return challenge;
+        }
+    }
+
+    static class TokenInfoAdapter extends TypeAdapter<TokenInfo>
+    {
+        @Override
+        public void write(JsonWriter out, TokenInfo t) throws IOException
+        {
+            out.beginObject();
+            out.name("active").value(t.active);
+            out.name("count").value(t.count);
+            out.name("countWindow").value(t.countWindow);
+            writeString(out, "description", t.description);
+            out.name("failCount").value(t.failCount);
+            out.name("id").value(t.id);
+            out.name("info").beginObject();
+            for (Map.Entry<String, String> entry : t.info.entrySet())
+            {
+                out.name(String.valueOf(entry.getKey())).value(entry.getValue());
+            }
+            out.endObject();
+            out.name("locked").value(t.locked);
+            out.name("maxFail").value(t.maxFail);
+            out.name("otpLen").value(t.otpLen);
+            writeStrings(out, "realms", t.realms);
+            writeString(out, "resolver", t.resolver);
+            out.name("revoked").value(t.revoked);
+            writeString(out, "rolloutState", t.rolloutState);
+            writeString(out, "serial", t.serial);
+            writeString(out, "image", t.image);
+            out.name("syncWindow").value(t.syncWindow);
+            writeString(out, "tokenType", t.tokenType);
+            out.name("userEditable").value(t.userEditable);
+            writeString(out, "userID", t.userID);
+            writeString(out, "userRealm", t.userRealm);
+            writeString(out, "username", t.username);
+            writeString(out, "rawJson", t.getRawJson());
+            out.endObject();
+        }
+
+        @Override
+        public TokenInfo read(JsonReader in) throws IOException
+        {
+            TokenInfo t = new TokenInfo();
+            in.beginObject();
+            while (in.hasNext())
+            {
+                String name = in.nextName();
+                switch (name)
+                {
+                    case "active":
+                        t.active = readBoolean(in, t.active);
+                        break;
+                    case "count":
+                        t.count = readInt(in, t.count);
+                        break;
+                    case "countWindow":
+                        t.countWindow = readInt(in, t.countWindow);
+                        break;
+                    case "description":
+                        t.description = readString(in);
+                        break;
+                    case "failCount":
+                        t.failCount = readInt(in, t.failCount);
+                        break;
+                    case "id":
+                        t.id = readInt(in, t.id);
+                        break;
+                    case "info":
+                        readStringMap(in, t.info);
+                        break;
+                    case "locked":
+                        t.locked = readBoolean(in, t.locked);
+                        break;
+                    case "maxFail":
+                        t.maxFail = readInt(in, t.maxFail);
+                        break;
+                    case "otpLen":
+                        t.otpLen = readInt(in, t.otpLen);
+                        break;
+                    case "realms":
+                        List<String> realms = readStrings(in);
+                        if (realms != null)
+                        {
+                            t.realms.addAll(realms);
+                        }
+                        break;
+                    case "resolver":
+                        t.resolver = readString(in);
+                        break;
+                    case "revoked":
+                        t.revoked = readBoolean(in, t.revoked);
+                        break;
+                    case "rolloutState":
+                        t.rolloutState = readString(in);
+                        break;
+                    case "serial":
+                        t.serial = readString(in);
+                        break;
+                    case "image":
+                        t.image = readString(in);
+                        break;
+                    case "syncWindow":
+                        t.syncWindow = readInt(in, t.syncWindow);
+                        break;
+                    case "tokenType":
+                        t.tokenType = readString(in);
+                        break;
+                    case "userEditable":
+                        t.userEditable = readBoolean(in, t.userEditable);
+                        break;
+                    case "userID":
+                        t.userID = readString(in);
+                        break;
+                    case "userRealm":
+                        t.userRealm = readString(in);
+                        break;
+                    case "username":
+                        t.username = readString(in);
+                        break;
+                    case "rawJson":
+                        t.setRawJson(readString(in));
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return t;
+        }
+    }
+
+    static class RolloutInfoAdapter extends TypeAdapter<RolloutInfo>
+    {
+        @Override
+        public void write(JsonWriter out, RolloutInfo r) throws IOException
+        {
+            out.beginObject();
+            if (r.googleurl != null)
+            {
+                out.name("googleurl").beginObject();
+                writeString(out, "description", r.googleurl.description);
+                writeString(out, "img", r.googleurl.img);
+                writeString(out, "value", r.googleurl.value);
+                out.endObject();
+            }
+            if (r.oathurl != null)
+            {
+                out.name("oathurl").beginObject();
+                writeString(out, "description", r.oathurl.description);
+                writeString(out, "img", r.oathurl.img);
+                writeString(out, "value", r.oathurl.value);
+                out.endObject();
+            }
+            if (r.otpkey != null)
+            {
+                out.name("otpkey").beginObject();
+                writeString(out, "description", r.otpkey.description);
+                writeString(out, "img", r.otpkey.img);
+                writeString(out, "value", r.otpkey.value);
+                writeString(out, "value_b32", r.otpkey.value_b32);
+                out.endObject();
+            }
+            writeString(out, "raw", r.raw);
+            writeString(out, "serial", r.serial);
+            writeString(out, "rolloutState", r.rolloutState);
+            writeError(out, r.error);
+            out.endObject();
+        }
+
+        @Override
+        public RolloutInfo read(JsonReader in) throws IOException
+        {
+            RolloutInfo r = new RolloutInfo();
+            in.beginObject();
+            while (in.hasNext())
+            {
+                String name = in.nextName();
+                switch (name)
+                {
+                    case "googleurl":
+                        r.googleurl = readObject(in, RolloutInfo.GoogleURL::new, (u, key, value) ->
+                        {
+                            if ("description".equals(key))
+                            {
+                                u.description = value;
+                            }
+                            else if ("img".equals(key))
+                            {
+                                u.img = value;
+                            }
+                            else if ("value".equals(key))
+                            {
+                                u.value = value;
+                            }
+                        });
+                        break;
+                    case "oathurl":
+                        r.oathurl = readObject(in, RolloutInfo.OATHURL::new, (u, key, value) ->
+                        {
+                            if ("description".equals(key))
+                            {
+                                u.description = value;
+                            }
+                            else if ("img".equals(key))
+                            {
+                                u.img = value;
+                            }
+                            else if ("value".equals(key))
+                            {
+                                u.value = value;
+                            }
+                        });
+                        break;
+                    case "otpkey":
+                        r.otpkey = readObject(in, RolloutInfo.OTPKey::new, (k, key, value) ->
+                        {
+                            if ("description".equals(key))
+                            {
+                                k.description = value;
+                            }
+                            else if ("img".equals(key))
+                            {
+                                k.img = value;
+                            }
+                            else if ("value".equals(key))
+                            {
+                                k.value = value;
+                            }
+                            else if ("value_b32".equals(key))
+                            {
+                                k.value_b32 = value;
+                            }
+                        });
+                        break;
+                    case "raw":
+                        r.raw = readString(in);
+                        break;
+                    case "serial":
+                        r.serial = readString(in);
+                        break;
+                    case "rolloutState":
+                        r.rolloutState = readString(in);
+                        break;
+                    case "error":
+                        r.error = readError(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return r;
+        }
+    }
+
+    private interface StringFieldSetter<T>
+    {
+        void set(T target, String key, String value);
+    }
+
+    private static <T> T readObject(JsonReader in, Supplier<T> factory, StringFieldSetter<T> setter) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+        T target = factory.get();
+        in.beginObject();
+        while (in.hasNext())
+        {
+            String key = in.nextName();
+            if (in.peek() == JsonToken.STRING || in.peek() == JsonToken.NULL)
+            {
+                setter.set(target, key, readString(in));
+            }
+            else
+            {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return target;
+    }
+
+    private static PIError readError(JsonReader in) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+        int code = 0;
+        String message = null;
+        in.beginObject();
+        while (in.hasNext())
+        {
+            String name = in.nextName();
+            if ("code".equals(name))
+            {
+                code = readInt(in, 0);
+            }
+            else if ("message".equals(name))
+            {
+                message = readString(in);
+            }
+            else
+            {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return new PIError(code, message);
+    }
+
+    private static void writeString(JsonWriter out, String name, String value) throws IOException
+    {
+        if (value != null)
+        {
+            out.name(name).value(value);
+        }
+    }
+
+    private static void writeError(JsonWriter out, PIError error) throws IOException
+    {
+        if (error != null)
+        {
+            out.name("error").beginObject();
+            out.name("code").value(error.code);
+            writeString(out, "message", error.message);
+            out.endObject();
+        }
+    }
+
+    private static void writeStrings(JsonWriter out, String name, Collection<String> values) throws IOException
+    {
+        if (values != null)
+        {
+            out.name(name).beginArray();
+            for (String value : values)
+            {
+                out.value(value);
+            }
+            out.endArray();
+        }
+    }
+
+    private static void writeEnum(JsonWriter out, String name, Enum<?> value) throws IOException
+    {
+        if (value != null)
+        {
+            out.name(name).value(value.name());
+        }
+    }
+
+    private static String readString(JsonReader in) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static String readNonNullString(JsonReader in) throws IOException
+    {
+        String value = readString(in);
+        return value != null ? value : "";
+    }
+
+    private static int readInt(JsonReader in, int defaultValue) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return defaultValue;
+        }
+        return in.nextInt();
+    }
+
+    private static boolean readBoolean(JsonReader in, boolean defaultValue) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return defaultValue;
+        }
+        return in.nextBoolean();
+    }
+
+    private static <E extends Enum<E>> E readEnum(JsonReader in, Class<E> type) throws IOException
+    {
+        String name = readString(in);
+        if (name == null)
+        {
+            return null;
+        }
+        for (E e : type.getEnumConstants())
+        {
+            if (e.name().equals(name))
+            {
+                return e;
+            }
+        }
+        // Like Gson's enum adapter, unknown values are read as null
+        return null;
+    }
+
+    private static List<String> readStrings(JsonReader in) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+        List<String> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext())
+        {
+            list.add(readString(in));
+        }
+        in.endArray();
+        return list;
+    }
+
+    private static void readStringMap(JsonReader in, Map<String, String> target) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return;
+        }
+        in.beginObject();
+        while (in.hasNext())
+        {
+            target.put(in.nextName(), readString(in));
+        }
+        in.endObject();
+    }
+}
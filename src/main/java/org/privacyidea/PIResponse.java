@@ -16,13 +16,6 @@
  */
 package org.privacyidea;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
@@ -38,6 +31,7 @@ import static org.privacyidea.PIConstants.CONTAINER_TYPE_SMARTPHONE;
  */
 public class PIResponse
 {
+
     public String message = "";
     public String preferredClientMode = "";
     public List<String> messages = new ArrayList<>();
@@ -71,6 +65,11 @@ public class PIResponse
     public String webAuthnTransactionId = "";
 
     public boolean authenticationSuccessful()
+    {
+        return authenticationSuccessful(authentication, value, multiChallenge);
+    }
+
+    static boolean authenticationSuccessful(AuthenticationStatus authentication, boolean value, List<Challenge> multiChallenge)
     {
         if (authentication == AuthenticationStatus.ACCEPT && (multiChallenge == null || multiChallenge.isEmpty()))
         {
@@ -88,11 +87,16 @@ public class PIResponse
      * @return True if a PUSH token was triggered.
      */
     public boolean pushAvailable()
+    {
+        return pushAvailable(multiChallenge);
+    }
+
+    static boolean pushAvailable(List<Challenge> multiChallenge)
     {
         return multiChallenge.stream().anyMatch(c -> isPushOrSmartphoneContainer(c.getType()) && "poll".equals(c.getClientMode()));
     }
 
-    private boolean isPushOrSmartphoneContainer(String type)
+    private static boolean isPushOrSmartphoneContainer(String type)
     {
         return TOKEN_TYPE_PUSH.equals(type) || CONTAINER_TYPE_SMARTPHONE.equals(type);
     }
@@ -108,6 +112,11 @@ public class PIResponse
     }
 
     public String otpTransactionId()
+    {
+        return otpTransactionId(multiChallenge);
+    }
+
+    static String otpTransactionId(List<Challenge> multiChallenge)
     {
         for (Challenge challenge : multiChallenge)
         {
@@ -125,6 +134,11 @@ public class PIResponse
     }
 
     public String pushTransactionId()
+    {
+        return pushTransactionId(multiChallenge);
+    }
+
+    static String pushTransactionId(List<Challenge> multiChallenge)
     {
         for (Challenge challenge : multiChallenge)
         {
@@ -143,7 +157,7 @@ public class PIResponse
                isNotBlank(passkeyChallenge);
     }
 
-    private boolean isNotBlank(String str) {
+    static boolean isNotBlank(String str) {
         return str != null && !str.trim().isEmpty();
     }
 
@@ -204,29 +218,51 @@ public class PIResponse
         return this.webAuthnSignRequest;
     }
 
+    /**
+     * @return this object as pretty printed json
+     */
     public String toJSON()
     {
-        GsonBuilder builder = new GsonBuilder();
-        builder.setPrettyPrinting();
-        Gson gson = builder.create();
-        return gson.toJson(this);
+        return PIGson.PRETTY_GSON.toJson(this);
     }
 
+    /**
+     * @return this object as json without whitespace, which is smaller and faster to create than {@link #toJSON()}
+     */
+    public String toCompactJSON()
+    {
+        return PIGson.GSON.toJson(this);
+    }
+
+    /**
+     * Restore an object that was serialized with {@link #toJSON()} or {@link #toCompactJSON()}.
+     *
+     * @param json json string
+     * @return PIResponse
+     */
     public static PIResponse fromJSON(String json)
     {
-        JsonDeserializer<Challenge> challengeDeserializer = (jsonElement, type, ctx) ->
-        {
-            JsonObject obj = jsonElement.getAsJsonObject();
-            String serial = obj.has("serial") && !obj.get("serial").isJsonNull() ? obj.get("serial").getAsString() : "";
-            String message = obj.has("message") && !obj.get("message").isJsonNull() ? obj.get("message").getAsString() : "";
-            String clientMode = obj.has("clientMode") && !obj.get("clientMode").isJsonNull() ? obj.get("clientMode").getAsString() : "";
-            String image = obj.has("image") && !obj.get("image").isJsonNull() ? obj.get("image").getAsString() : "";
-            String transactionID = obj.has("transactionID") && !obj.get("transactionID").isJsonNull() ? obj.get("transactionID").getAsString() : "";
-            String tokenType = obj.has("type") && !obj.get("type").isJsonNull() ? obj.get("type").getAsString() : "";
-            return new Challenge(serial, message, clientMode, image, transactionID, tokenType);
-        };
-        Gson gson = new GsonBuilder().registerTypeAdapter(Challenge.class, challengeDeserializer).create();
-        return gson.fromJson(json, PIResponse.class);
+        return PIGson.GSON.fromJson(json, PIResponse.class);
+    }
+
+    /**
+     * @return this object in the compact binary format of {@link PIResponseCodec}
+     */
+    public byte[] toBytes()
+    {
+        return PIResponseCodec.encode(this);
+    }
+
+    /**
+     * Restore an object that was serialized with {@link #toBytes()}.
+     *
+     * @param data encoded bytes
+     * @return PIResponse
+     * @throws IllegalArgumentException if the data is not a valid encoded response
+     */
+    public static PIResponse fromBytes(byte[] data)
+    {
+        return PIResponseCodec.decode(data);
     }
 
     @Override
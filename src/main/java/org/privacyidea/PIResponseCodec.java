@@ -0,0 +1,320 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link PIResponse} for storing it between the steps of a login, e.g. in a replicated
+ * session. The format starts with a magic byte and a version, so that data of another format is rejected instead of
+ * being misread.
+ * <p>
+ * Strings are written as a varint length followed by the UTF-8 bytes, where the length is offset by one so that null can
+ * be distinguished from an empty string. Numbers are written as varints and booleans are packed into a single byte.
+ */
+public final class PIResponseCodec
+{
+    private static final byte MAGIC = (byte) 0xA7;
+    static final byte VERSION = 1;
+
+    private static final int FLAG_STATUS = 1;
+    private static final int FLAG_VALUE = 1 << 1;
+    private static final int FLAG_ENROLL_VIA_MULTICHALLENGE = 1 << 2;
+    private static final int FLAG_ENROLL_VIA_MULTICHALLENGE_OPTIONAL = 1 << 3;
+    private static final int FLAG_ERROR = 1 << 4;
+
+    private PIResponseCodec()
+    {
+    }
+
+    /**
+     * Encode the response.
+     *
+     * @param response response
+     * @return encoded bytes
+     */
+    public static byte[] encode(PIResponse response)
+    {
+        Writer w = new Writer();
+        w.out.write(MAGIC);
+        w.out.write(VERSION);
+        int flags = (response.status ? FLAG_STATUS : 0) | (response.value ? FLAG_VALUE : 0) |
+                    (response.isEnrollViaMultichallenge ? FLAG_ENROLL_VIA_MULTICHALLENGE : 0) |
+                    (response.isEnrollViaMultichallengeOptional ? FLAG_ENROLL_VIA_MULTICHALLENGE_OPTIONAL : 0) |
+                    (response.error != null ? FLAG_ERROR : 0);
+        w.out.write(flags);
+        w.writeString(response.message);
+        w.writeString(response.preferredClientMode);
+        w.writeStringList(response.messages);
+        if (response.multiChallenge == null)
+        {
+            w.writeVarInt(0);
+        }
+        else
+        {
+            w.writeVarInt(response.multiChallenge.size() + 1);
+            for (Challenge c : response.multiChallenge)
+            {
+                w.writeString(c.serial);
+                w.writeString(c.message);
+                w.writeString(c.clientMode);
+                w.writeString(c.image);
+                w.writeString(c.transactionID);
+                w.writeString(c.type);
+                Map<String, String> attributes = c.getAttributes();
+                w.writeVarInt(attributes.size());
+                for (Map.Entry<String, String> attribute : attributes.entrySet())
+                {
+                    w.writeString(attribute.getKey());
+                    w.writeString(attribute.getValue());
+                }
+            }
+        }
+        w.writeString(response.transactionID);
+        w.writeString(response.serial);
+        w.writeEnum(response.challengeStatus);
+        w.writeString(response.image);
+        w.writeVarInt(response.id);
+        w.writeString(response.jsonRPCVersion);
+        w.writeEnum(response.authentication);
+        w.writeString(response.piVersion);
+        w.writeString(response.rawMessage);
+        w.writeString(response.signature);
+        w.writeString(response.type);
+        w.writeVarInt(response.otpLength);
+        if (response.error != null)
+        {
+            w.writeVarInt(response.error.code);
+            w.writeString(response.error.message);
+        }
+        w.writeString(response.passkeyChallenge);
+        w.writeString(response.passkeyRegistration);
+        w.writeString(response.passkeyMessage);
+        w.writeString(response.username);
+        w.writeString(response.enrollmentLink);
+        w.writeString(response.webAuthnSignRequest);
+        w.writeString(response.webAuthnTransactionId);
+        return w.out.toByteArray();
+    }
+
+    /**
+     * Decode a response that was encoded with {@link #encode(PIResponse)}.
+     *
+     * @param data encoded bytes
+     * @return PIResponse
+     * @throws IllegalArgumentException if the data is not a valid encoded response
+     */
+    public static PIResponse decode(byte[] data)
+    {
+        if (data == null || data.length < 3 || data[0] != MAGIC)
+        {
+            throw new IllegalArgumentException("Data is not an encoded PIResponse");
+        }
+        if (data[1] != VERSION)
+        {
+            throw new IllegalArgumentException("Unsupported PIResponse encoding version " + data[1]);
+        }
+        Reader r = new Reader(data, 2);
+        try
+        {
+            PIResponse response = new PIResponse();
+            int flags = r.readByte();
+            response.status = (flags & FLAG_STATUS) != 0;
+            response.value = (flags & FLAG_VALUE) != 0;
+            response.isEnrollViaMultichallenge = (flags & FLAG_ENROLL_VIA_MULTICHALLENGE) != 0;
+            response.isEnrollViaMultichallengeOptional = (flags & FLAG_ENROLL_VIA_MULTICHALLENGE_OPTIONAL) != 0;
+            response.message = r.readString();
+            response.preferredClientMode = r.readString();
+            response.messages = r.readStringList();
+            int challengeCount = r.readVarInt();
+            if (challengeCount == 0)
+            {
+                response.multiChallenge = null;
+            }
+            else
+            {
+                List<Challenge> challenges = new ArrayList<>(Math.min(challengeCount - 1, data.length));
+                for (int i = 0; i < challengeCount - 1; i++)
+                {
+                    Challenge challenge = new Challenge(r.readString(), r.readString(), r.readString(), r.readString(),
+                                                        r.readString(), r.readString());
+                    int attributeCount = r.readVarInt();
+                    for (int j = 0; j < attributeCount; j++)
+                    {
+                        challenge.attributes.put(r.readString(), r.readString());
+                    }
+                    challenges.add(challenge);
+                }
+                response.multiChallenge = challenges;
+            }
+            response.transactionID = r.readString();
+            response.serial = r.readString();
+            response.challengeStatus = r.readEnum(ChallengeStatus.class);
+            response.image = r.readString();
+            response.id = r.readVarInt();
+            response.jsonRPCVersion = r.readString();
+            response.authentication = r.readEnum(AuthenticationStatus.class);
+            response.piVersion = r.readString();
+            response.rawMessage = r.readString();
+            response.signature = r.readString();
+            response.type = r.readString();
+            response.otpLength = r.readVarInt();
+            if ((flags & FLAG_ERROR) != 0)
+            {
+                response.error = new PIError(r.readVarInt(), r.readString());
+            }
+            response.passkeyChallenge = r.readString();
+            response.passkeyRegistration = r.readString();
+            response.passkeyMessage = r.readString();
+            response.username = r.readString();
+            response.enrollmentLink = r.readString();
+            response.webAuthnSignRequest = r.readString();
+            response.webAuthnTransactionId = r.readString();
+            return response;
+        }
+        catch (ArrayIndexOutOfBoundsException e)
+        {
+            throw new IllegalArgumentException("Encoded PIResponse is truncated", e);
+        }
+    }
+
+    private static class Writer
+    {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+        private void writeVarInt(int value)
+        {
+            // Zigzag encoding keeps small negative numbers short
+            int v = (value << 1) ^ (value >> 31);
+            while ((v & ~0x7F) != 0)
+            {
+                out.write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        }
+
+        private void writeString(String s)
+        {
+            if (s == null)
+            {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        private void writeStringList(List<String> list)
+        {
+            if (list == null)
+            {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(list.size() + 1);
+            for (String s : list)
+            {
+                writeString(s);
+            }
+        }
+
+        private void writeEnum(Enum<?> e)
+        {
+            // By name, so that adding values to the enums does not break previously encoded data
+            writeString(e == null ? null : e.name());
+        }
+    }
+
+    private static class Reader
+    {
+        private final byte[] data;
+        private int pos;
+
+        private Reader(byte[] data, int pos)
+        {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        private int readByte()
+        {
+            return data[pos++] & 0xFF;
+        }
+
+        private int readVarInt()
+        {
+            int v = 0;
+            int shift = 0;
+            int b;
+            do
+            {
+                if (shift > 28)
+                {
+                    throw new IllegalArgumentException("Malformed varint in encoded PIResponse");
+                }
+                b = readByte();
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private String readString()
+        {
+            int length = readVarInt();
+            if (length == 0)
+            {
+                return null;
+            }
+            length--;
+            if (length < 0 || length > data.length - pos)
+            {
+                throw new IllegalArgumentException("Invalid string length in encoded PIResponse");
+            }
+            String s = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        private List<String> readStringList()
+        {
+            int size = readVarInt();
+            if (size == 0)
+            {
+                return null;
+            }
+            List<String> list = new ArrayList<>(Math.min(size - 1, data.length - pos));
+            for (int i = 0; i < size - 1; i++)
+            {
+                list.add(readString());
+            }
+            return list;
+        }
+
+        private <E extends Enum<E>> E readEnum(Class<E> type)
+        {
+            String name = readString();
+            // Enum.valueOf throws an IllegalArgumentException for unknown names
+            return name == null ? null : Enum.valueOf(type, name);
+        }
+    }
+}
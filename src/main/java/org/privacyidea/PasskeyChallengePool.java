@@ -0,0 +1,158 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of passkey challenges that were requested from /validate/initialize in advance, so that
+ * {@link PrivacyIDEA#validateInitialize(String)} with the type passkey can return a challenge without a request to the
+ * server. Every challenge is handed out only once. The pool is refilled in the background after a challenge was taken
+ * and when a challenge expires.
+ * <p>
+ * A challenge is only valid on the server for a limited time, so the challenges in the pool expire after a fixed time,
+ * counted from the request. The time must be shorter than the validity of challenges on the server, minus the time a
+ * user needs to answer the challenge.
+ * <p>
+ * The challenges are kept in the order they were requested, so the oldest one, which expires first, is handed out
+ * first and expired challenges are removed from the head. Taking a challenge is O(1), apart from removing expired ones.
+ * <p>
+ * Enable the pool with {@link PrivacyIDEA.Builder#passkeyChallengePool(int, long)}.
+ */
+public class PasskeyChallengePool
+{
+    private final int capacity;
+    private final long ttlMs;
+    private final ArrayDeque<PooledChallenge> challenges;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    PasskeyChallengePool(int capacity, long ttlMs)
+    {
+        this.capacity = capacity;
+        this.ttlMs = ttlMs;
+        this.challenges = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * @return a challenge that is still valid or null if the pool is empty
+     */
+    synchronized PIResponse take()
+    {
+        removeExpired();
+        PooledChallenge challenge = challenges.pollFirst();
+        if (challenge == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return challenge.response;
+    }
+
+    /**
+     * @param response response of /validate/initialize with a passkey challenge, requested just now
+     */
+    synchronized void add(PIResponse response)
+    {
+        if (challenges.size() < capacity)
+        {
+            challenges.addLast(new PooledChallenge(response, System.currentTimeMillis() + ttlMs));
+        }
+    }
+
+    /**
+     * @return number of challenges that are missing to fill the pool
+     */
+    synchronized int missing()
+    {
+        removeExpired();
+        return capacity - challenges.size();
+    }
+
+    /**
+     * @return time in milliseconds until the oldest challenge expires or 0 if the pool is empty
+     */
+    synchronized long nextExpiryMs()
+    {
+        PooledChallenge oldest = challenges.peekFirst();
+        return oldest != null ? Math.max(0, oldest.expiresAt - System.currentTimeMillis()) : 0;
+    }
+
+    private void removeExpired()
+    {
+        long now = System.currentTimeMillis();
+        while (!challenges.isEmpty() && challenges.peekFirst().expiresAt <= now)
+        {
+            challenges.pollFirst();
+            expired.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of challenges that are ready to be handed out
+     */
+    public synchronized int size()
+    {
+        removeExpired();
+        return challenges.size();
+    }
+
+    /**
+     * @return maximum number of challenges in the pool
+     */
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return number of challenges that were handed out from the pool
+     */
+    public long hitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return number of times the pool was empty, so the challenge was requested from the server
+     */
+    public long missCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return number of challenges that expired in the pool before they were handed out
+     */
+    public long expiredCount()
+    {
+        return expired.get();
+    }
+
+    private static final class PooledChallenge
+    {
+        final PIResponse response;
+        final long expiresAt;
+
+        PooledChallenge(PIResponse response, long expiresAt)
+        {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
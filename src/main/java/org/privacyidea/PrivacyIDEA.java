@@ -18,24 +18,48 @@ package org.privacyidea;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import static org.privacyidea.PIConstants.ENDPOINT_AUTH;
+import static org.privacyidea.PIConstants.ENDPOINT_OFFLINE_REFILL;
 import static org.privacyidea.PIConstants.ENDPOINT_POLLTRANSACTION;
 import static org.privacyidea.PIConstants.ENDPOINT_TOKEN;
 import static org.privacyidea.PIConstants.ENDPOINT_TOKEN_INIT;
@@ -53,6 +77,7 @@ import static org.privacyidea.PIConstants.PASS;
 import static org.privacyidea.PIConstants.PASSWORD;
 import static org.privacyidea.PIConstants.POST;
 import static org.privacyidea.PIConstants.REALM;
+import static org.privacyidea.PIConstants.REFILLTOKEN;
 import static org.privacyidea.PIConstants.SERIAL;
 import static org.privacyidea.PIConstants.TOKEN_TYPE_PASSKEY;
 import static org.privacyidea.PIConstants.TRANSACTION_ID;
@@ -66,16 +91,63 @@ import static org.privacyidea.PIConstants.USERNAME;
  */
 public class PrivacyIDEA implements Closeable
 {
+    // The JWT is refreshed this long before it expires
+    static final long JWT_REFRESH_BEFORE_EXPIRATION_S = 60;
+    static final long BACKGROUND_RETRY_INITIAL_MS = 1000;
+    static final long BACKGROUND_RETRY_MAX_MS = 120_000;
     private final PIConfig configuration;
     private final IPILogger log;
     private final IPISimpleLogger simpleLog;
     private final Endpoint endpoint;
     private String jwt = null;
-    // Thread pool for connections
-    private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(1000);
-    private final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(20, 20, 10, TimeUnit.SECONDS, queue);
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-    private CountDownLatch jwtRetrievalLatch;
+    // Thread pool for connections and scheduler for the JWT retrieval. Both are created on first use, so that creating an
+    // instance is cheap and instances without service account do not start a scheduler thread.
+    private final Object executorLock = new Object();
+    private volatile ThreadPoolExecutor threadPool;
+    private final AtomicReferenceArray<ThreadPoolExecutor> bulkheadPools = new AtomicReferenceArray<>(RequestClass.values().length);
+    private volatile ScheduledExecutorService scheduler;
+    // Timer for the retries of requests. Separate from the scheduler, because the JWT retrieval on the scheduler waits for
+    // the retries of its request. Created on first use.
+    private volatile ScheduledExecutorService retryScheduler;
+    // Runs the steps of prepareLogin, created on first use
+    private volatile ThreadPoolExecutor loginPool;
+    // Runs background work that sends requests, e.g. refills, so that the scheduler only does the timing. Created on first
+    // use.
+    private volatile ThreadPoolExecutor backgroundPool;
+    private volatile CountDownLatch jwtRetrievalLatch;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    // Concurrent polls for the same transaction share a single request
+    private final RequestCoalescer<ChallengeStatus> pollCoalescer;
+    // Optional guard that lets duplicate validateCheck requests share one response, null if disabled
+    private final RequestCoalescer<PIResponse> validateCheckCoalescer;
+    // Random key for the hashes that identify duplicate validateCheck requests, so the pass can not be guessed from them
+    private final SecretKeySpec validateCheckHashKey;
+    // Optional cache for getTokenInfo, null if disabled
+    private final TokenInfoCache tokenInfoCache;
+    // Optional store for images contained in responses, null if disabled
+    private final ImageStore imageStore;
+    // Optional store for the offline values of HOTP tokens, null if disabled
+    private final OfflineStore offlineStore;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final RetryPolicy retryPolicy;
+    private final JWTStore jwtStore;
+    // Number of failed JWT retrievals in a row, for the backoff of the next attempt
+    private final AtomicInteger jwtRetrievalFailures = new AtomicInteger();
+    // Only one retrieval of the JWT runs at a time
+    private final AtomicBoolean jwtRetrievalRunning = new AtomicBoolean(false);
+    // Set while the retry of a failed retrieval waits for its backoff
+    private volatile boolean jwtRetryScheduled;
+    // Optional pool of passkey challenges for validateInitialize, null if disabled
+    private final PasskeyChallengePool passkeyChallengePool;
+    // The next refill of the passkey challenge pool, guarded by the pool
+    private ScheduledFuture<?> passkeyPoolRefill;
+    // Whether a refill of the passkey challenge pool is running on the background pool, guarded by the pool
+    private boolean passkeyPoolRefillRunning;
+    // Number of failed refills of the passkey challenge pool in a row, for the backoff of the next attempt
+    private final AtomicInteger passkeyPoolRefillFailures = new AtomicInteger();
+    private final AtomicBoolean offlineRefillRunning = new AtomicBoolean(false);
+    // Requests whose retry is waiting for its backoff, with the response of the previous attempt ("" for none)
+    private final Map<CompletableFuture<String>, String> pendingRetries = new ConcurrentHashMap<>();
     final JSONParser parser;
     // Responses from these endpoints will not be logged. The list can be overwritten.
     private List<String> logExcludedEndpoints = Arrays.asList(
@@ -88,15 +160,59 @@ public class PrivacyIDEA implements Closeable
         this.configuration = configuration;
         this.endpoint = new Endpoint(this);
         this.parser = new JSONParser(this);
-        this.threadPool.allowCoreThreadTimeOut(true);
+        this.pollCoalescer = new RequestCoalescer<>(configuration.pollTransactionCacheMs);
+        if (configuration.validateCheckDeduplication)
+        {
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            this.validateCheckHashKey = new SecretKeySpec(key, "HmacSHA256");
+            // Only requests in flight are shared, a response that was accepted must not be replayed
+            this.validateCheckCoalescer = new RequestCoalescer<>(0);
+        }
+        else
+        {
+            this.validateCheckHashKey = null;
+            this.validateCheckCoalescer = null;
+        }
+        this.tokenInfoCache = configuration.tokenInfoCacheTtlMs > 0 ?
+                              new TokenInfoCache(configuration.tokenInfoCacheTtlMs, configuration.tokenInfoCacheMaxSize) : null;
+        this.imageStore = configuration.imageStoreMaxEntries > 0 ? new ImageStore(configuration.imageStoreMaxEntries) : null;
+        this.offlineStore = configuration.offlineStore ?
+                            new OfflineStore(this, configuration.offlineStoreFile, configuration.offlineStoreKey) : null;
+        this.concurrencyLimiter = configuration.concurrencyMaxLimit > 0 ?
+                                  new ConcurrencyLimiter(configuration.concurrencyInitialLimit, configuration.concurrencyMaxLimit,
+                                                         configuration.concurrencyMaxWaitMs) : null;
+        this.passkeyChallengePool = configuration.passkeyChallengePoolSize > 0 ?
+                                    new PasskeyChallengePool(configuration.passkeyChallengePoolSize,
+                                                             configuration.passkeyChallengeTtlMs) : null;
+        this.retryPolicy = configuration.maxRetries > 0 ?
+                           new RetryPolicy(configuration.maxRetries, configuration.retryInitialBackoffMs,
+                                           configuration.retryMaxBackoffMs, configuration.retryBudgetRatio) : null;
+        if (configuration.prewarmConnections > 0)
+        {
+            endpoint.prewarm(configuration.prewarmConnections);
+        }
+        this.jwtStore = configuration.jwtStoreFile != null && serviceAccountAvailable() ? createJWTStore() : null;
         if (serviceAccountAvailable())
         {
-            retrieveJWT();
+            // The JWT is retrieved in the background, requests that require it wait for the latch
+            this.jwtRetrievalLatch = new CountDownLatch(1);
+            if (!useStoredJWT())
+            {
+                // Spread the retrieval of instances that are started at the same time
+                long jitterMs = configuration.jwtAcquisitionJitterMs > 0 ?
+                                ThreadLocalRandom.current().nextLong(configuration.jwtAcquisitionJitterMs + 1) : 0;
+                scheduler().schedule(this::retrieveJWT, jitterMs, TimeUnit.MILLISECONDS);
+            }
         }
         else
         {
             error("No service account configured. No JWT will be retrieved.");
         }
+        if (passkeyChallengePool != null)
+        {
+            refillPasskeyChallengePool(0);
+        }
     }
 
     /**
@@ -200,6 +316,54 @@ public class PrivacyIDEA implements Closeable
      */
     private PIResponse getPIResponse(String type, String input, String pass, Map<String, String> headers, String transactionID,
                                      Map<String, String> additionalParams)
+    {
+        if (validateCheckCoalescer == null)
+        {
+            return requestValidateCheck(type, input, pass, headers, transactionID, additionalParams);
+        }
+        String key = validateCheckKey(type, input, pass, transactionID, additionalParams);
+        if (key == null)
+        {
+            return requestValidateCheck(type, input, pass, headers, transactionID, additionalParams);
+        }
+        PIResponse response = validateCheckCoalescer.execute(key, () -> requestValidateCheck(type, input, pass, headers,
+                                                                                             transactionID, additionalParams));
+        // Each caller gets its own copy, so that one caller can not change the response of another
+        return response != null ? PIResponse.fromBytes(response.toBytes()) : null;
+    }
+
+    /**
+     * Identify duplicate requests to /validate/check by a keyed hash of the parameters. The headers are not included, so
+     * that e.g. a retry by a proxy with other forwarding headers is a duplicate as well.
+     *
+     * @return HMAC-SHA256 of the parameters or null if it can not be computed
+     */
+    String validateCheckKey(String type, String input, String pass, String transactionID, Map<String, String> additionalParams)
+    {
+        try
+        {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(validateCheckHashKey);
+            Map<String, String> fields = new TreeMap<>(additionalParams);
+            fields.put(type, input);
+            fields.put(PASS, pass != null ? pass : "");
+            fields.put(TRANSACTION_ID, transactionID != null ? transactionID : "");
+            for (Map.Entry<String, String> field : fields.entrySet())
+            {
+                // Separate the fields by a character that can not be part of them, so that they can not be shifted
+                mac.update((field.getKey() + '\0' + field.getValue() + '\0').getBytes(StandardCharsets.UTF_8));
+            }
+            return Base64.getEncoder().encodeToString(mac.doFinal());
+        }
+        catch (GeneralSecurityException e)
+        {
+            error("Unable to hash the request for the duplicate check: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private PIResponse requestValidateCheck(String type, String input, String pass, Map<String, String> headers,
+                                            String transactionID, Map<String, String> additionalParams)
     {
         Map<String, String> params = new LinkedHashMap<>(additionalParams);
         params.put(type, input);
@@ -209,10 +373,142 @@ public class PrivacyIDEA implements Closeable
         {
             params.put(TRANSACTION_ID, transactionID);
         }
-        String response = runRequestAsync(ENDPOINT_VALIDATE_CHECK, params, headers, false, POST);
+        String response;
+        try
+        {
+            response = sendRequest(ENDPOINT_VALIDATE_CHECK, params, headers, false, POST);
+        }
+        catch (RequestRejectedException e)
+        {
+            // The server may be reachable, so the offline values must not be used up
+            error(e.getMessage());
+            return null;
+        }
+        if (offlineStore != null)
+        {
+            if (response == null && USER.equals(type) && (transactionID == null || transactionID.isEmpty()) && !closed.get())
+            {
+                // The server is unreachable, try the offline values
+                PIResponse offlineResponse = validateOffline(input, pass);
+                if (offlineResponse != null)
+                {
+                    return offlineResponse;
+                }
+            }
+            else if (response != null)
+            {
+                offlineStore.put(parser.parseOfflineTokens(response));
+                refillOfflineStoreAsync();
+            }
+        }
         return this.parser.parsePIResponse(response);
     }
 
+    /**
+     * Check the pass against the offline values of the user.
+     *
+     * @param username username
+     * @param pass     PIN + OTP
+     * @return successful PIResponse or null if the pass did not match
+     */
+    private PIResponse validateOffline(String username, String pass)
+    {
+        OfflineStore.OfflineToken token = offlineStore.validate(username, pass);
+        if (token == null)
+        {
+            log("Offline authentication of " + username + " failed.");
+            return null;
+        }
+        log("Authenticated " + username + " offline with token " + token.serial + ".");
+        PIResponse response = new PIResponse();
+        response.status = true;
+        response.value = true;
+        response.authentication = AuthenticationStatus.ACCEPT;
+        response.message = "Authenticated offline";
+        response.serial = token.serial;
+        response.username = token.username;
+        response.type = "hotp";
+        return response;
+    }
+
+    /**
+     * Refill the offline values of the tokens that have been used offline in the background, if there are any.
+     */
+    private void refillOfflineStoreAsync()
+    {
+        if (offlineStore.hasPendingRefills())
+        {
+            try
+            {
+                // Not on the scheduler, the requests could delay the refresh of the JWT
+                backgroundPool().execute(this::refillOfflineStore);
+            }
+            catch (RejectedExecutionException e)
+            {
+                log("Offline refill not scheduled, the instance is closed.");
+            }
+        }
+    }
+
+    /**
+     * Refill the offline values of the tokens that have been used offline via /validate/offlinerefill. This is done
+     * automatically after the server responded to a /validate/check request again. If the server rejects the refill,
+     * the offline values of that token are removed.
+     */
+    public void refillOfflineStore()
+    {
+        if (offlineStore == null || !offlineRefillRunning.compareAndSet(false, true))
+        {
+            return;
+        }
+        try
+        {
+            for (Map.Entry<OfflineStore.OfflineToken, String> entry : offlineStore.pendingRefills().entrySet())
+            {
+                OfflineStore.OfflineToken token = entry.getKey();
+                Map<String, String> params = new LinkedHashMap<>();
+                params.put(SERIAL, token.serial);
+                params.put(PASS, entry.getValue());
+                params.put(REFILLTOKEN, token.refillToken != null ? token.refillToken : "");
+                String response = runRequestAsync(ENDPOINT_OFFLINE_REFILL, params, Collections.emptyMap(), false, POST);
+                PIResponse piResponse = parser.parsePIResponse(response);
+                if (piResponse == null)
+                {
+                    // Still unreachable, keep the token for the next refill
+                    break;
+                }
+                OfflineStore.OfflineToken refilled = null;
+                if (piResponse.error == null && piResponse.value)
+                {
+                    for (OfflineStore.OfflineToken t : parser.parseOfflineTokens(response))
+                    {
+                        if (t.serial.equals(token.serial))
+                        {
+                            refilled = t;
+                        }
+                    }
+                }
+                if (refilled == null)
+                {
+                    error("Offline refill for " + token.serial + " failed, removing its offline values.");
+                }
+                offlineStore.refilled(token, entry.getValue(), refilled);
+            }
+        }
+        finally
+        {
+            offlineRefillRunning.set(false);
+        }
+    }
+
+    /**
+     * @return the store for offline values or null if it is not enabled
+     */
+    public OfflineStore offlineStore()
+    {
+        return offlineStore;
+    }
+
     /**
      * @see PrivacyIDEA#validateCheckWebAuthn(String, String, String, String, Map, Map)
      */
@@ -258,11 +554,26 @@ public class PrivacyIDEA implements Closeable
      * Request an unbound challenge from the server. Unbound means that any token that has the same type may answer the challenge.
      * In contrast, traditional challenges that were triggered for a user are bound to specific token by their serial.
      * Note: Currently on type "passkey" is supported by privacyIDEA.
+     * If the {@link PasskeyChallengePool} is enabled, passkey challenges are taken from the pool without a request.
      *
      * @param type type of the challenge
      * @return PIResponse or null if error
      */
     public PIResponse validateInitialize(String type)
+    {
+        if (passkeyChallengePool != null && TOKEN_TYPE_PASSKEY.equals(type))
+        {
+            PIResponse pooled = passkeyChallengePool.take();
+            refillPasskeyChallengePool(0);
+            if (pooled != null)
+            {
+                return pooled;
+            }
+        }
+        return requestInitialize(type);
+    }
+
+    private PIResponse requestInitialize(String type)
     {
         Map<String, String> params = new LinkedHashMap<>();
         params.put(TYPE, type);
@@ -271,6 +582,117 @@ public class PrivacyIDEA implements Closeable
         return this.parser.parsePIResponse(response);
     }
 
+    /**
+     * @return the pool used by {@link #validateInitialize(String)} for passkey challenges or null if it is not enabled
+     */
+    public PasskeyChallengePool passkeyChallengePool()
+    {
+        return passkeyChallengePool;
+    }
+
+    /**
+     * Schedule the next refill of the passkey challenge pool, unless one is scheduled earlier or is running already.
+     * After a failed refill, the scheduled retry is kept, so taking challenges does not bypass the backoff.
+     *
+     * @param delayMs delay in milliseconds
+     */
+    private void refillPasskeyChallengePool(long delayMs)
+    {
+        synchronized (passkeyChallengePool)
+        {
+            if (passkeyPoolRefillRunning)
+            {
+                // The running refill schedules the next one when it is complete
+                return;
+            }
+            ScheduledFuture<?> next = this.passkeyPoolRefill;
+            if (next != null && !next.isDone() && (passkeyPoolRefillFailures.get() > 0 ||
+                                                   next.getDelay(TimeUnit.MILLISECONDS) <= delayMs || !next.cancel(false)))
+            {
+                return;
+            }
+            try
+            {
+                this.passkeyPoolRefill = scheduler().schedule(this::startPasskeyChallengeRefill, delayMs, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                log("Passkey challenge pool not refilled, the instance is closed.");
+            }
+        }
+    }
+
+    /**
+     * Start the scheduled refill of the passkey challenge pool on the background pool. The scheduler only does the
+     * timing, the request could delay the refresh of the JWT.
+     */
+    private void startPasskeyChallengeRefill()
+    {
+        synchronized (passkeyChallengePool)
+        {
+            this.passkeyPoolRefill = null;
+            passkeyPoolRefillRunning = true;
+        }
+        try
+        {
+            backgroundPool().execute(this::refillPasskeyChallenge);
+        }
+        catch (RejectedExecutionException e)
+        {
+            synchronized (passkeyChallengePool)
+            {
+                passkeyPoolRefillRunning = false;
+            }
+            log("Passkey challenge pool not refilled, the instance is closed.");
+        }
+    }
+
+    /**
+     * Request one challenge for the passkey challenge pool and schedule the next refill: right away if the pool is not
+     * full, otherwise when the oldest challenge expires. Only one challenge is requested per run, so that a complete
+     * refill does not occupy the background pool.
+     */
+    private void refillPasskeyChallenge()
+    {
+        if (closed.get())
+        {
+            synchronized (passkeyChallengePool)
+            {
+                passkeyPoolRefillRunning = false;
+            }
+            return;
+        }
+        boolean failed = false;
+        if (passkeyChallengePool.missing() > 0)
+        {
+            PIResponse response = requestInitialize(TOKEN_TYPE_PASSKEY);
+            if (response != null && response.passkeyChallenge != null && !response.passkeyChallenge.isEmpty())
+            {
+                passkeyChallengePool.add(response);
+                passkeyPoolRefillFailures.set(0);
+            }
+            else
+            {
+                failed = true;
+            }
+        }
+        synchronized (passkeyChallengePool)
+        {
+            long delayMs;
+            if (failed)
+            {
+                delayMs = backgroundRetryDelayMs(passkeyPoolRefillFailures.getAndIncrement());
+                error("Failed to get a passkey challenge for the pool. Retrying in " + delayMs + " ms.");
+            }
+            else
+            {
+                delayMs = passkeyChallengePool.missing() > 0 ? 0 : passkeyChallengePool.nextExpiryMs();
+            }
+            passkeyPoolRefillRunning = false;
+            refillPasskeyChallengePool(delayMs);
+        }
+    }
+
     /**
      * Authenticate using a passkey. If successful, the response will contain the username.
      *
@@ -357,8 +779,108 @@ public class PrivacyIDEA implements Closeable
         return this.parser.parsePIResponse(response);
     }
 
+    /**
+     * Run the requests that are needed before the second factor of the user can be asked for at the same time instead
+     * of one after the other, e.g. to show the available tokens together with the triggered challenges and a passkey
+     * challenge. The steps that require the JWT wait for it together. The method returns when all steps are complete,
+     * but not later than the timeout. Steps that are still running then are cancelled and marked as timed out in the
+     * result. Steps that can not be started, because all threads are busy or the instance is closed, are marked as
+     * failed.
+     *
+     * @param username  username
+     * @param steps     the requests to run
+     * @param timeoutMs maximum time in milliseconds to wait for the steps
+     * @return the results of the steps
+     */
+    public LoginPreparation prepareLogin(String username, Set<LoginPreparation.Step> steps, long timeoutMs)
+    {
+        Objects.requireNonNull(username, "Username is required!");
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Map<LoginPreparation.Step, Future<Object>> running = new EnumMap<>(LoginPreparation.Step.class);
+        LoginPreparation result = new LoginPreparation();
+        for (LoginPreparation.Step step : steps)
+        {
+            try
+            {
+                running.put(step, loginPool().submit(() -> runLoginStep(step, username)));
+            }
+            catch (RejectedExecutionException e)
+            {
+                error("Login preparation step " + step + " rejected: " + e.getMessage());
+                result.failed.add(step);
+            }
+        }
+
+        for (Map.Entry<LoginPreparation.Step, Future<Object>> entry : running.entrySet())
+        {
+            Object value = null;
+            try
+            {
+                value = entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                entry.getValue().cancel(true);
+                result.timedOut.add(entry.getKey());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                entry.getValue().cancel(true);
+                result.timedOut.add(entry.getKey());
+            }
+            catch (ExecutionException e)
+            {
+                error("Login preparation step " + entry.getKey() + " failed: " + e.getCause());
+                result.failed.add(entry.getKey());
+            }
+            setLoginStepResult(result, entry.getKey(), value);
+        }
+        result.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (!result.complete())
+        {
+            error("Login preparation for " + username + " did not complete within " + timeoutMs + "ms: " + result.timedOut);
+        }
+        return result;
+    }
+
+    private Object runLoginStep(LoginPreparation.Step step, String username)
+    {
+        switch (step)
+        {
+            case TOKEN_INFO:
+                return getTokenInfo(username);
+            case TRIGGER_CHALLENGES:
+                return triggerChallenges(username);
+            case PASSKEY_CHALLENGE:
+                return validateInitialize(TOKEN_TYPE_PASSKEY);
+            default:
+                throw new IllegalArgumentException("Unknown step " + step);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void setLoginStepResult(LoginPreparation result, LoginPreparation.Step step, Object value)
+    {
+        switch (step)
+        {
+            case TOKEN_INFO:
+                result.tokenInfo = (List<TokenInfo>) value;
+                break;
+            case TRIGGER_CHALLENGES:
+                result.triggeredChallenges = (PIResponse) value;
+                break;
+            case PASSKEY_CHALLENGE:
+                result.passkeyChallenge = (PIResponse) value;
+                break;
+        }
+    }
+
     /**
      * Poll for status of the given transaction ID once.
+     * Concurrent polls for the same transaction ID share a single request to the server. If configured with
+     * {@link Builder#pollTransactionCacheMs(long)}, the result is also reused for that time.
      *
      * @param transactionID transaction ID to poll for
      * @return the challenge status or "ChallengeStatus.none" if error
@@ -369,9 +891,18 @@ public class PrivacyIDEA implements Closeable
 
         Map<String, String> params = new LinkedHashMap<>();
         params.put(TRANSACTION_ID, transactionID);
-        String response = runRequestAsync(ENDPOINT_POLLTRANSACTION, params, Collections.emptyMap(), false, GET);
-        PIResponse piresponse = this.parser.parsePIResponse(response);
-        return piresponse.challengeStatus;
+        ChallengeStatus status = pollCoalescer.execute(ENDPOINT_POLLTRANSACTION + "?" + TRANSACTION_ID + "=" + transactionID, () ->
+        {
+            String response = runRequestAsync(ENDPOINT_POLLTRANSACTION, params, Collections.emptyMap(), false, GET);
+            PIResponse piresponse = this.parser.parsePIResponse(response);
+            // A failed poll returns null, so that it is not kept in the cache
+            if (piresponse == null || piresponse.error != null || piresponse.challengeStatus == ChallengeStatus.none)
+            {
+                return null;
+            }
+            return piresponse.challengeStatus;
+        });
+        return status != null ? status : ChallengeStatus.none;
     }
 
     /**
@@ -424,6 +955,7 @@ public class PrivacyIDEA implements Closeable
 
     /**
      * Retrieve information about the users tokens. This requires a service account to be set.
+     * If the cache is enabled via {@link Builder#tokenInfoCache(long, int)}, a cached result may be returned.
      *
      * @param username username to get info for
      * @return possibly empty list of TokenInfo or null if failure
@@ -436,10 +968,33 @@ public class PrivacyIDEA implements Closeable
             error("Cannot retrieve token info without service account!");
             return null;
         }
+        if (tokenInfoCache != null)
+        {
+            List<TokenInfo> cached = tokenInfoCache.get(username);
+            if (cached != null)
+            {
+                log("Using cached token info for " + username);
+                return cached;
+            }
+        }
+        long cacheGeneration = tokenInfoCache != null ? tokenInfoCache.generation() : 0;
         Map<String, String> params = new LinkedHashMap<>();
         params.put(USER, username);
         String response = runRequestAsync(ENDPOINT_TOKEN, params, new LinkedHashMap<>(), true, GET);
-        return parser.parseTokenInfoList(response);
+        List<TokenInfo> tokenInfos = parser.parseTokenInfoList(response);
+        if (tokenInfoCache != null && tokenInfos != null)
+        {
+            tokenInfoCache.put(username, tokenInfos, cacheGeneration);
+        }
+        return tokenInfos;
+    }
+
+    /**
+     * @return the cache used by {@link #getTokenInfo(String)} or null if it is not enabled
+     */
+    public TokenInfoCache tokenInfoCache()
+    {
+        return tokenInfoCache;
     }
 
     /**
@@ -464,6 +1019,7 @@ public class PrivacyIDEA implements Closeable
         params.put(GENKEY, "1"); // Let the server generate the secret
 
         String response = runRequestAsync(ENDPOINT_TOKEN_INIT, params, new LinkedHashMap<>(), true, POST);
+        invalidateTokenInfo(username);
 
         return parser.parseRolloutInfo(response);
     }
@@ -491,10 +1047,32 @@ public class PrivacyIDEA implements Closeable
         params.put(OTPKEY, otpKey); // Import the secret
 
         String response = runRequestAsync(ENDPOINT_TOKEN_INIT, params, new LinkedHashMap<>(), true, POST);
+        invalidateTokenInfo(username);
 
         return parser.parseRolloutInfo(response);
     }
 
+    /**
+     * @return the store for images contained in responses or null if it is not enabled
+     */
+    public ImageStore imageStore()
+    {
+        return imageStore;
+    }
+
+    /**
+     * Remove the cached token info of the user, if the cache is enabled.
+     *
+     * @param username username
+     */
+    private void invalidateTokenInfo(String username)
+    {
+        if (tokenInfoCache != null && username != null)
+        {
+            tokenInfoCache.invalidate(username);
+        }
+    }
+
     /**
      * Append the realm to the parameters if it is set.
      *
@@ -509,105 +1087,631 @@ public class PrivacyIDEA implements Closeable
     }
 
     /**
-     * Retrieve the JWT from the /auth endpoint and schedule the next retrieval.
+     * Retrieve the JWT from the /auth endpoint and schedule the next retrieval. Only one retrieval runs at a time, if
+     * another one is running, this returns immediately and the callers wait for the latch of the running one.
      */
     private void retrieveJWT()
     {
+        if (closed.get() || !jwtRetrievalRunning.compareAndSet(false, true))
+        {
+            return;
+        }
+        jwtRetryScheduled = false;
         log("Getting new JWT with service account...");
-        this.jwtRetrievalLatch = new CountDownLatch(1);
+        // Keep a latch that is still open, threads may already be waiting for it
+        CountDownLatch latch = this.jwtRetrievalLatch;
+        if (latch == null || latch.getCount() == 0)
+        {
+            latch = new CountDownLatch(1);
+            this.jwtRetrievalLatch = latch;
+        }
+        LinkedHashMap<String, String> jwtMap = null;
+        try
+        {
+            jwtMap = jwtStore != null ? jwtStore.retrieve(this::requestJWT) : requestJWT();
+        }
+        catch (Exception e)
+        {
+            error("Failed to retrieve JWT: " + e.getMessage());
+        }
+        CountDownLatch retryLatch = null;
+        if (jwtMap != null)
+        {
+            jwtRetrievalFailures.set(0);
+            this.jwt = jwtMap.get(JWT);
+        }
+        else if (this.jwt == null)
+        {
+            // Callers wait for the retry instead of retrieving the JWT themselves. Set up before this retrieval is
+            // complete, so that no caller starts another one in between.
+            retryLatch = new CountDownLatch(1);
+            this.jwtRetrievalLatch = retryLatch;
+        }
+        jwtRetryScheduled = jwtMap == null;
+        jwtRetrievalRunning.set(false);
+        latch.countDown();
         try
         {
-            String response = runRequestAsync(ENDPOINT_AUTH, serviceAccountParam(), Collections.emptyMap(), false, POST);
-            if (response == null)
+            if (jwtMap != null)
             {
-                error("Failed to retrieve JWT: Response was empty. Retrying in 10 seconds.");
-                this.scheduler.schedule(this::retrieveJWT, 10, TimeUnit.SECONDS);
+                scheduleJWTRefresh(Long.parseLong(jwtMap.get(JWT_EXPIRATION_TIME)));
             }
             else
             {
-                LinkedHashMap<String, String> jwtMap = parser.getJWT(response);
-                this.jwt = jwtMap.get(JWT);
-                long jwtExpiration = Integer.parseInt(jwtMap.get(JWT_EXPIRATION_TIME));
-
-                // Schedule the next token retrieval to 1 min before expiration
-                long delay = Math.max(1, jwtExpiration - 60 - (System.currentTimeMillis() / 1000L));
-                this.scheduler.schedule(this::retrieveJWT, delay, TimeUnit.SECONDS);
-                log("Next JWT retrieval in " + delay + " seconds.");
+                long delayMs = backgroundRetryDelayMs(jwtRetrievalFailures.getAndIncrement());
+                error("Failed to retrieve JWT. Retrying in " + delayMs + " ms.");
+                scheduler().schedule(this::retrieveJWT, delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (RejectedExecutionException e)
+        {
+            log("Next JWT retrieval not scheduled, the instance is closed.");
+            jwtRetryScheduled = false;
+            if (retryLatch != null)
+            {
+                retryLatch.countDown();
             }
         }
         catch (Exception e)
         {
-            error("Failed to retrieve JWT: " + e.getMessage());
+            error("Failed to schedule the next JWT retrieval: " + e.getMessage());
         }
-        this.jwtRetrievalLatch.countDown();
     }
 
     /**
-     * Get the JWT from the /auth endpoint using the service account.
-     *
-     * @return JWT as string or null on error.
+     * @return the store for the JWT that is configured, or null if the shared file can not be opened
      */
-    public String getJWT()
+    private JWTStore createJWTStore()
     {
-        if (jwtRetrievalLatch.getCount() == 0 && this.jwt == null)
+        if (!configuration.jwtStoreShared)
         {
-            retrieveJWT();
+            return new JWTStore(this, configuration.jwtStoreFile, configuration.jwtStoreKey, configuration.serverURL,
+                                configuration.serviceAccountName, configuration.serviceAccountRealm);
         }
         try
         {
-            jwtRetrievalLatch.await();
+            return new SharedJWTFile(this, configuration.jwtStoreFile, configuration.jwtStoreKey, configuration.serverURL,
+                                     configuration.serviceAccountName, configuration.serviceAccountRealm);
         }
-        catch (InterruptedException e)
+        catch (IOException e)
         {
-            error("Error while waiting for JWT retrieval: " + e.getMessage());
-            error(e);
+            error("Unable to open the shared JWT file " + configuration.jwtStoreFile + ": " + e.getMessage());
             return null;
         }
-        return this.jwt;
     }
 
     /**
-     * @return true if a service account is available
+     * @return the JWT from the /auth endpoint and its expiration time, or null if the request failed
      */
-    public boolean serviceAccountAvailable()
+    private LinkedHashMap<String, String> requestJWT()
     {
-        return configuration.serviceAccountName != null && !configuration.serviceAccountName.isEmpty() &&
-               configuration.serviceAccountPass != null && !configuration.serviceAccountPass.isEmpty();
+        String response = runRequestAsync(ENDPOINT_AUTH, serviceAccountParam(), Collections.emptyMap(), false, POST);
+        return response != null ? parser.getJWT(response) : null;
     }
 
     /**
-     * Run a request in a thread of the thread pool. Then join that thread to the one that was calling this method.
-     * If the server takes longer to answer a request, the other requests do not have to wait.
+     * Use the JWT from the store if it is valid for longer than the time before expiration at which it is refreshed.
      *
-     * @param path                  path to the endpoint of the privacyIDEA server
-     * @param params                request parameters
-     * @param headers               request headers
-     * @param authorizationRequired whether an JWT for Authorization should be acquired prior to the request. Requires a service account.
-     * @param method                http request method
-     * @return response of the server as string or null
+     * @return true if the stored JWT is used and its refresh is scheduled
      */
-    private String runRequestAsync(String path, Map<String, String> params, Map<String, String> headers, boolean authorizationRequired,
+    private boolean useStoredJWT()
+    {
+        LinkedHashMap<String, String> jwtMap = jwtStore != null ? jwtStore.load() : null;
+        if (jwtMap == null)
+        {
+            return false;
+        }
+        if (!JWTStore.isFresh(jwtMap))
+        {
+            log("The stored JWT expires too soon to be used.");
+            return false;
+        }
+        log("Using the stored JWT.");
+        this.jwt = jwtMap.get(JWT);
+        jwtRetrievalLatch.countDown();
+        scheduleJWTRefresh(Long.parseLong(jwtMap.get(JWT_EXPIRATION_TIME)));
+        return true;
+    }
+
+    /**
+     * Schedule the next retrieval of the JWT to 1 min before it expires.
+     *
+     * @param jwtExpiration expiration time of the current JWT in seconds since the epoch
+     */
+    private void scheduleJWTRefresh(long jwtExpiration)
+    {
+        long delay = Math.max(1, jwtExpiration - JWT_REFRESH_BEFORE_EXPIRATION_S - (System.currentTimeMillis() / 1000L));
+        scheduler().schedule(this::retrieveJWT, delay, TimeUnit.SECONDS);
+        log("Next JWT retrieval in " + delay + " seconds.");
+    }
+
+    /**
+     * Exponential backoff with jitter for requests in the background after they failed, the retrieval of the JWT and
+     * the refill of the passkey challenge pool: the delay doubles with every failure up to a maximum, and a random half
+     * of it is added, so that instances that failed at the same time do not retry at the same time.
+     *
+     * @param failures number of failed requests in a row before this one
+     * @return delay in milliseconds before the next request
+     */
+    static long backgroundRetryDelayMs(int failures)
+    {
+        long backoff = Math.min(BACKGROUND_RETRY_MAX_MS, BACKGROUND_RETRY_INITIAL_MS << Math.min(failures, 20));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * Get the JWT from the /auth endpoint using the service account. If the retrieval failed and its retry is scheduled,
+     * this waits for the retry, but at most the http timeout. A running retrieval is awaited at most as long as its
+     * request can take.
+     *
+     * @return JWT as string or null on error.
+     */
+    public String getJWT()
+    {
+        CountDownLatch latch = this.jwtRetrievalLatch;
+        if (latch == null || (latch.getCount() == 0 && this.jwt == null && !jwtRetryScheduled))
+        {
+            retrieveJWT();
+            latch = this.jwtRetrievalLatch;
+            if (latch == null)
+            {
+                // Closed before the first retrieval
+                return this.jwt;
+            }
+        }
+        try
+        {
+            // A running retrieval takes at most one request, the first one may be delayed by the jitter
+            long timeoutMs = jwtRetryScheduled ? configuration.httpTimeoutMs :
+                             configuration.jwtAcquisitionJitterMs + requestTimeoutMs();
+            if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS))
+            {
+                error("The JWT was not retrieved within " + timeoutMs + "ms.");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            error("Error while waiting for JWT retrieval: " + e.getMessage());
+            error(e);
+            return null;
+        }
+        return this.jwt;
+    }
+
+    /**
+     * @return true if a service account is available
+     */
+    public boolean serviceAccountAvailable()
+    {
+        return configuration.serviceAccountName != null && !configuration.serviceAccountName.isEmpty() &&
+               configuration.serviceAccountPass != null && !configuration.serviceAccountPass.isEmpty();
+    }
+
+    /**
+     * Run a request in a thread of the thread pool. Then join that thread to the one that was calling this method.
+     * If the server takes longer to answer a request, the other requests do not have to wait.
+     *
+     * @param path                  path to the endpoint of the privacyIDEA server
+     * @param params                request parameters
+     * @param headers               request headers
+     * @param authorizationRequired whether an JWT for Authorization should be acquired prior to the request. Requires a service account.
+     * @param method                http request method
+     * @return response of the server as string or null
+     */
+    private String runRequestAsync(String path, Map<String, String> params, Map<String, String> headers, boolean authorizationRequired,
                                    String method)
     {
+        try
+        {
+            return sendRequest(path, params, headers, authorizationRequired, method);
+        }
+        catch (RequestRejectedException e)
+        {
+            error(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Like {@link #runRequestAsync(String, Map, Map, boolean, String)}, but a request that is rejected locally is reported
+     * separately from a server that is unreachable.
+     *
+     * @return response of the server as string or null if the request failed
+     * @throws RequestRejectedException if the request was not sent, because the instance is closed, the bulkhead of
+     *                                  the request is full or the concurrency limiter has no free slot
+     */
+    private String sendRequest(String path, Map<String, String> params, Map<String, String> headers, boolean authorizationRequired,
+                               String method)
+    {
+        if (closed.get())
+        {
+            throw new RequestRejectedException("Request to " + path + " rejected, the instance is closed.");
+        }
         if (authorizationRequired)
         {
             // Wait for the JWT to be retrieved and add it to the header
             headers.put(PIConstants.HEADER_AUTHORIZATION, getJWT());
         }
-        Callable<String> callable = new AsyncRequestCallable(this, this.endpoint, path, params, headers, method);
-        Future<String> future = this.threadPool.submit(callable);
+        if (retryPolicy != null)
+        {
+            retryPolicy.onRequest();
+        }
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try
+        {
+            submitAttempt(path, params, headers, method, 0, future);
+        }
+        catch (RejectedExecutionException e)
+        {
+            throw new RequestRejectedException("Request to " + path + " rejected: " + e.getMessage());
+        }
         String response = null;
         try
         {
-            response = future.get();
+            response = future.get(requestTimeoutMs(), TimeUnit.MILLISECONDS);
         }
-        catch (InterruptedException | ExecutionException e)
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RequestRejectedException)
+            {
+                throw (RequestRejectedException) e.getCause();
+            }
+            log("runRequestAsync: " + e.getLocalizedMessage());
+        }
+        catch (TimeoutException e)
+        {
+            // A retry that is still pending is not sent anymore
+            pendingRetries.remove(future);
+            error("Request to " + path + " did not complete within " + requestTimeoutMs() + "ms.");
+        }
+        catch (InterruptedException e)
         {
             log("runRequestAsync: " + e.getLocalizedMessage());
         }
         return response;
     }
 
+    /**
+     * @return maximum time in milliseconds to wait for a request, including its retries
+     */
+    private long requestTimeoutMs()
+    {
+        return retryPolicy != null ? retryPolicy.maxDurationMs(AsyncRequestCallable.ATTEMPT_TIMEOUT_MS) :
+               AsyncRequestCallable.ATTEMPT_TIMEOUT_MS;
+    }
+
+    /**
+     * Send one attempt of the request in a thread of the pool of its class. If the attempt should be retried, the retry
+     * is scheduled after the backoff, so that the thread and the slot of the limiter are free in the meantime.
+     *
+     * @param attempt number of retries so far
+     * @param result  completed with the response of the last attempt, or exceptionally if the first attempt is rejected
+     * @throws RejectedExecutionException if the pool rejects the attempt
+     */
+    private void submitAttempt(String path, Map<String, String> params, Map<String, String> headers, String method, int attempt,
+                               CompletableFuture<String> result)
+    {
+        AsyncRequestCallable request = new AsyncRequestCallable(this, this.endpoint, path, params, headers, method);
+        ConcurrencyLimiter limiter = this.concurrencyLimiter;
+        // The slot is taken in the thread of the pool, so that requests waiting in the queue of a bulkhead do not hold
+        // slots that the requests of other classes could use
+        Callable<String> callable = limiter != null ? () -> runLimited(limiter, path, request) : request;
+        threadPool(RequestClass.of(path)).execute(() ->
+        {
+            String response;
+            try
+            {
+                response = callable.call();
+            }
+            catch (Exception e)
+            {
+                result.completeExceptionally(e);
+                return;
+            }
+            if (retryPolicy == null || closed.get() ||
+                !retryPolicy.shouldRetry(method, path, attempt, request.code(), request.failure()))
+            {
+                result.complete(response);
+                return;
+            }
+            long delay = retryPolicy.backoffMs(attempt);
+            log("Retrying " + method + " " + path + " in " + delay + "ms after " +
+                (request.failure() != null ? request.failure().getClass().getSimpleName() : "status " + request.code()));
+            pendingRetries.put(result, response != null ? response : "");
+            try
+            {
+                retryScheduler().schedule(() -> retry(path, params, headers, method, attempt + 1, result), delay,
+                                          TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                completeRetry(result);
+            }
+        });
+    }
+
+    /**
+     * Send the retry of a request, unless the instance was closed in the meantime. If the retry is rejected, the response
+     * of the previous attempt is the result.
+     */
+    private void retry(String path, Map<String, String> params, Map<String, String> headers, String method, int attempt,
+                       CompletableFuture<String> result)
+    {
+        String previous = pendingRetries.get(result);
+        if (previous == null || closed.get())
+        {
+            completeRetry(result);
+            return;
+        }
+        CompletableFuture<String> retried = new CompletableFuture<>();
+        retried.whenComplete((response, e) ->
+                             {
+                                 if (pendingRetries.remove(result) != null)
+                                 {
+                                     // A retry rejected by the limiter says nothing about the server
+                                     result.complete(e != null ? emptyToNull(previous) : response);
+                                 }
+                             });
+        try
+        {
+            submitAttempt(path, params, headers, method, attempt, retried);
+        }
+        catch (RejectedExecutionException e)
+        {
+            completeRetry(result);
+        }
+    }
+
+    /**
+     * Complete a request whose retry is not sent with the response of the previous attempt.
+     */
+    private void completeRetry(CompletableFuture<String> result)
+    {
+        String previous = pendingRetries.remove(result);
+        if (previous != null)
+        {
+            result.complete(emptyToNull(previous));
+        }
+    }
+
+    private static String emptyToNull(String response)
+    {
+        return response.isEmpty() ? null : response;
+    }
+
+    /**
+     * Run the request with a slot of the concurrency limiter.
+     *
+     * @param limiter concurrency limiter
+     * @param path    endpoint of the request, for the log
+     * @param request the request
+     * @return response of the server as string or null
+     * @throws RequestRejectedException if the limiter has no free slot
+     */
+    private String runLimited(ConcurrencyLimiter limiter, String path, Callable<String> request) throws Exception
+    {
+        if (!limiter.acquire())
+        {
+            throw new RequestRejectedException("Request to " + path + " rejected: " + limiter.inFlight() +
+                                               " requests in flight, the limit is " + limiter.limit() + ".");
+        }
+        long start = System.nanoTime();
+        String response = null;
+        try
+        {
+            response = request.call();
+            return response;
+        }
+        finally
+        {
+            limiter.release(start, response == null);
+        }
+    }
+
+    /**
+     * @return the retry policy or null if retries are not enabled
+     */
+    public RetryPolicy retryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    /**
+     * @return the adaptive concurrency limiter or null if it is not enabled
+     */
+    public ConcurrencyLimiter concurrencyLimiter()
+    {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * @param requestClass class of the request
+     * @return the thread pool of the bulkhead of the class or the shared pool if the class has no bulkhead
+     */
+    private ThreadPoolExecutor threadPool(RequestClass requestClass)
+    {
+        PIConfig.Bulkhead bulkhead = configuration.bulkheads.get(requestClass);
+        if (bulkhead == null)
+        {
+            return threadPool();
+        }
+        ThreadPoolExecutor pool = bulkheadPools.get(requestClass.ordinal());
+        if (pool == null)
+        {
+            synchronized (executorLock)
+            {
+                pool = bulkheadPools.get(requestClass.ordinal());
+                if (pool == null)
+                {
+                    if (closed.get())
+                    {
+                        throw new RejectedExecutionException("The instance is closed");
+                    }
+                    BlockingQueue<Runnable> queue = bulkhead.maxQueued > 0 ? new ArrayBlockingQueue<>(bulkhead.maxQueued) :
+                                                    new SynchronousQueue<>();
+                    pool = new ThreadPoolExecutor(bulkhead.maxConcurrent, bulkhead.maxConcurrent, 10, TimeUnit.SECONDS, queue,
+                                                  namedThreadFactory("privacyidea-" + requestClass.name().toLowerCase() + "-"));
+                    pool.allowCoreThreadTimeOut(true);
+                    bulkheadPools.set(requestClass.ordinal(), pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the shared thread pool for requests, created on first use
+     */
+    private ThreadPoolExecutor threadPool()
+    {
+        ThreadPoolExecutor pool = this.threadPool;
+        if (pool == null)
+        {
+            synchronized (executorLock)
+            {
+                pool = this.threadPool;
+                if (pool == null)
+                {
+                    if (closed.get())
+                    {
+                        throw new RejectedExecutionException("The instance is closed");
+                    }
+                    // The limiter decides how many requests run at the same time, so the pool must not limit them further
+                    int threads = configuration.sharedPoolThreads();
+                    pool = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000),
+                                                  namedThreadFactory("privacyidea-request-"));
+                    pool.allowCoreThreadTimeOut(true);
+                    this.threadPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the thread pool for the steps of {@link #prepareLogin(String, Set, long)}, created on first use. The steps
+     * only wait for their requests, which run in the request pools. If all threads are busy, a step is rejected.
+     */
+    private ThreadPoolExecutor loginPool()
+    {
+        ThreadPoolExecutor pool = this.loginPool;
+        if (pool == null)
+        {
+            synchronized (executorLock)
+            {
+                pool = this.loginPool;
+                if (pool == null)
+                {
+                    if (closed.get())
+                    {
+                        throw new RejectedExecutionException("The instance is closed");
+                    }
+                    pool = new ThreadPoolExecutor(0, configuration.sharedPoolThreads(), 10, TimeUnit.SECONDS,
+                                                  new SynchronousQueue<>(), namedThreadFactory("privacyidea-login-"),
+                                                  new ThreadPoolExecutor.AbortPolicy());
+                    this.loginPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the thread pool for background work that sends requests, created on first use
+     */
+    private ThreadPoolExecutor backgroundPool()
+    {
+        ThreadPoolExecutor pool = this.backgroundPool;
+        if (pool == null)
+        {
+            synchronized (executorLock)
+            {
+                pool = this.backgroundPool;
+                if (pool == null)
+                {
+                    if (closed.get())
+                    {
+                        throw new RejectedExecutionException("The instance is closed");
+                    }
+                    pool = new ThreadPoolExecutor(2, 2, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                                  namedThreadFactory("privacyidea-background-"));
+                    pool.allowCoreThreadTimeOut(true);
+                    this.backgroundPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the timer for the retries of requests, created on first use
+     */
+    private ScheduledExecutorService retryScheduler()
+    {
+        ScheduledExecutorService s = this.retryScheduler;
+        if (s == null)
+        {
+            synchronized (executorLock)
+            {
+                s = this.retryScheduler;
+                if (s == null)
+                {
+                    if (closed.get())
+                    {
+                        throw new RejectedExecutionException("The instance is closed");
+                    }
+                    s = Executors.newScheduledThreadPool(1, namedThreadFactory("privacyidea-retry-"));
+                    this.retryScheduler = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * @return the scheduler for the JWT retrieval and the timing of background work, created on first use
+     */
+    private ScheduledExecutorService scheduler()
+    {
+        ScheduledExecutorService s = this.scheduler;
+        if (s == null)
+        {
+            synchronized (executorLock)
+            {
+                s = this.scheduler;
+                if (s == null)
+                {
+                    if (closed.get())
+                    {
+                        throw new RejectedExecutionException("The instance is closed");
+                    }
+                    s = Executors.newScheduledThreadPool(1, namedThreadFactory("privacyidea-scheduler-"));
+                    this.scheduler = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    static ThreadFactory namedThreadFactory(String prefix)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return runnable ->
+        {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        };
+    }
+
+    /**
+     * @return the endpoint that sends the requests of this instance
+     */
+    Endpoint endpoint()
+    {
+        return endpoint;
+    }
+
     /**
      * @return the configuration of this instance
      */
@@ -720,11 +1824,102 @@ public class PrivacyIDEA implements Closeable
         }
     }
 
+    /**
+     * Close this instance gracefully. New requests are rejected, requests that are in flight can complete within the
+     * shutdown timeout (see {@link Builder#shutdownTimeoutMs(long)}). Requests that are still running after that are
+     * cancelled. Finally, the threads and connections of the http client are released. Calling this method more than once
+     * has no effect.
+     */
     @Override
     public void close() throws IOException
     {
-        this.threadPool.shutdown();
-        this.scheduler.shutdownNow();
+        if (!closed.compareAndSet(false, true))
+        {
+            return;
+        }
+        List<ThreadPoolExecutor> pools = new ArrayList<>();
+        ScheduledExecutorService sched;
+        ScheduledExecutorService retrySched;
+        synchronized (executorLock)
+        {
+            if (this.threadPool != null)
+            {
+                pools.add(this.threadPool);
+            }
+            if (this.loginPool != null)
+            {
+                pools.add(this.loginPool);
+            }
+            if (this.backgroundPool != null)
+            {
+                pools.add(this.backgroundPool);
+            }
+            for (int i = 0; i < bulkheadPools.length(); i++)
+            {
+                if (bulkheadPools.get(i) != null)
+                {
+                    pools.add(bulkheadPools.get(i));
+                }
+            }
+            sched = this.scheduler;
+            retrySched = this.retryScheduler;
+        }
+        // Stop the JWT retrieval, pending retrievals are not needed anymore
+        if (sched != null)
+        {
+            sched.shutdownNow();
+        }
+        if (retrySched != null)
+        {
+            retrySched.shutdownNow();
+        }
+        CountDownLatch latch = this.jwtRetrievalLatch;
+        if (latch != null)
+        {
+            // Release the callers that wait for a retry that will not run
+            latch.countDown();
+        }
+        // The retries that were waiting on the timer are not sent, their callers get the previous response
+        for (CompletableFuture<String> retry : new ArrayList<>(pendingRetries.keySet()))
+        {
+            completeRetry(retry);
+        }
+        pools.forEach(ThreadPoolExecutor::shutdown);
+        boolean drained = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(configuration.shutdownTimeoutMs);
+        try
+        {
+            for (ThreadPoolExecutor pool : pools)
+            {
+                drained &= pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        if (!drained)
+        {
+            error("Requests did not complete within " + configuration.shutdownTimeoutMs + "ms, cancelling them.");
+        }
+        endpoint.close(!drained);
+        if (!drained)
+        {
+            pools.forEach(ThreadPoolExecutor::shutdownNow);
+        }
+        if (jwtStore instanceof SharedJWTFile)
+        {
+            ((SharedJWTFile) jwtStore).close();
+        }
+    }
+
+    /**
+     * @return true if {@link #close()} has been called
+     */
+    public boolean isClosed()
+    {
+        return closed.get();
     }
 
     /**
@@ -757,6 +1952,31 @@ public class PrivacyIDEA implements Closeable
         private int httpTimeoutMs = 10000;
         private String proxyHost = "";
         private int proxyPort = 0;
+        private long pollTransactionCacheMs = 0;
+        private boolean validateCheckDeduplication = false;
+        private long tokenInfoCacheTtlMs = 0;
+        private int tokenInfoCacheMaxSize = 0;
+        private int imageStoreMaxEntries = 0;
+        private int prewarmConnections = 0;
+        private long shutdownTimeoutMs = 5000;
+        private boolean offlineStore = false;
+        private Path offlineStoreFile = null;
+        private byte[] offlineStoreKey = null;
+        private TransportType transportType = TransportType.OKHTTP;
+        private int concurrencyInitialLimit = 0;
+        private int concurrencyMaxLimit = 0;
+        private long concurrencyMaxWaitMs = 0;
+        private final Map<RequestClass, PIConfig.Bulkhead> bulkheads = new EnumMap<>(RequestClass.class);
+        private int maxRetries = 0;
+        private long retryInitialBackoffMs = 0;
+        private long retryMaxBackoffMs = 0;
+        private double retryBudgetRatio = 0;
+        private Path jwtStoreFile = null;
+        private byte[] jwtStoreKey = null;
+        private boolean jwtStoreShared = false;
+        private int passkeyChallengePoolSize = 0;
+        private long passkeyChallengeTtlMs = 0;
+        private long jwtAcquisitionJitterMs = 0;
 
         /**
          * @param serverURL the server URL is mandatory to communicate with privacyIDEA.
@@ -882,9 +2102,293 @@ public class PrivacyIDEA implements Closeable
             return this;
         }
 
+        /**
+         * Set the time in milliseconds for which the result of {@link PrivacyIDEA#pollTransaction(String)} is reused for
+         * the same transaction ID. This reduces the load on the server if the same transaction is polled from multiple
+         * threads, e.g. multiple browser tabs. Should be kept well below the polling interval. Default is 0 (disabled),
+         * in which case only polls that are in flight at the same time share a request.
+         *
+         * @param pollTransactionCacheMs time in milliseconds
+         * @return Builder
+         */
+        public Builder pollTransactionCacheMs(long pollTransactionCacheMs)
+        {
+            this.pollTransactionCacheMs = pollTransactionCacheMs;
+            return this;
+        }
+
+        /**
+         * Let duplicate requests to /validate/check and /validate/check with serial share one response, e.g. from a
+         * double-clicked submit button. Without this, the duplicate is sent as well and usually fails because the OTP was
+         * already used. Requests are duplicates if the user or serial, the pass, the transaction ID and the additional
+         * parameters are the same. They are identified by a hash with a random key, the pass is not kept. Only a
+         * duplicate that arrives while the first request is in flight gets its response, a response is never reused
+         * after it was returned. Each caller gets its own copy of the PIResponse. Default is disabled.
+         *
+         * @return Builder
+         */
+        public Builder validateCheckDeduplication()
+        {
+            this.validateCheckDeduplication = true;
+            return this;
+        }
+
+        /**
+         * Enable the cache for {@link PrivacyIDEA#getTokenInfo(String)}. This avoids repeated requests for the same user
+         * within a login flow. The cached entries of a user are invalidated when a token is enrolled for the user via
+         * {@link PrivacyIDEA#tokenRollout(String, String)} or {@link PrivacyIDEA#tokenInit(String, String, String)}.
+         * Default is disabled.
+         *
+         * @param ttlMs   time in milliseconds after which an entry expires
+         * @param maxSize maximum number of users in the cache, the least recently used entry is evicted first
+         * @return Builder
+         */
+        public Builder tokenInfoCache(long ttlMs, int maxSize)
+        {
+            this.tokenInfoCacheTtlMs = ttlMs;
+            this.tokenInfoCacheMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Enable the store for images contained in responses (e.g. QR codes and challenge images). Identical images are
+         * kept only once and shared by all parsed objects. The store can be accessed with {@link PrivacyIDEA#imageStore()}
+         * to get a reference for an image, which can be used to serve the image via a URL. Default is disabled.
+         *
+         * @param maxEntries maximum number of images in the store, the least recently used image is evicted first
+         * @return Builder
+         */
+        public Builder imageStore(int maxEntries)
+        {
+            this.imageStoreMaxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Establish the given number of connections to the server when the instance is built, so that the first requests
+         * do not have to wait for the TCP and TLS handshakes. The connections are kept in the connection pool, which is
+         * sized to hold at least this many idle connections. build() waits at most the http timeout for the warm-up.
+         * Failures are logged but do not prevent the instance from being built. Default is 0 (disabled).
+         *
+         * @param count number of connections
+         * @return Builder
+         */
+        public Builder prewarmConnections(int count)
+        {
+            this.prewarmConnections = count;
+            return this;
+        }
+
+        /**
+         * Set the http client that sends the requests. The JDK client avoids loading OkHttp, Okio and the Kotlin standard
+         * library and uses HTTP/2 if the server supports it. Default is {@link TransportType#OKHTTP}.
+         *
+         * @param transportType http client
+         * @return Builder
+         */
+        public Builder transport(TransportType transportType)
+        {
+            this.transportType = Objects.requireNonNull(transportType);
+            return this;
+        }
+
+        /**
+         * Limit the number of requests that are sent to the server at the same time with a limit that adapts to the
+         * latency of the server, see {@link ConcurrencyLimiter}. Requests that exceed the limit wait up to maxWaitMs for a
+         * free slot and are rejected after that, so the methods return null for them. A rejected validateCheck does
+         * not fall back to the offline store, because the server may be reachable. The thread pool for the requests
+         * is sized to the maximum limit. The current limit is available via {@link PrivacyIDEA#concurrencyLimiter()}.
+         * The initial limit should be low: the latency of the first requests is the baseline, so starting with more
+         * requests than the server can handle hides the overload. Default is disabled, with a fixed pool of 20 threads.
+         *
+         * @param initialLimit limit to start with
+         * @param maxLimit     the limit is not increased above this
+         * @param maxWaitMs    time in milliseconds that a request waits for a free slot
+         * @return Builder
+         */
+        public Builder concurrencyLimit(int initialLimit, int maxLimit, long maxWaitMs)
+        {
+            if (initialLimit < 1 || maxLimit < initialLimit)
+            {
+                throw new IllegalArgumentException("The initial limit must be between 1 and the maximum limit.");
+            }
+            this.concurrencyInitialLimit = initialLimit;
+            this.concurrencyMaxLimit = maxLimit;
+            this.concurrencyMaxWaitMs = maxWaitMs;
+            return this;
+        }
+
+        /**
+         * Send requests again that failed because of a transient problem, see {@link RetryPolicy} for which failures are
+         * retried. An OTP is never sent again if the server may have received it. The delay before a retry is random, up
+         * to initialBackoffMs doubled for every retry and at most maxBackoffMs. At most budgetRatio of the requests are
+         * retried in the long run, e.g. 0.1 for 10%, so retries do not multiply the load during an outage. The number of
+         * retries is available via {@link PrivacyIDEA#retryPolicy()}. Default is no retries.
+         *
+         * @param maxRetries       maximum number of retries per request
+         * @param initialBackoffMs maximum delay in milliseconds before the first retry
+         * @param maxBackoffMs     maximum delay in milliseconds before any retry
+         * @param budgetRatio      ratio of retries to requests
+         * @return Builder
+         */
+        public Builder retries(int maxRetries, long initialBackoffMs, long maxBackoffMs, double budgetRatio)
+        {
+            if (maxRetries < 0 || budgetRatio < 0)
+            {
+                throw new IllegalArgumentException("The number of retries and the budget ratio must not be negative.");
+            }
+            this.maxRetries = maxRetries;
+            this.retryInitialBackoffMs = initialBackoffMs;
+            this.retryMaxBackoffMs = maxBackoffMs;
+            this.retryBudgetRatio = budgetRatio;
+            return this;
+        }
+
+        /**
+         * Give the requests of a class their own threads and queue instead of the pool of 20 threads that is shared by
+         * all requests, so that e.g. a slow bulk of token management requests can not delay the authentication of
+         * users. Classes without a bulkhead keep using the shared pool. Requests that do not fit into the queue are
+         * rejected, so the methods return null for them. Default is no bulkheads.
+         *
+         * @param requestClass  class of the requests
+         * @param maxConcurrent number of requests of the class that are sent at the same time
+         * @param maxQueued     number of requests that wait for one of the others to complete
+         * @return Builder
+         */
+        public Builder bulkhead(RequestClass requestClass, int maxConcurrent, int maxQueued)
+        {
+            if (maxConcurrent < 1 || maxQueued < 0)
+            {
+                throw new IllegalArgumentException("A bulkhead needs at least one concurrent request and a queue of zero or more.");
+            }
+            this.bulkheads.put(Objects.requireNonNull(requestClass), new PIConfig.Bulkhead(maxConcurrent, maxQueued));
+            return this;
+        }
+
+        /**
+         * Keep the offline values of HOTP tokens that privacyIDEA sends for tokens with the offline application, so that
+         * users can authenticate with {@link PrivacyIDEA#validateCheck(String, String)} while the server is unreachable.
+         * The values are only kept in memory. Default is disabled.
+         *
+         * @return Builder
+         */
+        public Builder offlineStore()
+        {
+            return offlineStore(null, null);
+        }
+
+        /**
+         * Like {@link #offlineStore()}, but the values are also stored in the file, encrypted with AES-GCM and the given key,
+         * so that they are still available after a restart.
+         *
+         * @param file file to store the values in
+         * @param key  AES key with 16, 24 or 32 bytes
+         * @return Builder
+         */
+        public Builder offlineStore(Path file, byte[] key)
+        {
+            if (file != null && (key == null || (key.length != 16 && key.length != 24 && key.length != 32)))
+            {
+                throw new IllegalArgumentException("The key for the offline store must have 16, 24 or 32 bytes.");
+            }
+            this.offlineStore = true;
+            this.offlineStoreFile = file;
+            this.offlineStoreKey = key != null ? key.clone() : null;
+            return this;
+        }
+
+        /**
+         * Store the JWT of the service account in the file, encrypted with AES-GCM and the given key. An instance that is
+         * started again uses the stored JWT until shortly before it expires instead of requesting a new one, so that a
+         * restart of many instances does not load the /auth endpoint of the server. Default is disabled.
+         *
+         * @param file file to store the JWT in
+         * @param key  AES key with 16, 24 or 32 bytes
+         * @return Builder
+         */
+        public Builder jwtStore(Path file, byte[] key)
+        {
+            if (file == null || key == null || (key.length != 16 && key.length != 24 && key.length != 32))
+            {
+                throw new IllegalArgumentException("The JWT store needs a file and a key with 16, 24 or 32 bytes.");
+            }
+            this.jwtStoreFile = file;
+            this.jwtStoreKey = key.clone();
+            this.jwtStoreShared = false;
+            return this;
+        }
+
+        /**
+         * Like {@link #jwtStore(Path, byte[])}, but the JWT is shared with the other processes on the host that use the same
+         * file, e.g. several applications with the same service account. The file is memory-mapped and locked while the
+         * JWT is refreshed, so only one process requests a new JWT and the others read it from the file.
+         * Replaces {@link #jwtStore(Path, byte[])}. Default is disabled.
+         *
+         * @param file file to share the JWT in, on a local file system
+         * @param key  AES key with 16, 24 or 32 bytes, the same for all processes
+         * @return Builder
+         */
+        public Builder sharedJWTFile(Path file, byte[] key)
+        {
+            jwtStore(file, key);
+            this.jwtStoreShared = true;
+            return this;
+        }
+
+        /**
+         * Delay the first retrieval of the JWT by a random time up to the given one, so that instances that are started
+         * at the same time do not request it at the same time. Requests that require the JWT wait for it. Not used if a
+         * stored JWT is valid, see {@link #jwtStore(Path, byte[])}. Default is 0.
+         *
+         * @param jwtAcquisitionJitterMs maximum delay in milliseconds
+         * @return Builder
+         */
+        public Builder jwtAcquisitionJitterMs(long jwtAcquisitionJitterMs)
+        {
+            this.jwtAcquisitionJitterMs = jwtAcquisitionJitterMs;
+            return this;
+        }
+
+        /**
+         * Request passkey challenges from /validate/initialize in advance and keep them in a pool, so that
+         * {@link PrivacyIDEA#validateInitialize(String)} with the type passkey returns one without a request to the
+         * server. The pool is refilled in the background. A challenge is handed out only once and not after ttlMs,
+         * counted from its request, which must be shorter than the validity of challenges on the server minus the time a
+         * user needs to answer. The usage of the pool is available via {@link PrivacyIDEA#passkeyChallengePool()}.
+         * Default is disabled.
+         *
+         * @param size  number of challenges to keep
+         * @param ttlMs time in milliseconds that a challenge is handed out after it was requested
+         * @return Builder
+         */
+        public Builder passkeyChallengePool(int size, long ttlMs)
+        {
+            if (size < 1 || ttlMs < 1)
+            {
+                throw new IllegalArgumentException("The pool size and the time to live must be positive.");
+            }
+            this.passkeyChallengePoolSize = size;
+            this.passkeyChallengeTtlMs = ttlMs;
+            return this;
+        }
+
+        /**
+         * Set the time in milliseconds that {@link PrivacyIDEA#close()} waits for requests that are in flight to complete.
+         * Requests that are still running after that time are cancelled. Default is 5000.
+         *
+         * @param shutdownTimeoutMs time in milliseconds
+         * @return Builder
+         */
+        public Builder shutdownTimeoutMs(long shutdownTimeoutMs)
+        {
+            this.shutdownTimeoutMs = shutdownTimeoutMs;
+            return this;
+        }
+
         /**
          * Build the PrivacyIDEA instance with the set parameters.
-         * If a service account is set, the JWT retrieval is done immediately.
+         * If a service account is set, the JWT retrieval is started in the background immediately. Requests that require
+         * the JWT wait for it.
          *
          * @return PrivacyIDEA instance
          */
@@ -899,6 +2403,31 @@ public class PrivacyIDEA implements Closeable
             configuration.disableLog = disableLog;
             configuration.httpTimeoutMs = httpTimeoutMs;
             configuration.setProxy(proxyHost, proxyPort);
+            configuration.pollTransactionCacheMs = pollTransactionCacheMs;
+            configuration.validateCheckDeduplication = validateCheckDeduplication;
+            configuration.tokenInfoCacheTtlMs = tokenInfoCacheTtlMs;
+            configuration.tokenInfoCacheMaxSize = tokenInfoCacheMaxSize;
+            configuration.imageStoreMaxEntries = imageStoreMaxEntries;
+            configuration.prewarmConnections = prewarmConnections;
+            configuration.shutdownTimeoutMs = shutdownTimeoutMs;
+            configuration.offlineStore = offlineStore;
+            configuration.offlineStoreFile = offlineStoreFile;
+            configuration.offlineStoreKey = offlineStoreKey;
+            configuration.transportType = transportType;
+            configuration.concurrencyInitialLimit = concurrencyInitialLimit;
+            configuration.concurrencyMaxLimit = concurrencyMaxLimit;
+            configuration.concurrencyMaxWaitMs = concurrencyMaxWaitMs;
+            configuration.bulkheads.putAll(bulkheads);
+            configuration.maxRetries = maxRetries;
+            configuration.retryInitialBackoffMs = retryInitialBackoffMs;
+            configuration.retryMaxBackoffMs = retryMaxBackoffMs;
+            configuration.retryBudgetRatio = retryBudgetRatio;
+            configuration.jwtStoreFile = jwtStoreFile;
+            configuration.jwtStoreKey = jwtStoreKey;
+            configuration.jwtStoreShared = jwtStoreShared;
+            configuration.passkeyChallengePoolSize = passkeyChallengePoolSize;
+            configuration.passkeyChallengeTtlMs = passkeyChallengeTtlMs;
+            configuration.jwtAcquisitionJitterMs = jwtAcquisitionJitterMs;
             return new PrivacyIDEA(configuration, logger, simpleLogBridge);
         }
     }
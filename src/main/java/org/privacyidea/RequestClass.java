@@ -0,0 +1,64 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import static org.privacyidea.PIConstants.ENDPOINT_AUTH;
+import static org.privacyidea.PIConstants.ENDPOINT_POLLTRANSACTION;
+import static org.privacyidea.PIConstants.ENDPOINT_TOKEN;
+
+/**
+ * The kinds of requests that can get their own threads and queue with
+ * {@link PrivacyIDEA.Builder#bulkhead(RequestClass, int, int)}, so that one kind of request can not block the others.
+ */
+public enum RequestClass
+{
+    /**
+     * Retrieval of the JWT for the service account from /auth.
+     */
+    AUTH,
+    /**
+     * The requests of the authentication flow to the /validate endpoints, except polling.
+     */
+    VALIDATE,
+    /**
+     * Polling of push transactions with /validate/polltransaction.
+     */
+    POLL,
+    /**
+     * Token management with the /token endpoints, e.g. getTokenInfo and tokenRollout.
+     */
+    ADMIN;
+
+    /**
+     * @param path endpoint of the request
+     * @return the class of the request
+     */
+    static RequestClass of(String path)
+    {
+        if (ENDPOINT_AUTH.equals(path))
+        {
+            return AUTH;
+        }
+        if (ENDPOINT_POLLTRANSACTION.equals(path))
+        {
+            return POLL;
+        }
+        if (path.startsWith(ENDPOINT_TOKEN))
+        {
+            return ADMIN;
+        }
+        return VALIDATE;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent identical requests. The first caller for a key executes the request, all callers that arrive
+ * with the same key while it is in flight wait for and share its result. Optionally, the result is kept for a short time
+ * so that callers arriving right after completion get the same result without another request.
+ *
+ * @param <V> type of the shared result
+ */
+class RequestCoalescer<V>
+{
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, CachedResult<V>> recent = new ConcurrentHashMap<>();
+    private final long cacheTtlMs;
+
+    /**
+     * @param cacheTtlMs time in milliseconds for which a completed result is reused. 0 disables the cache, so only
+     *                   requests that are in flight at the same time are shared. Failures and null results are never
+     *                   reused, so the supplier should return null if the request was not successful.
+     */
+    RequestCoalescer(long cacheTtlMs)
+    {
+        this.cacheTtlMs = Math.max(0, cacheTtlMs);
+    }
+
+    /**
+     * Get the result for the key. If an identical request is in flight or a recent result is cached, that is returned.
+     * Otherwise, the supplier is run in the calling thread and its result is shared with concurrent callers. If the
+     * supplier throws, the concurrent callers get the same exception.
+     *
+     * @param key      key identifying identical requests
+     * @param supplier executes the request
+     * @return the (shared) result
+     */
+    V execute(String key, Supplier<V> supplier)
+    {
+        CachedResult<V> cached = recent.get(key);
+        if (cached != null)
+        {
+            if (!cached.isExpired())
+            {
+                return cached.value;
+            }
+            recent.remove(key, cached);
+        }
+
+        CompletableFuture<V> ownFuture = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, ownFuture);
+        if (existing != null)
+        {
+            return await(existing);
+        }
+
+        try
+        {
+            V value = supplier.get();
+            if (cacheTtlMs > 0 && value != null)
+            {
+                purgeExpired();
+                recent.put(key, new CachedResult<>(value, System.currentTimeMillis() + cacheTtlMs));
+            }
+            ownFuture.complete(value);
+            return value;
+        }
+        catch (RuntimeException | Error e)
+        {
+            ownFuture.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            inFlight.remove(key, ownFuture);
+        }
+    }
+
+    /**
+     * Wait for the result of the request in flight. If it failed, the waiters fail the same way, so that a failing request
+     * is not repeated by every caller that shared it.
+     */
+    private V await(CompletableFuture<V> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("The shared request failed", cause);
+        }
+    }
+
+    private void purgeExpired()
+    {
+        recent.values().removeIf(CachedResult::isExpired);
+    }
+
+    private static class CachedResult<V>
+    {
+        private final V value;
+        private final long expiresAt;
+
+        private CachedResult(V value, long expiresAt)
+        {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired()
+        {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+/**
+ * A request was not sent because it was rejected locally, e.g. by the concurrency limiter, a full bulkhead or because
+ * the instance is closed. In contrast to a failed request, this says nothing about the reachability of the server.
+ */
+class RequestRejectedException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    RequestRejectedException(String message)
+    {
+        super(message);
+    }
+}
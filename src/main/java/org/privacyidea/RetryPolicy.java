@@ -0,0 +1,167 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.privacyidea.PIConstants.ENDPOINT_AUTH;
+import static org.privacyidea.PIConstants.GET;
+
+/**
+ * Decides whether a failed request is sent again. Only failures that are likely to be transient are retried:
+ * <ul>
+ *     <li>Connection failures (refused, no route, unknown host, connect timeout). The request did not reach the server,
+ *     so every request can be sent again.</li>
+ *     <li>The status codes 502, 503 and 504, but only for requests that can safely be repeated: GET requests and the
+ *     retrieval of the JWT. The server may have processed the request already, so e.g. an OTP sent to /validate/check
+ *     is never sent again, it would be rejected as used anyway.</li>
+ * </ul>
+ * Other failures, like read timeouts, are not retried because the server may have received the request.
+ * <p>
+ * The retries are delayed with exponential backoff and full jitter. They are limited by a budget, so that they can not
+ * multiply the load while the server is down: every request adds the budget ratio to the budget (up to a maximum) and
+ * every retry takes one from it. With a ratio of 0.1, at most 10% of the requests are retried in the long run.
+ * <p>
+ * Enable retries with {@link PrivacyIDEA.Builder#retries(int, long, long, double)}.
+ */
+public class RetryPolicy
+{
+    // The budget is counted in thousandths of a retry, so that the ratio adds up without rounding errors
+    private static final long RETRY = 1000;
+    // Allows a few retries before the budget is filled by requests, e.g. for a blip right after the start
+    private static final long MAX_BUDGET = 10 * RETRY;
+
+    private final int maxRetries;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long deposit;
+    private long budget = MAX_BUDGET;
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    RetryPolicy(int maxRetries, long initialBackoffMs, long maxBackoffMs, double budgetRatio)
+    {
+        this.maxRetries = maxRetries;
+        this.initialBackoffMs = Math.max(1, initialBackoffMs);
+        this.maxBackoffMs = Math.max(this.initialBackoffMs, maxBackoffMs);
+        this.deposit = Math.round(budgetRatio * RETRY);
+    }
+
+    /**
+     * @param attemptTimeoutMs maximum duration of one attempt in milliseconds
+     * @return maximum duration of a request with all its retries and their backoff in milliseconds
+     */
+    long maxDurationMs(long attemptTimeoutMs)
+    {
+        return (maxRetries + 1) * attemptTimeoutMs + maxRetries * maxBackoffMs;
+    }
+
+    /**
+     * Add to the budget for a new request. Must be called once per request, not for the retries.
+     */
+    synchronized void onRequest()
+    {
+        budget = Math.min(MAX_BUDGET, budget + deposit);
+    }
+
+    /**
+     * @param method  http method of the request
+     * @param path    endpoint of the request
+     * @param attempt number of retries so far
+     * @param code    http status code of the response, 0 if there is no response
+     * @param failure the reason why the request failed or null if there is a response
+     * @return true if the request should be sent again. Then, one retry is taken from the budget.
+     */
+    boolean shouldRetry(String method, String path, int attempt, int code, IOException failure)
+    {
+        if (attempt >= maxRetries || !isRetryable(method, path, code, failure))
+        {
+            return false;
+        }
+        synchronized (this)
+        {
+            if (budget < RETRY)
+            {
+                budgetExhausted.incrementAndGet();
+                return false;
+            }
+            budget -= RETRY;
+        }
+        retries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @param attempt number of retries so far
+     * @return random delay in milliseconds before the next retry, up to the exponential backoff for the attempt
+     */
+    long backoffMs(int attempt)
+    {
+        long backoff = initialBackoffMs << Math.min(attempt, 30);
+        return ThreadLocalRandom.current().nextLong(Math.min(backoff, maxBackoffMs) + 1);
+    }
+
+    static boolean isRetryable(String method, String path, int code, IOException failure)
+    {
+        if (failure != null)
+        {
+            return isConnectFailure(failure);
+        }
+        return (code == 502 || code == 503 || code == 504) && isIdempotent(method, path);
+    }
+
+    /**
+     * @param failure reason why the request failed
+     * @return true if the connection could not be established, so the request was not sent. A connect timeout is
+     * recognized as {@link HttpConnectTimeoutException}, the transports report it as such.
+     */
+    static boolean isConnectFailure(IOException failure)
+    {
+        return failure instanceof ConnectException || failure instanceof NoRouteToHostException ||
+               failure instanceof UnknownHostException || failure instanceof HttpConnectTimeoutException;
+    }
+
+    /**
+     * @param method http method of the request
+     * @param path   endpoint of the request
+     * @return true if sending the request twice has the same effect as sending it once
+     */
+    static boolean isIdempotent(String method, String path)
+    {
+        return GET.equals(method) || ENDPOINT_AUTH.equals(path);
+    }
+
+    /**
+     * @return number of requests that were sent again
+     */
+    public long retryCount()
+    {
+        return retries.get();
+    }
+
+    /**
+     * @return number of retries that were not sent because the budget was used up
+     */
+    public long budgetExhaustedCount()
+    {
+        return budgetExhausted.get();
+    }
+}
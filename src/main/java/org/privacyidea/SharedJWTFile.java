@@ -0,0 +1,185 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A {@link JWTStore} that shares the JWT between the processes on a host. The JWT is kept in a memory-mapped file, so
+ * that all processes that map the file see the same JWT. A process that needs a new JWT locks the file and checks
+ * whether another process has already refreshed it. Only if not, it requests a new JWT from /auth and writes it to the
+ * file while it holds the lock. The other processes wait for the lock and then read the new JWT, without a request.
+ * <p>
+ * The lock of the file is held by the process, so the threads and instances within a process are serialized by a lock
+ * per file in addition. If a process dies while it holds the lock, the operating system releases it.
+ * <p>
+ * The file starts with the length of the content, followed by the content encrypted like {@link EncryptedFile}. A
+ * length of 0 means that no JWT is stored yet.
+ * <p>
+ * Enable the shared file with {@link PrivacyIDEA.Builder#sharedJWTFile(Path, byte[])}.
+ */
+final class SharedJWTFile extends JWTStore
+{
+    // Large enough for the encrypted JWT, which is usually less than 2KB
+    static final int SIZE = 16 * 1024;
+    // Locks of the files within this process, the file lock only excludes other processes
+    private static final Map<Path, Object> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Object processLock;
+
+    SharedJWTFile(PrivacyIDEA privacyIDEA, Path file, byte[] key, String server, String account, String accountRealm)
+            throws IOException
+    {
+        super(privacyIDEA, file, key, server, account, accountRealm);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Mapping beyond the end extends the file with zeros, which is the empty state
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        this.processLock = PROCESS_LOCKS.computeIfAbsent(file.toAbsolutePath().normalize(), p -> new Object());
+    }
+
+    @Override
+    LinkedHashMap<String, String> load()
+    {
+        return locked(super::load);
+    }
+
+    @Override
+    void save(Map<String, String> jwtMap)
+    {
+        locked(() ->
+               {
+                   super.save(jwtMap);
+                   return null;
+               });
+    }
+
+    /**
+     * Use the JWT in the file if another process has refreshed it already, otherwise retrieve a new one and write it to
+     * the file. The file is locked meanwhile, so only one process sends the request.
+     */
+    @Override
+    LinkedHashMap<String, String> retrieve(Supplier<LinkedHashMap<String, String>> retrieval)
+    {
+        return locked(() ->
+                      {
+                          LinkedHashMap<String, String> jwtMap = super.load();
+                          if (jwtMap != null && isFresh(jwtMap))
+                          {
+                              privacyIDEA.log("Using the JWT that was refreshed by another instance.");
+                              return jwtMap;
+                          }
+                          jwtMap = retrieval.get();
+                          if (jwtMap != null)
+                          {
+                              super.save(jwtMap);
+                          }
+                          return jwtMap;
+                      });
+    }
+
+    /**
+     * Must be called with the locks held.
+     */
+    @Override
+    byte[] read() throws IOException, GeneralSecurityException
+    {
+        int length = buffer.getInt(0);
+        if (length == 0)
+        {
+            return null;
+        }
+        if (length < 0 || length > SIZE - Integer.BYTES)
+        {
+            throw new IOException("Invalid length " + length);
+        }
+        byte[] data = new byte[length];
+        buffer.get(Integer.BYTES, data);
+        return file.decrypt(data);
+    }
+
+    /**
+     * Must be called with the locks held.
+     */
+    @Override
+    void write(byte[] plain) throws IOException, GeneralSecurityException
+    {
+        byte[] data = file.encrypt(plain);
+        if (data.length > SIZE - Integer.BYTES)
+        {
+            throw new IOException("The JWT is too large for the file");
+        }
+        buffer.put(Integer.BYTES, data);
+        buffer.putInt(0, data.length);
+    }
+
+    private <T> T locked(Supplier<T> action)
+    {
+        synchronized (processLock)
+        {
+            FileLock lock;
+            try
+            {
+                lock = channel.lock();
+            }
+            catch (IOException e)
+            {
+                privacyIDEA.error("Unable to lock " + file.path() + ": " + e.getMessage());
+                return null;
+            }
+            try
+            {
+                return action.get();
+            }
+            finally
+            {
+                try
+                {
+                    lock.release();
+                }
+                catch (IOException e)
+                {
+                    privacyIDEA.error("Unable to unlock " + file.path() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the channel of the mapped file.
+     */
+    void close()
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            privacyIDEA.error("Unable to close " + file.path() + ": " + e.getMessage());
+        }
+    }
+}
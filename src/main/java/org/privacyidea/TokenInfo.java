@@ -16,6 +16,7 @@
  */
 package org.privacyidea;
 
+import com.google.gson.JsonObject;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -48,5 +49,67 @@ public class TokenInfo
     public String userID = "";
     public String userRealm = "";
     public String username = "";
-    public String rawJson = "";
+    // The json of the token is only formatted if it is requested
+    private transient JsonObject source;
+    private String rawJson = "";
+
+    public TokenInfo()
+    {
+    }
+
+    TokenInfo(JsonObject source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * @return the json of the token as sent by the server
+     */
+    public synchronized String getRawJson()
+    {
+        if (source != null)
+        {
+            rawJson = source.toString();
+            source = null;
+        }
+        return rawJson;
+    }
+
+    /**
+     * @return a copy of this object that does not share the info and realms
+     */
+    synchronized TokenInfo copy()
+    {
+        TokenInfo copy = new TokenInfo(source);
+        copy.rawJson = rawJson;
+        copy.active = active;
+        copy.count = count;
+        copy.countWindow = countWindow;
+        copy.description = description;
+        copy.failCount = failCount;
+        copy.id = id;
+        copy.info.putAll(info);
+        copy.locked = locked;
+        copy.maxFail = maxFail;
+        copy.otpLen = otpLen;
+        copy.realms.addAll(realms);
+        copy.resolver = resolver;
+        copy.revoked = revoked;
+        copy.rolloutState = rolloutState;
+        copy.serial = serial;
+        copy.image = image;
+        copy.syncWindow = syncWindow;
+        copy.tokenType = tokenType;
+        copy.userEditable = userEditable;
+        copy.userID = userID;
+        copy.userRealm = userRealm;
+        copy.username = username;
+        return copy;
+    }
+
+    synchronized void setRawJson(String rawJson)
+    {
+        this.rawJson = rawJson;
+        this.source = null;
+    }
 }
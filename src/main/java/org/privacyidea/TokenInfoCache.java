@@ -0,0 +1,204 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache for the result of {@link PrivacyIDEA#getTokenInfo(String)}. Entries expire after a fixed time and the
+ * least recently used entry is evicted if the cache is full. The entries of a user are invalidated automatically when a
+ * token is enrolled for that user via the PrivacyIDEA instance. If the tokens are changed by other means, use
+ * {@link #invalidate(String)}.
+ * <p>
+ * Enable the cache with {@link PrivacyIDEA.Builder#tokenInfoCache(long, int)}.
+ */
+public class TokenInfoCache
+{
+    private final long ttlMs;
+    private final int maxSize;
+    private final Map<String, CachedTokenInfo> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Invalidations are numbered, so that a request that started before an invalidation does not put its result
+    private final Map<String, Long> invalidations;
+    private long generation = 0;
+    // Puts of requests that started before this generation are rejected, because their invalidation is not kept anymore
+    private long minGeneration = 0;
+
+    TokenInfoCache(long ttlMs, int maxSize)
+    {
+        this.ttlMs = ttlMs;
+        this.maxSize = Math.max(1, maxSize);
+        // Access order makes the map evict the least recently used entry first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedTokenInfo> eldest)
+            {
+                boolean evict = size() > TokenInfoCache.this.maxSize;
+                if (evict)
+                {
+                    evictions.incrementAndGet();
+                }
+                return evict;
+            }
+        };
+        this.invalidations = new LinkedHashMap<>()
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+            {
+                boolean remove = size() > TokenInfoCache.this.maxSize;
+                if (remove)
+                {
+                    minGeneration = Math.max(minGeneration, eldest.getValue());
+                }
+                return remove;
+            }
+        };
+    }
+
+    /**
+     * Get the cached token info of the user.
+     *
+     * @param username username
+     * @return copy of the cached token info or null if there is no valid entry
+     */
+    synchronized List<TokenInfo> get(String username)
+    {
+        CachedTokenInfo cached = entries.get(username);
+        if (cached == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (System.currentTimeMillis() >= cached.expiresAt)
+        {
+            entries.remove(username);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copy(cached.tokenInfos);
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put(String, List, long)} for a request started now
+     */
+    synchronized long generation()
+    {
+        return generation;
+    }
+
+    /**
+     * Put the result of a request into the cache, unless the entries of the user were invalidated after the request
+     * started.
+     *
+     * @param username   username
+     * @param tokenInfos result of the request
+     * @param generation result of {@link #generation()} before the request was sent
+     */
+    synchronized void put(String username, List<TokenInfo> tokenInfos, long generation)
+    {
+        if (generation < minGeneration || generation < invalidations.getOrDefault(username, 0L))
+        {
+            return;
+        }
+        entries.put(username, new CachedTokenInfo(copy(tokenInfos), System.currentTimeMillis() + ttlMs));
+    }
+
+    /**
+     * Remove the cached token info of the user, so that the next call to {@link PrivacyIDEA#getTokenInfo(String)} gets
+     * the current state from the server.
+     *
+     * @param username username
+     */
+    public synchronized void invalidate(String username)
+    {
+        entries.remove(username);
+        invalidations.remove(username);
+        invalidations.put(username, ++generation);
+    }
+
+    /**
+     * Remove all entries from the cache.
+     */
+    public synchronized void invalidateAll()
+    {
+        entries.clear();
+        invalidations.clear();
+        minGeneration = ++generation;
+    }
+
+    /**
+     * @return number of entries in the cache, including expired ones that have not been removed yet
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return number of lookups that were answered from the cache
+     */
+    public long hitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups that required a request to the server
+     */
+    public long missCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return number of entries that were removed because the cache was full
+     */
+    public long evictionCount()
+    {
+        return evictions.get();
+    }
+
+    // TokenInfo is mutable, so neither the caller that put the list nor the callers that get it share the cached objects
+    private static List<TokenInfo> copy(List<TokenInfo> tokenInfos)
+    {
+        List<TokenInfo> copy = new ArrayList<>(tokenInfos.size());
+        for (TokenInfo tokenInfo : tokenInfos)
+        {
+            copy.add(tokenInfo != null ? tokenInfo.copy() : null);
+        }
+        return copy;
+    }
+
+    private static class CachedTokenInfo
+    {
+        private final List<TokenInfo> tokenInfos;
+        private final long expiresAt;
+
+        private CachedTokenInfo(List<TokenInfo> tokenInfos, long expiresAt)
+        {
+            this.tokenInfos = tokenInfos;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
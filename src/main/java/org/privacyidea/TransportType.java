@@ -0,0 +1,31 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+/**
+ * The http client used to send the requests to the server, set with {@link PrivacyIDEA.Builder#transport(TransportType)}.
+ */
+public enum TransportType
+{
+    /**
+     * OkHttp, the default.
+     */
+    OKHTTP,
+    /**
+     * The {@link java.net.http.HttpClient} of the JDK. OkHttp, Okio and the Kotlin standard library are not loaded if
+     * this is used. Uses HTTP/2 if the server supports it.
+     */
+    JDK
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Shows the wire size of a large /token response with and without gzip, and the time to request and parse it. Not part
+ * of the unit tests, run it with: mvn -Pbenchmark test
+ */
+public class CompressedResponseBenchmark
+{
+    private static final int TOKENS = 500;
+    private ClientAndServer mockServer;
+    private PrivacyIDEA privacyIDEA;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                 .serviceAccount("admin", "admin")
+                                 .disableLog()
+                                 .verifySSL(false)
+                                 .logger(new PILogImplementation())
+                                 .build();
+    }
+
+    @After
+    public void teardown() throws IOException
+    {
+        privacyIDEA.close();
+        mockServer.stop();
+    }
+
+    @Test
+    public void testCompressedResponse() throws IOException
+    {
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_AUTH).withMethod("POST"))
+                  .respond(HttpResponse.response().withBody(Utils.postAuthSuccessResponse()));
+        String json = TestGetTokenInfo.tokenListResponse(TOKENS);
+        byte[] compressed = TestGetTokenInfo.gzip(json);
+        mockServer.when(HttpRequest.request()
+                                   .withMethod("GET")
+                                   .withPath(PIConstants.ENDPOINT_TOKEN)
+                                   .withHeader("Accept-Encoding", "gzip"))
+                  .respond(HttpResponse.response()
+                                       .withHeader(PIConstants.HEADER_CONTENT_ENCODING, "gzip")
+                                       .withBody(compressed));
+        // Warm up
+        privacyIDEA.getTokenInfo("Test");
+
+        long start = System.nanoTime();
+        List<TokenInfo> tokenInfoList = privacyIDEA.getTokenInfo("Test");
+        long nanos = System.nanoTime() - start;
+        assertEquals(TOKENS, tokenInfoList.size());
+
+        start = System.nanoTime();
+        privacyIDEA.parser.parseTokenInfoList(json);
+        long parseNanos = System.nanoTime() - start;
+        System.out.println("/token response with " + TOKENS + " tokens: " + json.getBytes(StandardCharsets.UTF_8).length +
+                           " bytes, " + compressed.length + " bytes compressed. Request and parse " + nanos / 1000 +
+                           " µs, parse only " + parseNanos / 1000 + " µs");
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shows the latency of the first request of a new instance with and without warm-up of the connections. Not part of the
+ * unit tests, run it with: mvn -Pbenchmark test
+ */
+public class ConnectionWarmUpBenchmark
+{
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response().withBody(Utils.matchingOneToken()));
+        mockServer.when(HttpRequest.request().withMethod("HEAD").withPath("/")).respond(HttpResponse.response());
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testFirstRequestLatency() throws IOException
+    {
+        // Load the classes first, so that only the connection setup is measured
+        firstRequestNanos(build(0));
+
+        long cold = firstRequestNanos(build(0));
+        long warm = firstRequestNanos(build(2));
+        System.out.println("First request latency: " + cold / 1000 + " µs without warm-up, " + warm / 1000 + " µs with warm-up");
+    }
+
+    private static long firstRequestNanos(PrivacyIDEA privacyIDEA) throws IOException
+    {
+        long start = System.nanoTime();
+        assertTrue(privacyIDEA.validateCheck("Test", "123456").value);
+        long nanos = System.nanoTime() - start;
+        privacyIDEA.close();
+        return nanos;
+    }
+
+    private static PrivacyIDEA build(int connections)
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                          .verifySSL(false)
+                          .disableLog()
+                          .prewarmConnections(connections)
+                          .logger(new PILogImplementation())
+                          .build();
+    }
+}
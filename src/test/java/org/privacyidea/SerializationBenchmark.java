@@ -0,0 +1,81 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Shows the time for a JSON round trip of a PIResponse with the hand-written type adapters and with the reflection based
+ * serialization that was used before. Not part of the unit tests, run it with: mvn -Pbenchmark test
+ */
+public class SerializationBenchmark
+{
+    private static final int ITERATIONS = 5000;
+    private PrivacyIDEA privacyIDEA;
+    private PIResponse response;
+
+    @Before
+    public void setup()
+    {
+        privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                 .verifySSL(false)
+                                 .logger(new PILogImplementation())
+                                 .build();
+        response = new JSONParser(privacyIDEA).parsePIResponse(Utils.pollGetChallenges());
+    }
+
+    @After
+    public void teardown() throws IOException
+    {
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testAdapterThroughput()
+    {
+        Gson reflection = new Gson();
+        // Warm up
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            reflection.fromJson(reflection.toJson(response), PIResponse.class);
+            PIResponse.fromJSON(response.toCompactJSON());
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            reflection.fromJson(reflection.toJson(response), PIResponse.class);
+        }
+        long reflectionNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        PIResponse decoded = null;
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            decoded = PIResponse.fromJSON(response.toCompactJSON());
+        }
+        long adapterNanos = System.nanoTime() - start;
+
+        assertEquals(response.toCompactJSON(), decoded.toCompactJSON());
+        System.out.println("Reflection: " + reflectionNanos / ITERATIONS + " ns per round trip, type adapters: " +
+                           adapterNanos / ITERATIONS + " ns per round trip");
+    }
+}
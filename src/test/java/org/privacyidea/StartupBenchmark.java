@@ -0,0 +1,86 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shows the cost of creating an instance and the time until its first validateCheck completed. Not part of the unit
+ * tests, run it with: mvn -Pbenchmark test
+ */
+public class StartupBenchmark
+{
+    private static final int INSTANCES = 200;
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response().withBody(Utils.matchingOneToken()));
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testStartupTime() throws IOException
+    {
+        // Load the classes first, so that only the instance creation is measured
+        try (PrivacyIDEA first = build())
+        {
+            assertTrue(first.validateCheck("Test", "123456").value);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < INSTANCES; i++)
+        {
+            build().close();
+        }
+        long creationNanos = (System.nanoTime() - start) / INSTANCES;
+
+        start = System.nanoTime();
+        long firstRequestNanos;
+        try (PrivacyIDEA privacyIDEA = build())
+        {
+            assertTrue(privacyIDEA.validateCheck("Test", "123456").value);
+            firstRequestNanos = System.nanoTime() - start;
+        }
+
+        System.out.println("Instance creation: " + creationNanos / 1000 + " µs, time to first validateCheck: " +
+                           firstRequestNanos / 1000 + " µs");
+    }
+
+    private static PrivacyIDEA build()
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                          .verifySSL(false)
+                          .disableLog()
+                          .logger(new PILogImplementation())
+                          .build();
+    }
+}
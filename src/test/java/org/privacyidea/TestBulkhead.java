@@ -0,0 +1,150 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestBulkhead
+{
+    private static final int ADMIN_DELAY_MS = 200;
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_AUTH))
+                  .respond(HttpResponse.response().withBody(Utils.postAuthSuccessResponse()));
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_TOKEN))
+                  .respond(HttpResponse.response()
+                                       .withBody(Utils.getTokenResponse())
+                                       .withDelay(TimeUnit.MILLISECONDS, ADMIN_DELAY_MS));
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response()
+                                       .withBody(Utils.matchingOneToken())
+                                       .withDelay(TimeUnit.MILLISECONDS, 5));
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testRequestClass()
+    {
+        assertEquals(RequestClass.AUTH, RequestClass.of(PIConstants.ENDPOINT_AUTH));
+        assertEquals(RequestClass.POLL, RequestClass.of(PIConstants.ENDPOINT_POLLTRANSACTION));
+        assertEquals(RequestClass.ADMIN, RequestClass.of(PIConstants.ENDPOINT_TOKEN));
+        assertEquals(RequestClass.ADMIN, RequestClass.of(PIConstants.ENDPOINT_TOKEN_INIT));
+        assertEquals(RequestClass.VALIDATE, RequestClass.of(PIConstants.ENDPOINT_VALIDATE_CHECK));
+        assertEquals(RequestClass.VALIDATE, RequestClass.of(PIConstants.ENDPOINT_TRIGGERCHALLENGE));
+        assertEquals(RequestClass.VALIDATE, RequestClass.of(PIConstants.ENDPOINT_VALIDATE_INITIALIZE));
+    }
+
+    /**
+     * 40 token listings that take 200ms each saturate the client. Without a bulkhead, the logins wait behind them. With
+     * a bulkhead for the token management, the logins are not delayed.
+     */
+    @Test
+    public void testAdminLoadDoesNotDelayLogins() throws Exception
+    {
+        long shared = loginLatencyUnderAdminLoad(build());
+        long isolated = loginLatencyUnderAdminLoad(build().bulkhead(RequestClass.ADMIN, 4, 100));
+        assertTrue("Average login latency " + isolated + "ms with a bulkhead", isolated < ADMIN_DELAY_MS / 2);
+        assertTrue("Average login latency " + shared + "ms with the shared pool", shared > ADMIN_DELAY_MS);
+    }
+
+    @Test
+    public void testFullBulkheadRejects() throws Exception
+    {
+        PrivacyIDEA privacyIDEA = build().bulkhead(RequestClass.ADMIN, 1, 0).build();
+        privacyIDEA.getJWT();
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        Future<List<TokenInfo>> first = clients.submit(() -> privacyIDEA.getTokenInfo("Test"));
+        // The first listing occupies the only thread of the bulkhead until the server answers
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mockServer.retrieveRecordedRequests(HttpRequest.request().withPath(PIConstants.ENDPOINT_TOKEN)).length == 0)
+        {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        assertNull(privacyIDEA.getTokenInfo("Test"));
+        assertNotNull(first.get());
+
+        // Other classes use the shared pool
+        assertTrue(privacyIDEA.validateCheck("Test", "123456").value);
+        assertTrue(threadExists("privacyidea-admin-"));
+        clients.shutdown();
+        privacyIDEA.close();
+    }
+
+    private long loginLatencyUnderAdminLoad(PrivacyIDEA.Builder builder) throws Exception
+    {
+        PrivacyIDEA privacyIDEA = builder.build();
+        privacyIDEA.getJWT();
+        ExecutorService admin = Executors.newFixedThreadPool(40);
+        List<Future<List<TokenInfo>>> listings = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+        {
+            listings.add(admin.submit(() -> privacyIDEA.getTokenInfo("Test")));
+        }
+        Thread.sleep(50);
+        long total = 0;
+        for (int i = 0; i < 5; i++)
+        {
+            long start = System.nanoTime();
+            assertTrue(privacyIDEA.validateCheck("Test", "123456").value);
+            total += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        for (Future<List<TokenInfo>> listing : listings)
+        {
+            assertNotNull(listing.get());
+        }
+        admin.shutdown();
+        privacyIDEA.close();
+        return total / 5;
+    }
+
+    private static boolean threadExists(String prefix)
+    {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().startsWith(prefix));
+    }
+
+    private PrivacyIDEA.Builder build()
+    {
+        return PrivacyIDEA.newBuilder("http://127.0.0.1:1080", "test")
+                          .serviceAccount("admin", "admin")
+                          .disableLog()
+                          .logger(new PILogImplementation());
+    }
+}
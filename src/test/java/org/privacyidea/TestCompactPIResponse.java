@@ -0,0 +1,133 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class TestCompactPIResponse
+{
+    private JSONParser parser;
+
+    @Before
+    public void setup()
+    {
+        PrivacyIDEA privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                             .verifySSL(false)
+                                             .logger(new PILogImplementation())
+                                             .build();
+        parser = new JSONParser(privacyIDEA);
+    }
+
+    @Test
+    public void testConversion()
+    {
+        PIResponse response = parser.parsePIResponse(Utils.pollGetChallenges());
+        CompactPIResponse compact = CompactPIResponse.from(response);
+
+        assertEquals(response.transactionID, compact.transactionID());
+        assertEquals(response.preferredClientMode, compact.preferredClientMode());
+        assertEquals(response.messages, compact.messages());
+        assertEquals(response.multiChallenge.size(), compact.multiChallenge().size());
+        assertEquals(response.pushAvailable(), compact.pushAvailable());
+        assertEquals(response.otpTransactionId(), compact.otpTransactionId());
+        assertEquals(response.pushTransactionId(), compact.pushTransactionId());
+        assertEquals(response.hasChallenges(), compact.hasChallenges());
+        assertEquals(response.authenticationSuccessful(), compact.authenticationSuccessful());
+        assertEquals(response.status, compact.status());
+        assertEquals(response.value, compact.value());
+        // Well known values share one instance
+        assertSame("push", compact.preferredClientMode());
+        assertSame("hotp", compact.multiChallenge().get(0).getType());
+
+        PIResponse converted = compact.toPIResponse();
+        assertEquals(response.transactionID, converted.transactionID);
+        assertEquals(response.authentication, converted.authentication);
+        assertEquals(response.triggeredTokenTypes(), converted.triggeredTokenTypes());
+        assertEquals(response.pushMessage(), converted.pushMessage());
+        assertEquals("", converted.rawMessage);
+
+        assertNull(CompactPIResponse.from(null));
+    }
+
+    @Test
+    public void testImmutable()
+    {
+        CompactPIResponse compact = CompactPIResponse.from(parser.parsePIResponse(Utils.foundMatchingChallenge()));
+        assertTrue(compact.authenticationSuccessful());
+        assertFalse(compact.hasChallenges());
+        try
+        {
+            compact.multiChallenge().add(new Challenge("", "", "", "", "", ""));
+        }
+        catch (UnsupportedOperationException e)
+        {
+            return;
+        }
+        throw new AssertionError("Challenges of CompactPIResponse must not be modifiable");
+    }
+
+    @Test
+    public void testAttributesImmutable()
+    {
+        PIResponse response = parser.parsePIResponse(Utils.pollGetChallenges());
+        response.multiChallenge.get(0).getAttributes().put("key", "value");
+        response.multiChallenge.get(0).getAttributes().put("empty", null);
+        CompactPIResponse compact = CompactPIResponse.from(response);
+        Challenge challenge = compact.multiChallenge().get(0);
+        assertEquals("value", challenge.getAttributes().get("key"));
+        assertTrue(challenge.getAttributes().containsKey("empty"));
+        assertNull(challenge.getAttributes().get("empty"));
+        assertThrows(UnsupportedOperationException.class, () -> challenge.getAttributes().put("key", "other"));
+
+        // The converted response has its own, modifiable challenges
+        PIResponse converted = compact.toPIResponse();
+        converted.multiChallenge.get(0).getAttributes().put("key", "other");
+        assertEquals("value", challenge.getAttributes().get("key"));
+    }
+
+    @Test
+    public void testRetainedSize()
+    {
+        List<PIResponse> responses = new ArrayList<>();
+        List<CompactPIResponse> compactResponses = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            PIResponse response = parser.parsePIResponse(Utils.pollGetChallenges());
+            responses.add(response);
+            compactResponses.add(CompactPIResponse.from(response));
+        }
+
+        long fullSize = GraphLayout.parseInstance(responses.toArray()).totalSize();
+        long compactSize = GraphLayout.parseInstance(compactResponses.toArray()).totalSize();
+        assertTrue(compactSize < fullSize);
+
+        // At least a quarter smaller even without the raw message, which the compact representation does not keep
+        responses.forEach(r -> r.rawMessage = "");
+        long fullSizeWithoutRaw = GraphLayout.parseInstance(responses.toArray()).totalSize();
+        assertTrue(compactSize + " bytes is not a quarter less than " + fullSizeWithoutRaw + " bytes",
+                   compactSize * 4 < fullSizeWithoutRaw * 3);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestConcurrencyLimiter
+{
+    private static final long MS = 1_000_000L;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong latencyMs = new AtomicLong();
+
+    @Before
+    public void setup() throws IOException
+    {
+        // Simulated server that becomes slower with more concurrent requests: 10ms, plus 5ms for each request above 5
+        // Without TCP_NODELAY, the response is delayed by the delayed ACK of the client
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 200);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange ->
+        {
+            int concurrent = active.incrementAndGet();
+            try (InputStream in = exchange.getRequestBody())
+            {
+                in.readAllBytes();
+                long delay = 10 + 5L * Math.max(0, concurrent - 5);
+                Thread.sleep(delay);
+                requests.incrementAndGet();
+                latencyMs.addAndGet(delay);
+                byte[] response = Utils.matchingOneToken().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    out.write(response);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                active.decrementAndGet();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void teardown()
+    {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testIncreaseWhileLatencyIsLow() throws InterruptedException
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 10, 0);
+        for (int round = 0; round < 100; round++)
+        {
+            int limit = limiter.limit();
+            for (int i = 0; i < limit; i++)
+            {
+                assertTrue(limiter.acquire());
+            }
+            for (int i = 0; i < limit; i++)
+            {
+                limiter.release(System.nanoTime() - MS, false);
+            }
+        }
+        assertEquals(10, limiter.limit());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    public void testNoIncreaseIfLimitIsNotUsed() throws InterruptedException
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 100, 0);
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(limiter.acquire());
+            limiter.release(System.nanoTime() - MS, false);
+        }
+        assertEquals(10, limiter.limit());
+    }
+
+    @Test
+    public void testDecreaseOncePerRoundTrip() throws InterruptedException
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 20, 0);
+        acquireAndRelease(limiter, MS, false);
+        assertEquals(1.0, limiter.baselineLatencyMs(), 0.5);
+
+        // Both requests were started before the first decrease
+        long start = System.nanoTime() - 10 * MS;
+        assertTrue(limiter.acquire());
+        assertTrue(limiter.acquire());
+        limiter.release(start, false);
+        assertEquals(18, limiter.limit());
+        limiter.release(start, false);
+        assertEquals(18, limiter.limit());
+
+        // A request started after the decrease lowers the limit again, a failed one as well
+        Thread.sleep(1);
+        acquireAndRelease(limiter, 0, true);
+        assertEquals(16, limiter.limit());
+    }
+
+    @Test
+    public void testRejectAfterMaxWait() throws InterruptedException
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 50);
+        assertTrue(limiter.acquire());
+        long start = System.nanoTime();
+        assertFalse(limiter.acquire());
+        assertTrue(System.nanoTime() - start >= 50 * MS);
+        assertEquals(1, limiter.rejectedCount());
+
+        // A waiting request gets the slot as soon as it is released
+        Thread releaser = new Thread(() -> limiter.release(System.nanoTime(), false));
+        releaser.start();
+        assertTrue(limiter.acquire());
+        releaser.join();
+        assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    public void testRequestRejected() throws Exception
+    {
+        PrivacyIDEA privacyIDEA = build().concurrencyLimit(1, 1, 10).build();
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        List<Future<PIResponse>> futures = new ArrayList<>();
+        // The server answers after 85ms, longer than the second request waits for a slot
+        active.set(19);
+        for (int i = 0; i < 2; i++)
+        {
+            futures.add(clients.submit(() -> privacyIDEA.validateCheck("Test", "123456")));
+        }
+        int rejected = 0;
+        for (Future<PIResponse> future : futures)
+        {
+            if (future.get() == null)
+            {
+                rejected++;
+            }
+        }
+        clients.shutdown();
+        privacyIDEA.close();
+        assertEquals(1, rejected);
+        assertEquals(1, privacyIDEA.concurrencyLimiter().rejectedCount());
+        assertNull(build().build().concurrencyLimiter());
+    }
+
+    /**
+     * 60 clients send requests for two seconds. Without the limiter, the 20 threads of the pool overload the simulated
+     * server. With the limiter, the limit stays where the latency is close to the latency without load, although up to
+     * 100 requests are allowed. The JDK client is used without the limiter, because OkHttp limits the requests per host
+     * to 5 by default.
+     */
+    @Test
+    public void testLimitAdaptsToServerLatency() throws Exception
+    {
+        double unlimited = averageLatency(build().transport(TransportType.JDK).build());
+        PrivacyIDEA privacyIDEA = build().concurrencyLimit(5, 100, 10000).build();
+        double limited = averageLatency(privacyIDEA);
+        ConcurrencyLimiter limiter = privacyIDEA.concurrencyLimiter();
+        assertTrue("limit " + limiter.limit(), limiter.limit() < 20);
+        assertTrue(limited + "ms with limiter, " + unlimited + "ms without", limited < unlimited);
+        assertEquals(0, limiter.rejectedCount());
+    }
+
+    private double averageLatency(PrivacyIDEA privacyIDEA) throws Exception
+    {
+        ExecutorService clients = Executors.newFixedThreadPool(60);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 60; i++)
+        {
+            futures.add(clients.submit(() ->
+                                       {
+                                           while (System.nanoTime() < end)
+                                           {
+                                               assertTrue(privacyIDEA.validateCheck("Test", "123456").value);
+                                           }
+                                           return null;
+                                       }));
+        }
+        // Only measure the second half, after the limit adapted
+        Thread.sleep(1000);
+        requests.set(0);
+        latencyMs.set(0);
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+        clients.shutdown();
+        privacyIDEA.close();
+        return (double) latencyMs.get() / requests.get();
+    }
+
+    private static void acquireAndRelease(ConcurrencyLimiter limiter, long rttNanos, boolean dropped) throws InterruptedException
+    {
+        assertTrue(limiter.acquire());
+        limiter.release(System.nanoTime() - rttNanos, dropped);
+    }
+
+    private PrivacyIDEA.Builder build()
+    {
+        return PrivacyIDEA.newBuilder("http://127.0.0.1:" + server.getAddress().getPort(), "test")
+                          .disableLog()
+                          .logger(new PILogImplementation());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestConnectionWarmUp
+{
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response().withBody(Utils.matchingOneToken()));
+        mockServer.when(HttpRequest.request().withMethod("HEAD").withPath("/")).respond(HttpResponse.response());
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testPrewarm() throws IOException
+    {
+        PrivacyIDEA privacyIDEA = build(3);
+        assertTrue(privacyIDEA.endpoint().connectionCount() > 0);
+        assertEquals(3, mockServer.retrieveRecordedRequests(HttpRequest.request().withMethod("HEAD").withPath("/")).length);
+        assertTrue(privacyIDEA.validateCheck("Test", "123456").value);
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testPrewarmUnreachableServer() throws IOException
+    {
+        // The instance is built even if the warm-up fails
+        PrivacyIDEA privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1", "test")
+                                             .verifySSL(false)
+                                             .httpTimeoutMs(1000)
+                                             .prewarmConnections(2)
+                                             .logger(new PILogImplementation())
+                                             .build();
+        assertEquals(0, privacyIDEA.endpoint().connectionCount());
+        privacyIDEA.close();
+    }
+
+    private PrivacyIDEA build(int connections)
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                          .verifySSL(false)
+                          .disableLog()
+                          .prewarmConnections(connections)
+                          .logger(new PILogImplementation())
+                          .build();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okhttp3.FormBody;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestEndpoint
+{
+    private PrivacyIDEA privacyIDEA;
+    private OkHttpTransport endpoint;
+
+    @Before
+    public void setup()
+    {
+        privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test-ua")
+                                 .verifySSL(false)
+                                 .disableLog()
+                                 .logger(new PILogImplementation())
+                                 .build();
+        endpoint = new OkHttpTransport(privacyIDEA);
+    }
+
+    @After
+    public void teardown() throws Exception
+    {
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testBuildRequest()
+    {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("user", "Test User");
+        params.put("realm", "a&b");
+        Request get = endpoint.buildRequest(PIConstants.ENDPOINT_TOKEN, params, Collections.emptyMap(), PIConstants.GET);
+        assertEquals("https://127.0.0.1:1080/token/?user=Test%2BUser&realm=a%2526b", get.url().toString());
+        assertEquals("test-ua", get.header(PIConstants.HEADER_USER_AGENT));
+        assertEquals(1, get.headers().size());
+
+        // The url of the endpoint is reused, the parameters are not
+        Request second = endpoint.buildRequest(PIConstants.ENDPOINT_TOKEN, Collections.singletonMap("user", "other"),
+                                               Collections.emptyMap(), PIConstants.GET);
+        assertEquals("https://127.0.0.1:1080/token/?user=other", second.url().toString());
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("user-agent", "flow-ua");
+        headers.put("Authorization", "jwt");
+        Request post = endpoint.buildRequest(PIConstants.ENDPOINT_VALIDATE_CHECK, params, headers, PIConstants.POST);
+        assertEquals("https://127.0.0.1:1080/validate/check", post.url().toString());
+        assertEquals(Collections.singletonList("flow-ua"), post.headers(PIConstants.HEADER_USER_AGENT));
+        assertEquals("jwt", post.header("Authorization"));
+        assertEquals("POST", post.method());
+    }
+
+    @Test
+    public void testInvalidUrl()
+    {
+        PrivacyIDEA invalid = PrivacyIDEA.newBuilder("not a url", "test-ua").disableLog().logger(new PILogImplementation()).build();
+        assertNull(new OkHttpTransport(invalid).buildRequest(PIConstants.ENDPOINT_VALIDATE_CHECK, Collections.emptyMap(), null,
+                                                      PIConstants.POST));
+    }
+
+    @Test
+    public void testFormBodyMatchesPreviousWireFormat() throws IOException
+    {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("user", "Test User");
+        params.put("pass", "p@ss wörd+%&=~");
+        params.put("realm", "def realm");
+        params.put(PIConstants.TRANSACTION_ID, "16786665691788289392");
+        params.put(PIConstants.CREDENTIALID, "83De8z_CNqogB6aCyKs6dWIqwpOpzVoNaJ74lgcpuYN7l-95QsD3z-qqPADqsFlPwBXCMqEPssq75kqHCMQHDA");
+        params.put(PIConstants.CLIENTDATA, "eyJjaGFsbGVuZ2UiOiJkSHpTbVpuQWh4RXEwc3pSV01ZNEVHZzhxZ2plQmhKRGpBUFlLV2ZkMklFIn0=");
+        params.put(PIConstants.SIGNATUREDATA, "MEUCIQDNrG+fxF4n/nLUExr3vAzLg1a2JDqT2yqEUKBKzWxX8gIgR+9v/8FQ==");
+        params.put(PIConstants.ASSERTIONCLIENTEXTENSIONS, "{\"appid\": false}");
+        Request request = endpoint.buildRequest(PIConstants.ENDPOINT_VALIDATE_CHECK, params, null, PIConstants.POST);
+        assertBodyEquals(previousFormBody(params), request.body());
+
+        // Every character of the BMP, a supplementary character and unpaired surrogates, encoded twice and once
+        StringBuilder sb = new StringBuilder();
+        for (char c = 0; c < Character.MIN_SURROGATE; c++)
+        {
+            sb.append(c);
+        }
+        for (char c = (char) (Character.MAX_SURROGATE + 1); c < Character.MAX_VALUE; c++)
+        {
+            sb.append(c);
+        }
+        sb.append("\uD83D\uDE00").append('\uD83D').append("x").append('\uDE00');
+        Map<String, String> all = new LinkedHashMap<>();
+        all.put("pass", sb.toString());
+        all.put(PIConstants.ATTESTATION_OBJECT, sb.toString());
+        FormRequestBody body = new FormRequestBody().add("pass", sb.toString()).addEncoded(PIConstants.ATTESTATION_OBJECT, sb.toString());
+        assertBodyEquals(previousFormBody(all), body);
+
+        assertBodyEquals(new FormBody.Builder().build(), new FormRequestBody());
+    }
+
+    /**
+     * The form body as it was created before FormRequestBody.
+     */
+    private static RequestBody previousFormBody(Map<String, String> params)
+    {
+        FormBody.Builder formBodyBuilder = new FormBody.Builder();
+        params.forEach((key, value) ->
+                       {
+                           String encValue = value;
+                           if (!PIConstants.WEBAUTHN_PARAMETERS.contains(key))
+                           {
+                               encValue = URLEncoder.encode(value, StandardCharsets.UTF_8);
+                           }
+                           formBodyBuilder.add(key, encValue);
+                       });
+        return formBodyBuilder.build();
+    }
+
+    private static void assertBodyEquals(RequestBody expected, RequestBody actual) throws IOException
+    {
+        Buffer expectedBuffer = new Buffer();
+        expected.writeTo(expectedBuffer);
+        Buffer actualBuffer = new Buffer();
+        actual.writeTo(actualBuffer);
+        assertEquals(expectedBuffer.readByteString(), actualBuffer.readByteString());
+        assertEquals(expected.contentLength(), actual.contentLength());
+        assertEquals(expected.contentType(), actual.contentType());
+    }
+}
@@ -16,14 +16,20 @@
  */
 package org.privacyidea;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockserver.integration.ClientAndServer;
 import org.mockserver.model.HttpRequest;
 import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -98,10 +104,152 @@ public class TestGetTokenInfo
         assertEquals("5", tokenInfo.userID);
         assertEquals("defrealm", tokenInfo.userRealm);
         assertEquals("Test", tokenInfo.username);
+        assertEquals("sha1", tokenInfo.info.get("hashlib"));
+        assertEquals(5, tokenInfo.info.size());
+        assertEquals(Collections.singletonList("defrealm"), tokenInfo.realms);
+        assertTrue(tokenInfo.getRawJson().startsWith("{\"active\":true"));
+        assertTrue(tokenInfo.getRawJson().endsWith("\"username\":\"Test\"}"));
 
         assertEquals(authToken, privacyIDEA.getJWT());
     }
 
+    @Test
+    public void testCache()
+    {
+        mockServer.when(HttpRequest.request()
+                                   .withPath(PIConstants.ENDPOINT_AUTH)
+                                   .withMethod("POST")
+                                   .withBody("username=" + serviceAccount + "&password=" + servicePassword + "&realm=" + serviceRealm))
+                  .respond(HttpResponse.response()
+                                       .withBody(Utils.postAuthSuccessResponse()));
+
+        privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                 .serviceAccount(serviceAccount, servicePassword)
+                                 .serviceRealm(serviceRealm)
+                                 .tokenInfoCache(60000, 10)
+                                 .verifySSL(false)
+                                 .logger(new PILogImplementation())
+                                 .build();
+
+        HttpRequest tokenRequest = HttpRequest.request()
+                                              .withMethod("GET")
+                                              .withQueryStringParameter("user", username)
+                                              .withPath(PIConstants.ENDPOINT_TOKEN);
+        mockServer.when(tokenRequest).respond(HttpResponse.response().withBody(Utils.getTokenResponse()));
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_TOKEN_INIT).withMethod("POST"))
+                  .respond(HttpResponse.response().withBody(Utils.rolloutSuccess()));
+
+        List<TokenInfo> first = privacyIDEA.getTokenInfo(username);
+        List<TokenInfo> second = privacyIDEA.getTokenInfo(username);
+        assertNotNull(first);
+        assertEquals(1, second.size());
+        assertEquals("OATH00123564", second.get(0).serial);
+        mockServer.verify(tokenRequest, VerificationTimes.exactly(1));
+
+        // The callers get their own objects, changing them does not change the cached entry
+        first.get(0).serial = "changed";
+        second.get(0).realms.clear();
+        TokenInfo third = privacyIDEA.getTokenInfo(username).get(0);
+        assertEquals("OATH00123564", third.serial);
+        assertFalse(third.realms.isEmpty());
+        assertEquals(second.get(0).getRawJson(), third.getRawJson());
+
+        TokenInfoCache cache = privacyIDEA.tokenInfoCache();
+        assertNotNull(cache);
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+
+        // Enrolling a token for the user invalidates the cached entry
+        privacyIDEA.tokenRollout(username, "hotp");
+        assertEquals(0, cache.size());
+        privacyIDEA.getTokenInfo(username);
+        mockServer.verify(tokenRequest, VerificationTimes.exactly(2));
+
+        cache.invalidate(username);
+        privacyIDEA.getTokenInfo(username);
+        mockServer.verify(tokenRequest, VerificationTimes.exactly(3));
+        assertEquals(3, cache.missCount());
+    }
+
+    @Test
+    public void testCacheEviction() throws InterruptedException
+    {
+        TokenInfoCache cache = new TokenInfoCache(200, 2);
+        cache.put("a", new ArrayList<>(), cache.generation());
+        cache.put("b", new ArrayList<>(), cache.generation());
+        // Access "a" so that "b" is the least recently used entry
+        assertNotNull(cache.get("a"));
+        cache.put("c", new ArrayList<>(), cache.generation());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+
+        Thread.sleep(300);
+        assertNull(cache.get("a"));
+        assertNull(cache.get("c"));
+    }
+
+    @Test
+    public void testInvalidatedDuringRequest()
+    {
+        TokenInfoCache cache = new TokenInfoCache(60_000, 2);
+        // A request for "a" starts, then the tokens of "a" change
+        long generation = cache.generation();
+        cache.invalidate("a");
+        cache.put("a", new ArrayList<>(), generation);
+        assertNull(cache.get("a"));
+        // Other users are not affected
+        cache.put("b", new ArrayList<>(), generation);
+        assertNotNull(cache.get("b"));
+
+        // More invalidations than entries, so the one of "a" is not kept
+        generation = cache.generation();
+        cache.invalidate("a");
+        cache.invalidate("x");
+        cache.invalidate("y");
+        cache.put("a", new ArrayList<>(), generation);
+        assertNull(cache.get("a"));
+        cache.put("a", new ArrayList<>(), cache.generation());
+        assertNotNull(cache.get("a"));
+
+        generation = cache.generation();
+        cache.invalidateAll();
+        cache.put("b", new ArrayList<>(), generation);
+        assertNull(cache.get("b"));
+    }
+
+    /**
+     * A large /token response is compressed by the server.
+     */
+    @Test
+    public void testCompressedResponse() throws IOException
+    {
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_AUTH).withMethod("POST"))
+                  .respond(HttpResponse.response().withBody(Utils.postAuthSuccessResponse()));
+
+        int count = 500;
+        mockServer.when(HttpRequest.request()
+                                   .withMethod("GET")
+                                   .withPath(PIConstants.ENDPOINT_TOKEN)
+                                   .withHeader("Accept-Encoding", "gzip"))
+                  .respond(HttpResponse.response()
+                                       .withHeader(PIConstants.HEADER_CONTENT_ENCODING, "gzip")
+                                       .withBody(gzip(tokenListResponse(count))));
+
+        privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                 .serviceAccount(serviceAccount, servicePassword)
+                                 .disableLog()
+                                 .verifySSL(false)
+                                 .logger(new PILogImplementation())
+                                 .build();
+
+        // The mock only answers requests that accept gzip
+        List<TokenInfo> tokenInfoList = privacyIDEA.getTokenInfo(username);
+        assertEquals(count, tokenInfoList.size());
+        assertEquals("OATH00000499", tokenInfoList.get(count - 1).serial);
+    }
+
     @Test
     public void testForNoToken()
     {
@@ -146,8 +294,42 @@ public class TestGetTokenInfo
     }
 
     @After
-    public void teardown()
+    public void teardown() throws IOException
     {
+        // Stop the background JWT retrieval of the instance
+        if (privacyIDEA != null)
+        {
+            privacyIDEA.close();
+        }
         mockServer.stop();
     }
-}
\ No newline at end of file
+
+    /**
+     * @param count number of tokens
+     * @return response of /token with the given number of HOTP tokens
+     */
+    static String tokenListResponse(int count)
+    {
+        StringBuilder tokens = new StringBuilder();
+        String token = "{\"active\":true,\"count\":2,\"description\":\"\",\"id\":%d,\"image\":\"data:image/png;base64," +
+                       "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNkYPhfDwAChwGA60e6kgAAAABJRU5ErkJggg==\"," +
+                       "\"info\":{\"hashlib\":\"sha1\",\"tokenkind\":\"software\"},\"maxfail\":10,\"otplen\":6," +
+                       "\"realms\":[\"defrealm\"],\"serial\":\"OATH%08d\",\"tokentype\":\"hotp\",\"username\":\"Test\"}";
+        for (int i = 0; i < count; i++)
+        {
+            tokens.append(i > 0 ? "," : "").append(String.format(token, i, i));
+        }
+        return "{\"id\":1,\"jsonrpc\":\"2.0\",\"result\":{\"status\":true,\"value\":{\"count\":" + count +
+               ",\"current\":1,\"tokens\":[" + tokens + "]}},\"versionnumber\":\"3.11\"}";
+    }
+
+    static byte[] gzip(String content) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed))
+        {
+            gzip.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+}
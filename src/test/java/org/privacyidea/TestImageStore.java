@@ -0,0 +1,88 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestImageStore
+{
+    private PrivacyIDEA privacyIDEA;
+
+    @Before
+    public void setup()
+    {
+        privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                 .verifySSL(false)
+                                 .imageStore(10)
+                                 .logger(new PILogImplementation())
+                                 .build();
+    }
+
+    @Test
+    public void testImagesAreShared()
+    {
+        PIResponse first = privacyIDEA.parser.parsePIResponse(Utils.pollGetChallenges());
+        PIResponse second = privacyIDEA.parser.parsePIResponse(Utils.pollGetChallenges());
+
+        Challenge firstPush = first.multiChallenge.stream().filter(c -> "push".equals(c.getType())).findFirst().orElseThrow();
+        Challenge secondPush = second.multiChallenge.stream().filter(c -> "push".equals(c.getType())).findFirst().orElseThrow();
+        assertNotSame(firstPush, secondPush);
+        assertSame(firstPush.image, secondPush.image);
+        assertEquals(1, privacyIDEA.imageStore().size());
+
+        RolloutInfo firstRollout = privacyIDEA.parser.parseRolloutInfo(Utils.rolloutSuccess());
+        RolloutInfo secondRollout = privacyIDEA.parser.parseRolloutInfo(Utils.rolloutSuccess());
+        assertSame(firstRollout.googleurl.img, secondRollout.googleurl.img);
+    }
+
+    @Test
+    public void testReference()
+    {
+        String png = "data:image/png;base64," +
+                     Base64.getEncoder().encodeToString("png".getBytes(StandardCharsets.UTF_8));
+        ImageStore imageStore = privacyIDEA.imageStore();
+
+        String reference = imageStore.reference(png);
+        assertEquals(64, reference.length());
+        assertEquals(reference, imageStore.reference(new String(png.toCharArray())));
+        assertSame(png, imageStore.get(reference));
+        assertEquals("image/png", imageStore.contentType(reference));
+        assertArrayEquals("png".getBytes(StandardCharsets.UTF_8), imageStore.bytes(reference));
+
+        assertEquals("", imageStore.reference(""));
+        assertNull(imageStore.get("unknown"));
+        assertNull(imageStore.bytes("unknown"));
+    }
+
+    @Test
+    public void testEviction()
+    {
+        ImageStore imageStore = new ImageStore(2);
+        String a = imageStore.reference("a");
+        imageStore.reference("b");
+        imageStore.reference("c");
+        assertEquals(2, imageStore.size());
+        assertNull(imageStore.get(a));
+    }
+}
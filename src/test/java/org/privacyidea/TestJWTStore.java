@@ -0,0 +1,199 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class TestJWTStore
+{
+    private final byte[] key = new byte[32];
+    private ClientAndServer mockServer;
+    private Path dir;
+    private Path file;
+    private long validityMs = 3_600_000;
+
+    @Before
+    public void setup() throws IOException
+    {
+        Arrays.fill(key, (byte) 7);
+        dir = Files.createTempDirectory("jwtstore");
+        file = dir.resolve("jwt");
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_AUTH))
+                  .respond(request -> HttpResponse.response().withBody(authResponse(generateJWT(validityMs))));
+    }
+
+    @After
+    public void teardown() throws IOException
+    {
+        mockServer.stop();
+        try (var files = Files.list(dir))
+        {
+            for (Path f : files.toArray(Path[]::new))
+            {
+                Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testRestartUsesStoredJWT() throws IOException
+    {
+        PrivacyIDEA first = build().jwtStore(file, key).build();
+        String jwt = first.getJWT();
+        assertNotNull(jwt);
+        first.close();
+        mockServer.verify(HttpRequest.request().withPath(PIConstants.ENDPOINT_AUTH), VerificationTimes.exactly(1));
+
+        // The token is encrypted
+        assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains(jwt));
+
+        PrivacyIDEA second = build().jwtStore(file, key).build();
+        assertEquals(jwt, second.getJWT());
+        second.close();
+        mockServer.verify(HttpRequest.request().withPath(PIConstants.ENDPOINT_AUTH), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testStoredJWTNotUsed() throws IOException
+    {
+        // Expires within the time before expiration at which it would be refreshed
+        validityMs = 30_000;
+        PrivacyIDEA first = build().jwtStore(file, key).build();
+        String expiring = first.getJWT();
+        first.close();
+
+        validityMs = 3_600_000;
+        PrivacyIDEA second = build().jwtStore(file, key).build();
+        String fresh = second.getJWT();
+        assertNotNull(fresh);
+        assertNotEquals(expiring, fresh);
+        second.close();
+
+        // Another key can not decrypt the file, and another account does not use the token
+        byte[] otherKey = new byte[16];
+        PrivacyIDEA third = build().jwtStore(file, otherKey).build();
+        assertNotNull(third.getJWT());
+        third.close();
+        PrivacyIDEA fourth = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                        .serviceAccount("other", "other")
+                                        .verifySSL(false)
+                                        .jwtStore(file, otherKey)
+                                        .logger(new PILogImplementation())
+                                        .build();
+        assertNotNull(fourth.getJWT());
+        fourth.close();
+        mockServer.verify(HttpRequest.request().withPath(PIConstants.ENDPOINT_AUTH), VerificationTimes.exactly(4));
+    }
+
+    @Test
+    public void testJitteredAcquisition() throws IOException
+    {
+        PrivacyIDEA privacyIDEA = build().jwtAcquisitionJitterMs(200).build();
+        long start = System.nanoTime();
+        assertNotNull(privacyIDEA.getJWT());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        privacyIDEA.close();
+        assertThrows(IllegalArgumentException.class, () -> build().jwtStore(file, new byte[10]));
+        assertThrows(IllegalArgumentException.class, () -> build().jwtStore(null, key));
+    }
+
+    @Test
+    public void testCallersWaitForScheduledRetry() throws Exception
+    {
+        mockServer.reset();
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_AUTH))
+                  .respond(HttpResponse.response().withStatusCode(500));
+        PrivacyIDEA privacyIDEA = build().build();
+        assertNull(privacyIDEA.getJWT());
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            Thread caller = new Thread(() -> assertNull(privacyIDEA.getJWT()));
+            caller.start();
+            callers.add(caller);
+        }
+        for (Thread caller : callers)
+        {
+            caller.join();
+        }
+        privacyIDEA.close();
+        // The first retrieval and its retry, the callers do not retrieve the JWT themselves
+        mockServer.verify(HttpRequest.request().withPath(PIConstants.ENDPOINT_AUTH), VerificationTimes.between(2, 3));
+    }
+
+    @Test
+    public void testRetryBackoff()
+    {
+        for (int failures = 0; failures < 40; failures++)
+        {
+            long backoff = Math.min(PrivacyIDEA.BACKGROUND_RETRY_MAX_MS, PrivacyIDEA.BACKGROUND_RETRY_INITIAL_MS << Math.min(failures, 20));
+            for (int i = 0; i < 100; i++)
+            {
+                long delay = PrivacyIDEA.backgroundRetryDelayMs(failures);
+                assertTrue(delay >= backoff / 2 && delay <= backoff);
+            }
+        }
+        assertTrue(PrivacyIDEA.backgroundRetryDelayMs(0) <= 1000);
+    }
+
+    private PrivacyIDEA.Builder build()
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                          .serviceAccount("admin", "admin")
+                          .verifySSL(false)
+                          .logger(new PILogImplementation());
+    }
+
+    private static String generateJWT(long validityMs)
+    {
+        return JWT.create()
+                  .withSubject("admin")
+                  .withExpiresAt(new Date(System.currentTimeMillis() + validityMs))
+                  .sign(Algorithm.HMAC256("testSecret"));
+    }
+
+    private static String authResponse(String jwt)
+    {
+        return "{\"id\": 1, \"jsonrpc\": \"2.0\", \"result\": {\"status\": true, \"value\": {\"role\": \"admin\", " +
+               "\"token\": \"" + jwt + "\", \"username\": \"admin\"}}, \"time\": " + (System.currentTimeMillis() / 1000L) +
+               ", \"version\": \"privacyIDEA 3.2.1\", \"signature\": \"rsa_sha256_pss:\"}";
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLoginPreparation
+{
+    private static final int DELAY_MS = 100;
+    private volatile int initializeDelayMs = DELAY_MS;
+    private ClientAndServer mockServer;
+    private PrivacyIDEA privacyIDEA;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_AUTH))
+                  .respond(HttpResponse.response().withBody(Utils.postAuthSuccessResponse()));
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_TOKEN))
+                  .respond(HttpResponse.response()
+                                       .withBody(Utils.getTokenResponse())
+                                       .withDelay(TimeUnit.MILLISECONDS, DELAY_MS));
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_TRIGGERCHALLENGE))
+                  .respond(HttpResponse.response()
+                                       .withBody(Utils.triggerChallengeSuccess())
+                                       .withDelay(TimeUnit.MILLISECONDS, DELAY_MS));
+        mockServer.when(HttpRequest.request().withPath(PIConstants.ENDPOINT_VALIDATE_INITIALIZE))
+                  .respond(request -> HttpResponse.response()
+                                                  .withBody(passkeyChallenge())
+                                                  .withDelay(TimeUnit.MILLISECONDS, initializeDelayMs));
+        privacyIDEA = PrivacyIDEA.newBuilder("http://127.0.0.1:1080", "test")
+                                 .serviceAccount("admin", "admin")
+                                 .disableLog()
+                                 .logger(new PILogImplementation())
+                                 .build();
+        privacyIDEA.getJWT();
+    }
+
+    @After
+    public void teardown() throws IOException
+    {
+        privacyIDEA.close();
+        mockServer.stop();
+    }
+
+    /**
+     * The three requests take about as long as the slowest of them instead of the sum.
+     */
+    @Test
+    public void testStepsRunInParallel()
+    {
+        // Warm up the connections
+        privacyIDEA.prepareLogin("Test", EnumSet.allOf(LoginPreparation.Step.class), 5000);
+
+        long start = System.nanoTime();
+        assertNotNull(privacyIDEA.getTokenInfo("Test"));
+        assertNotNull(privacyIDEA.triggerChallenges("Test"));
+        assertNotNull(privacyIDEA.validateInitialize(PIConstants.TOKEN_TYPE_PASSKEY));
+        long sequentialMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        LoginPreparation preparation = privacyIDEA.prepareLogin("Test", EnumSet.allOf(LoginPreparation.Step.class), 5000);
+        assertTrue(preparation.complete());
+        assertEquals("OATH00123564", preparation.tokenInfo.get(0).serial);
+        assertEquals("16734787285577957577", preparation.triggeredChallenges.transactionID);
+        assertEquals("12052838135417104562", preparation.passkeyChallenge.transactionID);
+        assertTrue("Sequential: " + sequentialMs + "ms", sequentialMs >= 3 * DELAY_MS);
+        assertTrue("prepareLogin: " + preparation.elapsedMs + "ms", preparation.elapsedMs < 2 * DELAY_MS);
+    }
+
+    @Test
+    public void testDeadline()
+    {
+        initializeDelayMs = 2000;
+        LoginPreparation preparation = privacyIDEA.prepareLogin("Test", EnumSet.allOf(LoginPreparation.Step.class), 500);
+        assertFalse(preparation.complete());
+        assertEquals(EnumSet.of(LoginPreparation.Step.PASSKEY_CHALLENGE), preparation.timedOut);
+        assertNull(preparation.passkeyChallenge);
+        assertNotNull(preparation.tokenInfo);
+        assertNotNull(preparation.triggeredChallenges);
+        assertTrue(preparation.elapsedMs < 1000);
+    }
+
+    @Test
+    public void testRejectedAfterClose() throws IOException
+    {
+        privacyIDEA.prepareLogin("Test", EnumSet.of(LoginPreparation.Step.TOKEN_INFO), 5000);
+        privacyIDEA.close();
+        LoginPreparation preparation = privacyIDEA.prepareLogin("Test", EnumSet.allOf(LoginPreparation.Step.class), 5000);
+        assertEquals(EnumSet.allOf(LoginPreparation.Step.class), preparation.failed);
+        assertTrue(preparation.timedOut.isEmpty());
+        assertNull(preparation.tokenInfo);
+        assertTrue(preparation.elapsedMs < 1000);
+    }
+
+    @Test
+    public void testSelectedSteps()
+    {
+        LoginPreparation preparation = privacyIDEA.prepareLogin("Test", EnumSet.of(LoginPreparation.Step.TOKEN_INFO), 5000);
+        assertTrue(preparation.complete());
+        assertNotNull(preparation.tokenInfo);
+        assertNull(preparation.triggeredChallenges);
+        assertNull(preparation.passkeyChallenge);
+        assertTrue(preparation.failed.isEmpty());
+    }
+
+    private static String passkeyChallenge()
+    {
+        return "{\"detail\":{\"passkey\":{\"challenge\":\"SPRITfnl8pStiyaHx4v0kgdmNy5HdLCUvBjIsd5PUV0\"," +
+               "\"message\":\"Please authenticate with your passkey!\",\"rpId\":\"example.com\"," +
+               "\"transaction_id\":\"12052838135417104562\",\"user_verification\":\"preferred\"}," +
+               "\"transaction_id\":\"12052838135417104562\"}," +
+               "\"result\":{\"authentication\":\"CHALLENGE\",\"status\":true,\"value\":false}}";
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs on the JVM with the other tests and as GraalVM native image with {@code mvn -Pnative test}. It therefore uses
+ * the http server of the JDK as stub instead of mockserver.
+ */
+public class TestNativeImage
+{
+    private static final String METADATA = "META-INF/native-image/org.privacyidea/privacyidea-java-client/";
+    private HttpServer server;
+    private final AtomicReference<String> lastBody = new AtomicReference<>();
+
+    @Before
+    public void setup() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PIConstants.ENDPOINT_VALIDATE_CHECK, exchange ->
+        {
+            try (InputStream in = exchange.getRequestBody())
+            {
+                lastBody.set(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            byte[] response = Utils.matchingOneToken().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(response);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void teardown()
+    {
+        server.stop(0);
+    }
+
+    @Test
+    public void testValidateCheck() throws IOException
+    {
+        for (TransportType type : TransportType.values())
+        {
+            PrivacyIDEA privacyIDEA = PrivacyIDEA.newBuilder("http://127.0.0.1:" + server.getAddress().getPort(), "test")
+                                                 .transport(type)
+                                                 .logger(new PILogImplementation())
+                                                 .build();
+            PIResponse response = privacyIDEA.validateCheck("Test", "123456");
+            privacyIDEA.close();
+            assertNotNull(type.name(), response);
+            assertTrue(response.value);
+            assertEquals("user=Test&pass=123456", lastBody.get());
+
+            PIResponse decoded = PIResponse.fromJSON(response.toJSON());
+            assertEquals(response.toCompactJSON(), decoded.toCompactJSON());
+            assertEquals(response.toCompactJSON(), PIResponse.fromBytes(response.toBytes()).toCompactJSON());
+        }
+    }
+
+    @Test(expected = JsonIOException.class)
+    public void testReflectionIsBlocked()
+    {
+        PIGson.GSON.toJson(new NoAdapter());
+    }
+
+    @Test
+    public void testMetadata() throws Exception
+    {
+        JsonArray reflection = read("reflect-config.json").getAsJsonArray();
+        assertFalse(reflection.isEmpty());
+        for (JsonElement entry : reflection)
+        {
+            Class.forName(entry.getAsJsonObject().get("name").getAsString());
+        }
+        JsonObject resources = read("resource-config.json").getAsJsonObject();
+        for (JsonElement include : resources.getAsJsonObject("resources").getAsJsonArray("includes"))
+        {
+            String pattern = include.getAsJsonObject().get("pattern").getAsString();
+            String name = pattern.replace("\\Q", "").replace("\\E", "");
+            assertNotNull(name, getClass().getClassLoader().getResource(name));
+        }
+    }
+
+    private JsonElement read(String file) throws IOException
+    {
+        InputStream in = getClass().getClassLoader().getResourceAsStream(METADATA + file);
+        assertNotNull(file, in);
+        try (InputStreamReader reader = new InputStreamReader(in, StandardCharsets.UTF_8))
+        {
+            return JsonParser.parseReader(reader);
+        }
+    }
+
+    private static class NoAdapter
+    {
+        @SuppressWarnings("unused")
+        private final String value = "value";
+    }
+}
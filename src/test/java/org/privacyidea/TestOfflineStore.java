@@ -0,0 +1,273 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpError;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestOfflineStore
+{
+    private static final String USERNAME = "Test";
+    private static final String PIN = "pin";
+    private ClientAndServer mockServer;
+    private Path file;
+
+    @Before
+    public void setup() throws IOException
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        file = Files.createTempFile("privacyidea-offline", ".bin");
+        Files.delete(file);
+    }
+
+    @After
+    public void teardown() throws IOException
+    {
+        mockServer.stop();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testVerifyPasslibHash()
+    {
+        // Created with hashlib.pbkdf2_hmac of Python, in the format of passlib
+        String hash = "$pbkdf2-sha512$6549$MDEyMzQ1Njc4OQ$DlrnkBXUyCay02jakgd65Vkl/Ee8jBTMEyhMAEoXfBGNcE3TZwDeTvw385JMWocsdPMVX0fQh" +
+                      ".KVMi4xcWSJEA";
+        assertTrue(OfflineStore.verify("test123456", hash));
+        assertFalse(OfflineStore.verify("test654321", hash));
+        assertFalse(OfflineStore.verify("", hash));
+        assertFalse(OfflineStore.verify("test123456", "$pbkdf2-md5$1$abc$def"));
+        assertFalse(OfflineStore.verify("test123456", "not a hash"));
+    }
+
+    @Test
+    public void testOfflineAuthentication() throws Exception
+    {
+        respondOnline(0, "refill1");
+        PrivacyIDEA privacyIDEA = build().offlineStore().build();
+        assertTrue(privacyIDEA.validateCheck(USERNAME, PIN + otp(0)).value);
+        OfflineStore store = privacyIDEA.offlineStore();
+        assertEquals(1, store.size());
+        assertEquals(5, store.remaining("HOTP1"));
+
+        // The server is unreachable
+        mockServer.reset();
+        mockServer.when(HttpRequest.request()).error(HttpError.error().withDropConnection(true));
+        PIResponse response = privacyIDEA.validateCheck(USERNAME, PIN + otp(2));
+        assertNotNull(response);
+        assertTrue(response.value);
+        assertEquals(AuthenticationStatus.ACCEPT, response.authentication);
+        assertEquals("HOTP1", response.serial);
+        assertEquals(3, store.remaining("HOTP1"));
+        assertTrue(store.hasPendingRefills());
+
+        // The same and earlier values can not be used again, neither wrong values or other users
+        assertNull(privacyIDEA.validateCheck(USERNAME, PIN + otp(2)));
+        assertNull(privacyIDEA.validateCheck(USERNAME, PIN + otp(1)));
+        assertNull(privacyIDEA.validateCheck(USERNAME, otp(3)));
+        assertNull(privacyIDEA.validateCheck("Other", PIN + otp(3)));
+        assertEquals(3, store.remaining("HOTP1"));
+
+        // The server is reachable again, the store is refilled with the last value used offline
+        mockServer.reset();
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response().withBody(Utils.matchingOneToken()));
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_OFFLINE_REFILL))
+                  .respond(HttpResponse.response().withBody(response(5, "refill2")));
+        assertTrue(privacyIDEA.validateCheck("Other", "123456").value);
+        for (int i = 0; i < 100 && store.hasPendingRefills(); i++)
+        {
+            Thread.sleep(20);
+        }
+        assertFalse(store.hasPendingRefills());
+        assertEquals(5, store.remaining("HOTP1"));
+        HttpRequest refill = mockServer.retrieveRecordedRequests(HttpRequest.request().withPath(PIConstants.ENDPOINT_OFFLINE_REFILL))[0];
+        assertEquals("serial=HOTP1&pass=" + PIN + otp(2) + "&refilltoken=refill1", refill.getBodyAsString());
+        privacyIDEA.close();
+    }
+
+    /**
+     * A request that is rejected by the client itself says nothing about the server, so the offline values are not used.
+     */
+    @Test
+    public void testNoOfflineAuthenticationForLimiterRejection() throws Exception
+    {
+        PrivacyIDEA privacyIDEA = build().offlineStore().concurrencyLimit(1, 1, 0).build();
+        assertNoOfflineAuthenticationForRejection(privacyIDEA);
+        assertEquals(1, privacyIDEA.concurrencyLimiter().rejectedCount());
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testNoOfflineAuthenticationForBulkheadRejection() throws Exception
+    {
+        PrivacyIDEA privacyIDEA = build().offlineStore().bulkhead(RequestClass.VALIDATE, 1, 0).build();
+        assertNoOfflineAuthenticationForRejection(privacyIDEA);
+        privacyIDEA.close();
+    }
+
+    private void assertNoOfflineAuthenticationForRejection(PrivacyIDEA privacyIDEA) throws Exception
+    {
+        respondOnline(0, "refill1");
+        assertTrue(privacyIDEA.validateCheck(USERNAME, PIN + otp(0)).value);
+        OfflineStore store = privacyIDEA.offlineStore();
+
+        mockServer.reset();
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response().withBody(Utils.matchingOneToken()).withDelay(TimeUnit.MILLISECONDS, 1000));
+        // Takes the only slot
+        Thread slow = new Thread(() -> privacyIDEA.validateCheck("Other", "123456"));
+        slow.start();
+        Thread.sleep(300);
+        assertNull(privacyIDEA.validateCheck(USERNAME, PIN + otp(1)));
+        assertEquals(5, store.remaining("HOTP1"));
+        assertFalse(store.hasPendingRefills());
+        slow.join();
+    }
+
+    @Test
+    public void testRefillRejected() throws IOException
+    {
+        respondOnline(0, "refill1");
+        PrivacyIDEA privacyIDEA = build().offlineStore().build();
+        privacyIDEA.validateCheck(USERNAME, PIN + otp(0));
+        mockServer.reset();
+        mockServer.when(HttpRequest.request()).error(HttpError.error().withDropConnection(true));
+        assertNotNull(privacyIDEA.validateCheck(USERNAME, PIN + otp(1)));
+
+        mockServer.reset();
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_OFFLINE_REFILL))
+                  .respond(HttpResponse.response().withBody(Utils.errorUserNotFound()));
+        privacyIDEA.refillOfflineStore();
+        assertEquals(0, privacyIDEA.offlineStore().size());
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testEncryptedFile() throws IOException
+    {
+        byte[] key = new byte[32];
+        key[0] = 1;
+        respondOnline(0, "refill1");
+        PrivacyIDEA privacyIDEA = build().offlineStore(file, key).build();
+        privacyIDEA.validateCheck(USERNAME, PIN + otp(0));
+        privacyIDEA.close();
+        assertTrue(Files.exists(file));
+        String content = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+        assertFalse(content.contains("HOTP1") || content.contains("pbkdf2"));
+
+        // The values are loaded by a new instance
+        mockServer.reset();
+        mockServer.when(HttpRequest.request()).error(HttpError.error().withDropConnection(true));
+        PrivacyIDEA restarted = build().offlineStore(file, key).build();
+        assertEquals(5, restarted.offlineStore().remaining("HOTP1"));
+        assertNotNull(restarted.validateCheck(USERNAME, PIN + otp(3)));
+        restarted.close();
+
+        // The used value and the pending refill are stored, too
+        PrivacyIDEA again = build().offlineStore(file, key).build();
+        assertEquals(2, again.offlineStore().remaining("HOTP1"));
+        assertTrue(again.offlineStore().hasPendingRefills());
+        again.close();
+
+        // The file can not be read with a different key
+        byte[] otherKey = new byte[32];
+        PrivacyIDEA wrongKey = build().offlineStore(file, otherKey).build();
+        assertEquals(0, wrongKey.offlineStore().size());
+        wrongKey.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidKey()
+    {
+        build().offlineStore(file, new byte[10]);
+    }
+
+    private void respondOnline(int firstCounter, String refillToken)
+    {
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response().withBody(response(firstCounter, refillToken)));
+    }
+
+    /**
+     * Successful response with the offline values of the five counters after the given one.
+     */
+    private static String response(int usedCounter, String refillToken)
+    {
+        StringBuilder values = new StringBuilder();
+        for (int i = usedCounter + 1; i <= usedCounter + 5; i++)
+        {
+            if (values.length() > 0)
+            {
+                values.append(",");
+            }
+            values.append("\"").append(i).append("\": \"").append(hash(PIN + otp(i))).append("\"");
+        }
+        return "{\"auth_items\": {\"offline\": [{\"refilltoken\": \"" + refillToken + "\", \"response\": {" + values +
+               "}, \"serial\": \"HOTP1\", \"user\": \"" + USERNAME + "\"}]},\n" +
+               "\"detail\": {\"message\": \"matching 1 tokens\", \"otplen\": 6, \"serial\": \"HOTP1\", \"type\": \"hotp\"},\n" +
+               "\"id\": 1, \"jsonrpc\": \"2.0\", \"result\": {\"authentication\": \"ACCEPT\", \"status\": true, \"value\": true},\n" +
+               "\"time\": 1589276995.4397042, \"version\": \"privacyIDEA 3.10\", \"versionnumber\": \"3.10\"}";
+    }
+
+    private static String otp(int counter)
+    {
+        return String.valueOf(100000 + counter);
+    }
+
+    /**
+     * Hash in the format of passlib with few rounds, to keep the test fast.
+     */
+    private static String hash(String pass)
+    {
+        try
+        {
+            byte[] salt = ("salt" + pass).getBytes(StandardCharsets.UTF_8);
+            PBEKeySpec spec = new PBEKeySpec(pass.toCharArray(), salt, 100, 512);
+            byte[] checksum = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512").generateSecret(spec).getEncoded();
+            Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+            return "$pbkdf2-sha512$100$" + encoder.encodeToString(salt).replace('+', '.') + "$" +
+                   encoder.encodeToString(checksum).replace('+', '.');
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static PrivacyIDEA.Builder build()
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test").verifySSL(false).logger(new PILogImplementation());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trip tests for the serialization of PIResponse, which is used to store the response between the steps of a login.
+ */
+public class TestPIResponseSerialization
+{
+    private JSONParser parser;
+
+    @Before
+    public void setup()
+    {
+        PrivacyIDEA privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                             .verifySSL(false)
+                                             .logger(new PILogImplementation())
+                                             .build();
+        parser = new JSONParser(privacyIDEA);
+    }
+
+    @Test
+    public void testBinaryRoundTrip()
+    {
+        for (String fixture : Arrays.asList(Utils.pollGetChallenges(), Utils.foundMatchingChallenge(), Utils.triggerWebauthn(),
+                                            Utils.multipleWebauthnResponse(), Utils.rolloutViaChallenge(), Utils.errorUserNotFound()))
+        {
+            PIResponse response = parser.parsePIResponse(fixture);
+            if (!response.multiChallenge.isEmpty())
+            {
+                response.multiChallenge.get(0).getAttributes().put("hideResponseInput", "1");
+            }
+            PIResponse decoded = PIResponse.fromBytes(response.toBytes());
+            // The compact json contains every field, so equal json means equal objects
+            assertEquals(response.toCompactJSON(), decoded.toCompactJSON());
+            assertEquals(response.otpTransactionId(), decoded.otpTransactionId());
+            assertEquals(response.mergedSignRequest(), decoded.mergedSignRequest());
+        }
+    }
+
+    @Test
+    public void testBinaryRoundTripNullAndErrorValues()
+    {
+        PIResponse response = new PIResponse();
+        response.message = null;
+        response.messages = null;
+        response.multiChallenge = null;
+        response.challengeStatus = null;
+        response.error = new PIError(904, "ERR904: The user can not be found in any resolver in this realm!");
+        response.username = "ünïcödé";
+        response.id = -1;
+
+        PIResponse decoded = PIResponse.fromBytes(response.toBytes());
+        assertNull(decoded.message);
+        assertNull(decoded.messages);
+        assertNull(decoded.multiChallenge);
+        assertNull(decoded.challengeStatus);
+        assertEquals(904, decoded.error.code);
+        assertEquals(response.error.message, decoded.error.message);
+        assertEquals("ünïcödé", decoded.username);
+        assertEquals(-1, decoded.id);
+        assertEquals("", decoded.serial);
+    }
+
+    @Test
+    public void testInvalidBinaryData()
+    {
+        byte[] valid = parser.parsePIResponse(Utils.pollGetChallenges()).toBytes();
+        assertInvalid(null);
+        assertInvalid("{\"json\":true}".getBytes(StandardCharsets.UTF_8));
+        assertInvalid(Arrays.copyOf(valid, valid.length / 2));
+
+        byte[] futureVersion = valid.clone();
+        futureVersion[1] = (byte) (PIResponseCodec.VERSION + 1);
+        assertInvalid(futureVersion);
+    }
+
+    @Test
+    public void testJSONRoundTrip()
+    {
+        PIResponse response = parser.parsePIResponse(Utils.pollGetChallenges());
+        String pretty = response.toJSON();
+        String compact = response.toCompactJSON();
+        assertTrue(compact.length() < pretty.length());
+        assertEquals(compact, PIResponse.fromJSON(pretty).toCompactJSON());
+        assertEquals(compact, PIResponse.fromJSON(compact).toCompactJSON());
+    }
+
+    @Test
+    public void testAdaptersMatchReflection()
+    {
+        Gson reflection = new Gson();
+        Gson prettyReflection = new GsonBuilder().setPrettyPrinting().create();
+        for (String fixture : Arrays.asList(Utils.pollGetChallenges(), Utils.foundMatchingChallenge(), Utils.triggerWebauthn(),
+                                            Utils.rolloutViaChallenge(), Utils.errorUserNotFound()))
+        {
+            PIResponse response = parser.parsePIResponse(fixture);
+            if (!response.multiChallenge.isEmpty())
+            {
+                response.multiChallenge.get(0).getAttributes().put("hideResponseInput", "1");
+            }
+            assertEquals(reflection.toJson(response), response.toCompactJSON());
+            assertEquals(prettyReflection.toJson(response), response.toJSON());
+            // Json written by the reflection based serialization of previous versions can still be read
+            assertEquals(response.toCompactJSON(), PIResponse.fromJSON(prettyReflection.toJson(response)).toCompactJSON());
+        }
+
+        List<TokenInfo> tokenInfos = parser.parseTokenInfoList(Utils.getTokenResponse());
+        assertTrue(tokenInfos != null && !tokenInfos.isEmpty());
+        for (TokenInfo tokenInfo : tokenInfos)
+        {
+            String json = PIGson.GSON.toJson(tokenInfo);
+            assertEquals(reflection.toJson(tokenInfo), json);
+            assertEquals(json, PIGson.GSON.toJson(PIGson.GSON.fromJson(json, TokenInfo.class)));
+        }
+
+        RolloutInfo rolloutInfo = parser.parseRolloutInfo(Utils.rolloutSuccess());
+        String json = PIGson.GSON.toJson(rolloutInfo);
+        assertEquals(reflection.toJson(rolloutInfo), json);
+        assertEquals(json, PIGson.GSON.toJson(PIGson.GSON.fromJson(json, RolloutInfo.class)));
+        rolloutInfo.error = new PIError(905, "ERR905: Missing parameter");
+        rolloutInfo.otpkey = null;
+        assertEquals(reflection.toJson(rolloutInfo), PIGson.GSON.toJson(rolloutInfo));
+    }
+
+    @Test
+    public void testUnknownAndMissingFields()
+    {
+        PIResponse response = PIResponse.fromJSON("{\"unknown\":{\"a\":[1,2]},\"transactionID\":\"123\",\"multiChallenge\":[{\"serial\":\"OATH1\",\"extra\":true}]}");
+        assertEquals("123", response.transactionID);
+        assertEquals("", response.message);
+        assertEquals(AuthenticationStatus.NONE, response.authentication);
+        assertEquals("OATH1", response.multiChallenge.get(0).getSerial());
+        assertEquals("", response.multiChallenge.get(0).getType());
+    }
+
+    @Test
+    public void testBinarySmallerThanJSON()
+    {
+        PIResponse response = parser.parsePIResponse(Utils.pollGetChallenges());
+        int jsonSize = response.toCompactJSON().getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(response.toBytes().length < jsonSize);
+    }
+
+    private void assertInvalid(byte[] data)
+    {
+        try
+        {
+            PIResponse.fromBytes(data);
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+}
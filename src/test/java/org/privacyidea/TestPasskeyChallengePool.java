@@ -0,0 +1,196 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class TestPasskeyChallengePool
+{
+    private static final int INITIALIZE_DELAY_MS = 50;
+    private final AtomicInteger transactions = new AtomicInteger();
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(initializeRequest())
+                  .respond(request -> HttpResponse.response()
+                                                  .withBody(initializeResponse(transactions.incrementAndGet()))
+                                                  .withDelay(TimeUnit.MILLISECONDS, INITIALIZE_DELAY_MS));
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testPool() throws InterruptedException
+    {
+        PasskeyChallengePool pool = new PasskeyChallengePool(2, 100);
+        PIResponse first = new PIResponse();
+        PIResponse second = new PIResponse();
+        assertEquals(2, pool.missing());
+        pool.add(first);
+        pool.add(second);
+        pool.add(new PIResponse());
+        assertEquals(2, pool.size());
+        assertEquals(0, pool.missing());
+        assertTrue(pool.nextExpiryMs() > 0);
+
+        // Oldest first
+        assertSame(first, pool.take());
+        assertEquals(1, pool.missing());
+        Thread.sleep(150);
+        assertNull(pool.take());
+        assertEquals(1, pool.hitCount());
+        assertEquals(1, pool.missCount());
+        assertEquals(1, pool.expiredCount());
+        assertEquals(0, pool.size());
+        assertThrows(IllegalArgumentException.class, () -> build().passkeyChallengePool(0, 1000));
+    }
+
+    @Test
+    public void testPrefetchedAndRefilled() throws Exception
+    {
+        try (PrivacyIDEA privacyIDEA = build().passkeyChallengePool(3, 60_000).build())
+        {
+            PasskeyChallengePool pool = privacyIDEA.passkeyChallengePool();
+            assertTrue(waitFor(() -> pool.size() == 3));
+            assertEquals(3, initializeRequests());
+
+            Set<String> transactionIds = new HashSet<>();
+            for (int i = 0; i < 3; i++)
+            {
+                PIResponse response = privacyIDEA.validateInitialize(PIConstants.TOKEN_TYPE_PASSKEY);
+                assertNotNull(response);
+                assertTrue(response.passkeyChallenge.contains("challenge"));
+                transactionIds.add(response.transactionID);
+            }
+            // Every challenge is handed out once
+            assertEquals(3, transactionIds.size());
+            assertEquals(3, pool.hitCount());
+
+            assertTrue(waitFor(() -> pool.size() == 3));
+            Thread.sleep(200);
+            assertEquals(6, initializeRequests());
+        }
+    }
+
+    @Test
+    public void testExpiredChallengesReplaced() throws Exception
+    {
+        try (PrivacyIDEA privacyIDEA = build().passkeyChallengePool(2, 300).build())
+        {
+            PasskeyChallengePool pool = privacyIDEA.passkeyChallengePool();
+            assertTrue(waitFor(() -> pool.expiredCount() >= 2 && pool.size() == 2));
+            assertTrue(initializeRequests() >= 4);
+            assertEquals(0, pool.hitCount());
+        }
+    }
+
+    /**
+     * Rendering the login page requires a passkey challenge. With the pool, the page does not wait for the request.
+     */
+    @Test
+    public void testPageRenderLatency() throws Exception
+    {
+        long direct = averageRenderMs(build().build());
+        long pooled = averageRenderMs(build().passkeyChallengePool(4, 60_000).build());
+        assertTrue("Without the pool: " + direct + "ms", direct >= INITIALIZE_DELAY_MS);
+        assertTrue("With the pool: " + pooled + "ms", pooled < INITIALIZE_DELAY_MS / 2);
+    }
+
+    private long averageRenderMs(PrivacyIDEA privacyIDEA) throws Exception
+    {
+        // Warm up the connection and the pool
+        privacyIDEA.validateInitialize(PIConstants.TOKEN_TYPE_PASSKEY);
+        if (privacyIDEA.passkeyChallengePool() != null)
+        {
+            assertTrue(waitFor(() -> privacyIDEA.passkeyChallengePool().size() == 4));
+        }
+        long total = 0;
+        for (int i = 0; i < 10; i++)
+        {
+            long start = System.nanoTime();
+            assertNotNull(privacyIDEA.validateInitialize(PIConstants.TOKEN_TYPE_PASSKEY));
+            total += TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            // Time between page renders
+            Thread.sleep(100);
+        }
+        privacyIDEA.close();
+        return total / 10 / 1000;
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean())
+        {
+            if (System.currentTimeMillis() > deadline)
+            {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static HttpRequest initializeRequest()
+    {
+        return HttpRequest.request().withPath(PIConstants.ENDPOINT_VALIDATE_INITIALIZE);
+    }
+
+    private int initializeRequests()
+    {
+        return mockServer.retrieveRecordedRequests(initializeRequest()).length;
+    }
+
+    private static String initializeResponse(int n)
+    {
+        String transactionId = String.valueOf(10_000_000 + n);
+        return "{\"detail\":{\"passkey\":{\"challenge\":\"challenge" + n + "\"," +
+               "\"message\":\"Please authenticate with your passkey!\",\"rpId\":\"example.com\"," +
+               "\"transaction_id\":\"" + transactionId + "\",\"user_verification\":\"preferred\"}," +
+               "\"transaction_id\":\"" + transactionId + "\"}," +
+               "\"result\":{\"authentication\":\"CHALLENGE\",\"status\":true,\"value\":false}}";
+    }
+
+    private PrivacyIDEA.Builder build()
+    {
+        return PrivacyIDEA.newBuilder("http://127.0.0.1:1080", "test")
+                          .disableLog()
+                          .logger(new PILogImplementation());
+    }
+}
@@ -16,7 +16,11 @@
  */
 package org.privacyidea;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.jetbrains.annotations.NotNull;
@@ -28,6 +32,7 @@ import org.mockserver.matchers.Times;
 import org.mockserver.model.HttpRequest;
 import org.mockserver.model.HttpResponse;
 import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -148,6 +153,89 @@ public class TestPollTransaction
         assertEquals("", pushMessage);
     }
 
+    @Test
+    public void testConcurrentPollsShareRequest() throws Exception
+    {
+        setPollTransactionResponse(ChallengeStatus.pending, 10, 500);
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<ChallengeStatus>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            results.add(executor.submit(() -> privacyIDEA.pollTransaction("02659936574063359702")));
+        }
+        for (Future<ChallengeStatus> result : results)
+        {
+            assertEquals(ChallengeStatus.pending, result.get());
+        }
+        executor.shutdown();
+
+        mockServer.verify(pollRequest(), VerificationTimes.exactly(1));
+
+        // Without a cache, the next poll is a new request
+        assertEquals(ChallengeStatus.pending, privacyIDEA.pollTransaction("02659936574063359702"));
+        mockServer.verify(pollRequest(), VerificationTimes.exactly(2));
+    }
+
+    @Test
+    public void testPollTransactionCache() throws Exception
+    {
+        PrivacyIDEA cachingPrivacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                                    .verifySSL(false)
+                                                    .pollTransactionCacheMs(300)
+                                                    .logger(new PILogImplementation())
+                                                    .build();
+        setPollTransactionResponse(ChallengeStatus.pending, 1);
+        setPollTransactionResponse(ChallengeStatus.accept, 1);
+
+        assertEquals(ChallengeStatus.pending, cachingPrivacyIDEA.pollTransaction("02659936574063359702"));
+        assertEquals(ChallengeStatus.pending, cachingPrivacyIDEA.pollTransaction("02659936574063359702"));
+        mockServer.verify(pollRequest(), VerificationTimes.exactly(1));
+
+        // The cached result is returned until it expires, then the next poll is a new request
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        ChallengeStatus status;
+        while ((status = cachingPrivacyIDEA.pollTransaction("02659936574063359702")) == ChallengeStatus.pending)
+        {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+        assertEquals(ChallengeStatus.accept, status);
+        mockServer.verify(pollRequest(), VerificationTimes.exactly(2));
+        cachingPrivacyIDEA.close();
+    }
+
+    @Test
+    public void testFailedPollNotCached() throws Exception
+    {
+        PrivacyIDEA cachingPrivacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                                    .verifySSL(false)
+                                                    .pollTransactionCacheMs(60_000)
+                                                    .logger(new PILogImplementation())
+                                                    .build();
+        mockServer.when(pollRequest(), Times.exactly(1)).respond(HttpResponse.response().withStatusCode(500));
+        setPollTransactionResponse(ChallengeStatus.none, 1);
+        setPollTransactionResponse(ChallengeStatus.accept, 2);
+
+        assertEquals(ChallengeStatus.none, cachingPrivacyIDEA.pollTransaction("02659936574063359702"));
+        assertEquals(ChallengeStatus.none, cachingPrivacyIDEA.pollTransaction("02659936574063359702"));
+        assertEquals(ChallengeStatus.accept, cachingPrivacyIDEA.pollTransaction("02659936574063359702"));
+        mockServer.verify(pollRequest(), VerificationTimes.exactly(3));
+
+        // Only the successful result is reused
+        assertEquals(ChallengeStatus.accept, cachingPrivacyIDEA.pollTransaction("02659936574063359702"));
+        mockServer.verify(pollRequest(), VerificationTimes.exactly(3));
+        cachingPrivacyIDEA.close();
+    }
+
+    private HttpRequest pollRequest()
+    {
+        return HttpRequest.request()
+                          .withMethod("GET")
+                          .withPath("/validate/polltransaction")
+                          .withQueryStringParameter("transaction_id", "02659936574063359702");
+    }
+
     private void setFinalizationResponse(String transactionID)
     {
         mockServer.when(HttpRequest.request()
@@ -159,17 +247,19 @@ public class TestPollTransaction
     }
 
     private void setPollTransactionResponse(ChallengeStatus challengeStatus, int times)
+    {
+        setPollTransactionResponse(challengeStatus, times, 50);
+    }
+
+    private void setPollTransactionResponse(ChallengeStatus challengeStatus, int times, int delayMs)
     {
         String challengeStatusParameter = getChallengeStatusParameter(challengeStatus);
-        mockServer.when(HttpRequest.request()
-                                   .withMethod("GET")
-                                   .withPath("/validate/polltransaction")
-                                   .withQueryStringParameter("transaction_id", "02659936574063359702"), Times.exactly(times))
+        mockServer.when(pollRequest(), Times.exactly(times))
                   .respond(HttpResponse.response()
                                        .withBody("{\n\"id\": 1,\n\"jsonrpc\": \"2.0\",\n" + challengeStatusParameter +
                                                  "\"result\": {\n\"status\": true\n},\n\"time\": 1589446811.1909237,\n\"version\": \"privacyIDEA 3.2.1\",\n" +
                                                  "\"versionnumber\": \"3.2.1\",\n\"signature\": \"rsa_sha256_pss:\"\n}")
-                                       .withDelay(TimeUnit.MILLISECONDS, 50));
+                                       .withDelay(TimeUnit.MILLISECONDS, delayMs));
     }
 
     private static @NotNull String getChallengeStatusParameter(ChallengeStatus challengeStatus)
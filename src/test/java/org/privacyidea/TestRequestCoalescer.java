@@ -0,0 +1,94 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class TestRequestCoalescer
+{
+    /**
+     * The callers that wait for a failing request get its failure instead of sending the request again.
+     */
+    @Test
+    public void testFailureSharedWithWaiters() throws Exception
+    {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>(0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger requests = new AtomicInteger();
+        IllegalStateException failure = new IllegalStateException("failed");
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try
+        {
+            Future<String> first = callers.submit(() -> coalescer.execute("key", () ->
+            {
+                requests.incrementAndGet();
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                throw failure;
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            AtomicReference<Thread> secondThread = new AtomicReference<>();
+            Future<String> second = callers.submit(() ->
+            {
+                secondThread.set(Thread.currentThread());
+                return coalescer.execute("key", () ->
+                {
+                    requests.incrementAndGet();
+                    return "second";
+                });
+            });
+            // The second caller joined the request in flight when it waits for its result
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (secondThread.get() == null || secondThread.get().getState() != Thread.State.WAITING)
+            {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            assertSame(failure, assertThrows(ExecutionException.class, first::get).getCause());
+            assertSame(failure, assertThrows(ExecutionException.class, second::get).getCause());
+            assertEquals(1, requests.get());
+
+            // The failure is not kept, the next caller sends the request
+            assertEquals("third", coalescer.execute("key", () -> "third"));
+        }
+        finally
+        {
+            callers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.List;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestRetryPolicy
+{
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testClassification()
+    {
+        ConnectException refused = new ConnectException("Connection refused");
+        assertTrue(RetryPolicy.isRetryable(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 0, refused));
+        assertTrue(RetryPolicy.isRetryable(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 0, new UnknownHostException()));
+        // The server may have received the request
+        assertFalse(RetryPolicy.isRetryable(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 0, new SocketTimeoutException()));
+        assertFalse(RetryPolicy.isRetryable(PIConstants.GET, PIConstants.ENDPOINT_TOKEN, 0, new IOException("unexpected end of stream")));
+
+        for (int code : new int[]{502, 503, 504})
+        {
+            assertFalse(RetryPolicy.isRetryable(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, code, null));
+            assertFalse(RetryPolicy.isRetryable(PIConstants.POST, PIConstants.ENDPOINT_TOKEN_INIT, code, null));
+            assertTrue(RetryPolicy.isRetryable(PIConstants.GET, PIConstants.ENDPOINT_TOKEN, code, null));
+            assertTrue(RetryPolicy.isRetryable(PIConstants.GET, PIConstants.ENDPOINT_POLLTRANSACTION, code, null));
+            assertTrue(RetryPolicy.isRetryable(PIConstants.POST, PIConstants.ENDPOINT_AUTH, code, null));
+        }
+        assertFalse(RetryPolicy.isRetryable(PIConstants.GET, PIConstants.ENDPOINT_TOKEN, 500, null));
+        assertFalse(RetryPolicy.isRetryable(PIConstants.GET, PIConstants.ENDPOINT_TOKEN, 200, null));
+    }
+
+    @Test
+    public void testBudget()
+    {
+        RetryPolicy policy = new RetryPolicy(1, 10, 100, 0.1);
+        ConnectException refused = new ConnectException();
+        for (int i = 0; i < 10; i++)
+        {
+            assertTrue(policy.shouldRetry(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 0, 0, refused));
+        }
+        assertFalse(policy.shouldRetry(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 0, 0, refused));
+        assertEquals(1, policy.budgetExhaustedCount());
+
+        // Ten requests allow one more retry, but never more than the maximum retries per request
+        for (int i = 0; i < 10; i++)
+        {
+            policy.onRequest();
+        }
+        assertFalse(policy.shouldRetry(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 1, 0, refused));
+        assertTrue(policy.shouldRetry(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 0, 0, refused));
+        assertFalse(policy.shouldRetry(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 0, 0, refused));
+        assertEquals(11, policy.retryCount());
+    }
+
+    @Test
+    public void testBackoff()
+    {
+        RetryPolicy policy = new RetryPolicy(10, 50, 300, 0.1);
+        for (int attempt = 0; attempt < 10; attempt++)
+        {
+            long max = Math.min(50L << attempt, 300);
+            for (int i = 0; i < 100; i++)
+            {
+                long backoff = policy.backoffMs(attempt);
+                assertTrue(backoff >= 0 && backoff <= max);
+            }
+        }
+    }
+
+    @Test
+    public void testServiceUnavailableRetried() throws IOException
+    {
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_AUTH))
+                  .respond(HttpResponse.response().withBody(Utils.postAuthSuccessResponse()));
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath(PIConstants.ENDPOINT_TOKEN), Times.exactly(2))
+                  .respond(HttpResponse.response().withStatusCode(503).withBody("Service Unavailable"));
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath(PIConstants.ENDPOINT_TOKEN))
+                  .respond(HttpResponse.response().withBody(Utils.getTokenResponse()));
+
+        PrivacyIDEA privacyIDEA = build().serviceAccount("admin", "admin").build();
+        List<TokenInfo> tokenInfos = privacyIDEA.getTokenInfo("Test");
+        assertNotNull(tokenInfos);
+        assertEquals("OATH00123564", tokenInfos.get(0).serial);
+        assertEquals(2, privacyIDEA.retryPolicy().retryCount());
+        mockServer.verify(HttpRequest.request().withPath(PIConstants.ENDPOINT_TOKEN), VerificationTimes.exactly(3));
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testOtpNotReplayed()
+    {
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response().withStatusCode(504).withBody("Gateway Timeout"));
+
+        PrivacyIDEA privacyIDEA = build().build();
+        privacyIDEA.validateCheck("Test", "123456");
+        assertEquals(0, privacyIDEA.retryPolicy().retryCount());
+        mockServer.verify(HttpRequest.request().withPath(PIConstants.ENDPOINT_VALIDATE_CHECK), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void testConnectionRefusedRetried()
+    {
+        PrivacyIDEA privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1", "test")
+                                             .retries(2, 10, 50, 0.1)
+                                             .logger(new PILogImplementation())
+                                             .build();
+        assertNull(privacyIDEA.validateCheck("Test", "123456"));
+        assertEquals(2, privacyIDEA.retryPolicy().retryCount());
+        assertNull(build().retries(0, 0, 0, 0).build().retryPolicy());
+    }
+
+    /**
+     * The retries of the JWT retrieval do not wait for the scheduler, which runs the retrieval itself.
+     */
+    @Test(timeout = 30_000)
+    public void testJWTRetrievalRetriedWhileServerRefuses() throws IOException
+    {
+        PrivacyIDEA privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1", "test")
+                                             .serviceAccount("admin", "admin")
+                                             .retries(2, 10, 50, 0.1)
+                                             .logger(new PILogImplementation())
+                                             .build();
+        long start = System.nanoTime();
+        assertNull(privacyIDEA.getJWT());
+        assertNull(privacyIDEA.getTokenInfo("Test"));
+        assertTrue(System.nanoTime() - start < 10_000_000_000L);
+        assertTrue(privacyIDEA.retryPolicy().retryCount() >= 2);
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testOkHttpConnectTimeoutRecognized()
+    {
+        // OkHttp reports connect and read timeouts both as SocketTimeoutException
+        OkHttpTransport.ConnectionState state = new OkHttpTransport.ConnectionState();
+        Request request = new Request.Builder().url("https://127.0.0.1:1080").tag(OkHttpTransport.ConnectionState.class, state).build();
+        okhttp3.Call call = new OkHttpClient().newCall(request);
+
+        IOException connectTimeout = OkHttpTransport.connectFailure(call, new SocketTimeoutException("connect timed out"));
+        assertTrue(connectTimeout instanceof HttpConnectTimeoutException);
+        assertTrue(RetryPolicy.isRetryable(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 0, connectTimeout));
+
+        state.acquired = true;
+        IOException readTimeout = OkHttpTransport.connectFailure(call, new SocketTimeoutException("timeout"));
+        assertFalse(readTimeout instanceof HttpConnectTimeoutException);
+        assertFalse(RetryPolicy.isRetryable(PIConstants.POST, PIConstants.ENDPOINT_VALIDATE_CHECK, 0, readTimeout));
+    }
+
+    private static PrivacyIDEA.Builder build()
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                          .verifySSL(false)
+                          .retries(3, 10, 50, 0.1)
+                          .logger(new PILogImplementation());
+    }
+}
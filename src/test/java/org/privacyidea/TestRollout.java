@@ -24,6 +24,7 @@ import org.mockserver.model.Header;
 import org.mockserver.model.HttpRequest;
 import org.mockserver.model.HttpResponse;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 import static org.junit.Assert.*;
@@ -129,8 +130,13 @@ public class TestRollout
     }
 
     @After
-    public void teardown()
+    public void teardown() throws IOException
     {
+        // Stop the background JWT retrieval of the instance
+        if (privacyIDEA != null)
+        {
+            privacyIDEA.close();
+        }
         mockServer.stop();
     }
 }
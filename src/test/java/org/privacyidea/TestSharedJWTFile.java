@@ -0,0 +1,242 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestSharedJWTFile
+{
+    private static final byte[] KEY = new byte[32];
+    private static final String URL = "http://127.0.0.1:1080";
+    private static final int AUTH_DELAY_MS = 300;
+    private volatile long validityMs = 3_600_000;
+    private ClientAndServer mockServer;
+    private Path dir;
+    private Path file;
+
+    static
+    {
+        Arrays.fill(KEY, (byte) 3);
+    }
+
+    @Before
+    public void setup() throws IOException
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        // The delay keeps the request in flight while the other instances want the JWT, too
+        mockServer.when(authRequest())
+                  .respond(request -> HttpResponse.response()
+                                                  .withBody(authResponse(validityMs))
+                                                  .withDelay(TimeUnit.MILLISECONDS, AUTH_DELAY_MS));
+        dir = Files.createTempDirectory("sharedjwt");
+        file = dir.resolve("jwt");
+    }
+
+    @After
+    public void teardown() throws IOException
+    {
+        mockServer.stop();
+        Files.deleteIfExists(file);
+        Files.delete(dir);
+    }
+
+    /**
+     * Processes and threads that start at the same time share the JWT of the only request to /auth.
+     */
+    @Test
+    public void testProcessesAndThreadsShareOneJWT() throws Exception
+    {
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            processes.add(new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp",
+                                             System.getProperty("surefire.test.class.path", System.getProperty("java.class.path")),
+                                             TestSharedJWTFile.class.getName(), URL, file.toString())
+                                  .redirectError(ProcessBuilder.Redirect.DISCARD)
+                                  .start());
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            results.add(threads.submit(() ->
+                                       {
+                                           start.await();
+                                           try (PrivacyIDEA privacyIDEA = build().build())
+                                           {
+                                               return privacyIDEA.getJWT();
+                                           }
+                                       }));
+        }
+        start.countDown();
+
+        Set<String> jwts = new HashSet<>();
+        for (Future<String> result : results)
+        {
+            jwts.add(result.get(30, TimeUnit.SECONDS));
+        }
+        for (Process process : processes)
+        {
+            assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, process.exitValue());
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            assertFalse(output.isEmpty());
+            jwts.add(output);
+        }
+        threads.shutdown();
+        assertEquals(1, jwts.size());
+        assertNotNull(jwts.iterator().next());
+        assertEquals(1, authRequests());
+    }
+
+    /**
+     * Instances that refresh the JWT at the same time send one request, the others use the refreshed JWT.
+     */
+    @Test
+    public void testRefreshRace() throws Exception
+    {
+        // Valid for a little longer than the time before expiration at which it is refreshed, so the refresh is due
+        // after 1-2s
+        validityMs = (PrivacyIDEA.JWT_REFRESH_BEFORE_EXPIRATION_S + 1) * 1000 + 500;
+        List<PrivacyIDEA> instances = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            instances.add(build().build());
+        }
+        String first = instances.get(0).getJWT();
+        for (PrivacyIDEA privacyIDEA : instances)
+        {
+            assertEquals(first, privacyIDEA.getJWT());
+        }
+        assertEquals(1, authRequests());
+        // The refreshed JWT is not refreshed again during the test
+        validityMs = 3_600_000;
+
+        awaitTrue(() -> authRequests() >= 2);
+        awaitTrue(() -> !first.equals(instances.get(0).getJWT()));
+        String refreshed = instances.get(0).getJWT();
+        for (PrivacyIDEA privacyIDEA : instances)
+        {
+            awaitTrue(() -> refreshed.equals(privacyIDEA.getJWT()));
+            privacyIDEA.close();
+        }
+        assertEquals(2, authRequests());
+    }
+
+    @Test
+    public void testOtherKeyRetrieves() throws IOException
+    {
+        try (PrivacyIDEA privacyIDEA = build().build())
+        {
+            assertNotNull(privacyIDEA.getJWT());
+        }
+        try (PrivacyIDEA privacyIDEA = build().sharedJWTFile(file, new byte[16]).build())
+        {
+            assertNotNull(privacyIDEA.getJWT());
+        }
+        assertEquals(2, authRequests());
+        assertEquals(SharedJWTFile.SIZE, Files.size(file));
+    }
+
+    /**
+     * Entry point of the processes that share the JWT: prints the JWT.
+     *
+     * @param args server URL and file
+     */
+    public static void main(String[] args) throws IOException
+    {
+        try (PrivacyIDEA privacyIDEA = PrivacyIDEA.newBuilder(args[0], "test")
+                                                  .serviceAccount("admin", "admin")
+                                                  .sharedJWTFile(Paths.get(args[1]), KEY)
+                                                  .disableLog()
+                                                  .build())
+        {
+            System.out.println(privacyIDEA.getJWT());
+        }
+    }
+
+    private PrivacyIDEA.Builder build()
+    {
+        return PrivacyIDEA.newBuilder(URL, "test")
+                          .serviceAccount("admin", "admin")
+                          .sharedJWTFile(file, KEY)
+                          .logger(new PILogImplementation());
+    }
+
+    private static HttpRequest authRequest()
+    {
+        return HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_AUTH);
+    }
+
+    private int authRequests()
+    {
+        return mockServer.retrieveRecordedRequests(authRequest()).length;
+    }
+
+    /**
+     * Wait until the condition is true, fail if it is not within 10s.
+     */
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean())
+        {
+            assertTrue("Condition not met within 10s", System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static String authResponse(long validityMs)
+    {
+        String jwt = JWT.create()
+                        .withSubject("admin")
+                        .withIssuedAt(new Date())
+                        .withExpiresAt(new Date(System.currentTimeMillis() + validityMs))
+                        .sign(Algorithm.HMAC256("testSecret"));
+        return "{\"id\": 1, \"jsonrpc\": \"2.0\", \"result\": {\"status\": true, \"value\": {\"role\": \"admin\", " +
+               "\"token\": \"" + jwt + "\", \"username\": \"admin\"}}, \"time\": " + (System.currentTimeMillis() / 1000L) +
+               ", \"version\": \"privacyIDEA 3.2.1\"}";
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestShutdown
+{
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testInFlightRequestCompletes() throws Exception
+    {
+        respondWithDelay(500);
+        Set<Thread> before = threads();
+        PrivacyIDEA privacyIDEA = build(2000);
+        CompletableFuture<PIResponse> inFlight = CompletableFuture.supplyAsync(() -> privacyIDEA.validateCheck("Test", "123456"));
+        // Wait until the request reached the server
+        while (mockServer.retrieveRecordedRequests(HttpRequest.request()).length == 0)
+        {
+            Thread.sleep(10);
+        }
+        privacyIDEA.close();
+
+        PIResponse response = inFlight.get(1, TimeUnit.SECONDS);
+        assertNotNull(response);
+        assertTrue(response.value);
+        assertNoThreadsLeft(before);
+    }
+
+    @Test
+    public void testRemainingRequestsCancelled() throws Exception
+    {
+        respondWithDelay(3000);
+        Set<Thread> before = threads();
+        PrivacyIDEA privacyIDEA = build(200);
+        CompletableFuture<PIResponse> inFlight = CompletableFuture.supplyAsync(() -> privacyIDEA.validateCheck("Test", "123456"));
+        while (mockServer.retrieveRecordedRequests(HttpRequest.request()).length == 0)
+        {
+            Thread.sleep(10);
+        }
+        long start = System.nanoTime();
+        privacyIDEA.close();
+        long closeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("close() took " + closeMs + "ms", closeMs < 2000);
+
+        assertNull(inFlight.get(1, TimeUnit.SECONDS));
+        assertNoThreadsLeft(before);
+    }
+
+    @Test
+    public void testRequestAfterClose() throws IOException
+    {
+        respondWithDelay(0);
+        PrivacyIDEA privacyIDEA = build(1000);
+        assertTrue(privacyIDEA.validateCheck("Test", "123456").value);
+        privacyIDEA.close();
+        assertTrue(privacyIDEA.isClosed());
+
+        assertNull(privacyIDEA.validateCheck("Test", "123456"));
+        // Closing again has no effect
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testCloseUnusedInstance() throws IOException
+    {
+        PrivacyIDEA privacyIDEA = build(1000);
+        privacyIDEA.close();
+        assertTrue(privacyIDEA.isClosed());
+        assertFalse(privacyIDEA.endpoint().connectionCount() > 0);
+    }
+
+    private void respondWithDelay(long delayMs)
+    {
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response().withBody(Utils.matchingOneToken()).withDelay(TimeUnit.MILLISECONDS, delayMs));
+    }
+
+    private static PrivacyIDEA build(long shutdownTimeoutMs)
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                          .verifySSL(false)
+                          .disableLog()
+                          .shutdownTimeoutMs(shutdownTimeoutMs)
+                          .logger(new PILogImplementation())
+                          .build();
+    }
+
+    /**
+     * The threads of the instances and of their http clients have to terminate after close(). The task runner of
+     * OkHttp is shared by all clients and is not included.
+     */
+    private static void assertNoThreadsLeft(Set<Thread> before) throws InterruptedException
+    {
+        Set<Thread> started = threads();
+        started.removeAll(before);
+        for (Thread thread : started)
+        {
+            thread.join(2000);
+        }
+        Set<Thread> alive = started.stream().filter(Thread::isAlive).collect(Collectors.toSet());
+        assertTrue("Threads left after close(): " + alive, alive.isEmpty());
+    }
+
+    private static Set<Thread> threads()
+    {
+        return Thread.getAllStackTraces()
+                     .keySet()
+                     .stream()
+                     .filter(t -> t.getName().startsWith("privacyidea-") || t.getName().startsWith("OkHttp Dispatcher") ||
+                                  t.getName().startsWith("OkHttp https://"))
+                     .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestStartup
+{
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response().withBody(Utils.matchingOneToken()));
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testNoThreadsStartedByBuild() throws IOException
+    {
+        Set<Thread> before = privacyIDEAThreads();
+        PrivacyIDEA privacyIDEA = build().build();
+        Set<Thread> started = privacyIDEAThreads();
+        started.removeAll(before);
+        assertTrue("Threads started by build(): " + started, started.isEmpty());
+        assertEquals(0, privacyIDEA.endpoint().connectionCount());
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testJWTRetrievalDoesNotBlockBuild() throws IOException
+    {
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_AUTH))
+                  .respond(HttpResponse.response().withBody(Utils.postAuthSuccessResponse()).withDelay(TimeUnit.MILLISECONDS, 1000));
+
+        long start = System.nanoTime();
+        PrivacyIDEA privacyIDEA = build().serviceAccount("admin", "admin").build();
+        long buildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("build() took " + buildMs + "ms", buildMs < 1000);
+
+        // Requests that require the JWT wait for the retrieval
+        assertTrue(privacyIDEA.getJWT() != null && !privacyIDEA.getJWT().isEmpty());
+        privacyIDEA.close();
+    }
+
+    private static PrivacyIDEA.Builder build()
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test").verifySSL(false).disableLog().logger(new PILogImplementation());
+    }
+
+    private static Set<Thread> privacyIDEAThreads()
+    {
+        return Thread.getAllStackTraces()
+                     .keySet()
+                     .stream()
+                     .filter(t -> t.getName().startsWith("privacyidea-") || t.getName().startsWith("OkHttp"))
+                     .collect(Collectors.toSet());
+    }
+}
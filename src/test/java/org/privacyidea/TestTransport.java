@@ -0,0 +1,178 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.ClearType;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.model.MediaType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestTransport
+{
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testJdkValidateCheck() throws IOException
+    {
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK).withBody("user=Test&pass=123456"))
+                  .respond(HttpResponse.response().withContentType(MediaType.APPLICATION_JSON).withBody(Utils.matchingOneToken()));
+        PrivacyIDEA privacyIDEA = build(TransportType.JDK).build();
+        PIResponse response = privacyIDEA.validateCheck("Test", "123456");
+        assertNotNull(response);
+        assertTrue(response.value);
+        assertEquals(Utils.matchingOneToken(), response.rawMessage);
+
+        HttpRequest recorded = mockServer.retrieveRecordedRequests(HttpRequest.request())[0];
+        assertEquals("test", recorded.getFirstHeader(PIConstants.HEADER_USER_AGENT));
+        assertTrue(recorded.getFirstHeader("Content-Type").startsWith("application/x-www-form-urlencoded"));
+        assertEquals("gzip", recorded.getFirstHeader("Accept-Encoding"));
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testSameRequestsForBothTransports() throws Exception
+    {
+        mockServer.when(HttpRequest.request()).respond(HttpResponse.response().withBody(Utils.matchingOneToken()));
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("user", "Test User");
+        params.put("pass", "p@ss wörd+%&=~");
+        params.put(PIConstants.CLIENTDATA, "eyJjaGFsbGVuZ2UiOiJkSHpTbVpuQWh4RXEwc3pSV01ZNEVHZzhxZ2plQmhKRGpBUFlLV2ZkMklFIn0=");
+        params.put(PIConstants.SIGNATUREDATA, "MEUCIQDNrG+fxF4n/nLUExr3vAzLg1a2JDqT2yqEUKBKzWxX8gIgR+9v/8FQ==");
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("user-agent", "flow-ua");
+        headers.put("Accept-Language", "de");
+
+        List<HttpRequest[]> recorded = new ArrayList<>();
+        for (TransportType type : TransportType.values())
+        {
+            mockServer.clear(HttpRequest.request(), ClearType.LOG);
+            PrivacyIDEA privacyIDEA = build(type).build();
+            privacyIDEA.validateCheck("Test User", "p@ss wörd+%&=~", null, params, headers);
+            privacyIDEA.validateCheck("Test", "123456", Collections.singletonMap("accept-encoding", "identity"));
+            Map<String, String> query = new LinkedHashMap<>();
+            query.put("serial", "OATH 0001&x");
+            new AsyncRequestCallable(privacyIDEA, privacyIDEA.endpoint(), PIConstants.ENDPOINT_TOKEN, query, headers,
+                                     PIConstants.GET).call();
+            recorded.add(mockServer.retrieveRecordedRequests(HttpRequest.request()));
+            privacyIDEA.close();
+        }
+
+        HttpRequest[] okhttp = recorded.get(0);
+        HttpRequest[] jdk = recorded.get(1);
+        assertEquals(okhttp.length, jdk.length);
+        for (int i = 0; i < okhttp.length; i++)
+        {
+            assertEquals(okhttp[i].getMethod(), jdk[i].getMethod());
+            assertEquals(okhttp[i].getPath(), jdk[i].getPath());
+            assertEquals(okhttp[i].getQueryStringParameterList(), jdk[i].getQueryStringParameterList());
+            assertEquals(okhttp[i].getBodyAsString(), jdk[i].getBodyAsString());
+            assertEquals(okhttp[i].getHeader(PIConstants.HEADER_USER_AGENT), jdk[i].getHeader(PIConstants.HEADER_USER_AGENT));
+            assertEquals(okhttp[i].getFirstHeader("Accept-Encoding"), jdk[i].getFirstHeader("Accept-Encoding"));
+        }
+        assertEquals(Collections.singletonList("flow-ua"), jdk[0].getHeader(PIConstants.HEADER_USER_AGENT));
+        assertEquals("de", jdk[0].getFirstHeader("Accept-Language"));
+    }
+
+    @Test
+    public void testJdkCompressedResponse() throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed))
+        {
+            gzip.write(Utils.matchingOneToken().getBytes(StandardCharsets.UTF_8));
+        }
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK))
+                  .respond(HttpResponse.response()
+                                       .withContentType(MediaType.APPLICATION_JSON_UTF_8)
+                                       .withHeader(PIConstants.HEADER_CONTENT_ENCODING, "gzip")
+                                       .withBody(compressed.toByteArray()));
+        PrivacyIDEA privacyIDEA = build(TransportType.JDK).build();
+        assertEquals(Utils.matchingOneToken(), privacyIDEA.validateCheck("Test", "123456").rawMessage);
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testJdkUnreachableServer() throws IOException
+    {
+        PrivacyIDEA privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1", "test")
+                                             .verifySSL(false)
+                                             .httpTimeoutMs(1000)
+                                             .transport(TransportType.JDK)
+                                             .logger(new PILogImplementation())
+                                             .build();
+        assertNull(privacyIDEA.validateCheck("Test", "123456"));
+        privacyIDEA.close();
+
+        PrivacyIDEA invalid = PrivacyIDEA.newBuilder("not a url", "test").transport(TransportType.JDK).logger(new PILogImplementation()).build();
+        assertNull(invalid.validateCheck("Test", "123456"));
+        invalid.close();
+    }
+
+    @Test
+    public void testJdkShutdownReleasesThreads() throws Exception
+    {
+        mockServer.when(HttpRequest.request()).respond(HttpResponse.response().withBody(Utils.matchingOneToken()));
+        PrivacyIDEA privacyIDEA = build(TransportType.JDK).prewarmConnections(2).build();
+        assertTrue(privacyIDEA.validateCheck("Test", "123456").value);
+        privacyIDEA.close();
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if (thread.getName().startsWith("privacyidea-http-"))
+            {
+                thread.join(2000);
+                assertTrue(thread + " is still alive", !thread.isAlive());
+            }
+        }
+    }
+
+    private static PrivacyIDEA.Builder build(TransportType type)
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                          .verifySSL(false)
+                          .disableLog()
+                          .transport(type)
+                          .logger(new PILogImplementation());
+    }
+}
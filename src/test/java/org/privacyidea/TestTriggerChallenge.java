@@ -16,6 +16,7 @@
  */
 package org.privacyidea;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import org.junit.After;
@@ -124,8 +125,13 @@ public class TestTriggerChallenge
     }
 
     @After
-    public void tearDown()
+    public void tearDown() throws IOException
     {
+        // Stop the background JWT retrieval of the instance
+        if (privacyIDEA != null)
+        {
+            privacyIDEA.close();
+        }
         mockServer.stop();
     }
 }
\ No newline at end of file
@@ -16,9 +16,13 @@
  */
 package org.privacyidea;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -81,6 +85,33 @@ public class TestValidateCheck
         assertTrue(response.value);
     }
 
+    @Test
+    public void testCompressedResponseWithCallerAcceptEncoding() throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed))
+        {
+            gzip.write(Utils.matchingOneToken().getBytes(StandardCharsets.UTF_8));
+        }
+        mockServer.when(HttpRequest.request()
+                                   .withMethod("POST")
+                                   .withPath("/validate/check")
+                                   .withBody("user=" + username + "&pass=" + otp))
+                  .respond(HttpResponse.response()
+                                       .withContentType(MediaType.APPLICATION_JSON)
+                                       .withHeader(PIConstants.HEADER_CONTENT_ENCODING, "gzip")
+                                       .withBody(compressed.toByteArray()));
+
+        // If the caller sets Accept-Encoding, okhttp does not decompress the response itself
+        Map<String, String> header = new HashMap<>();
+        header.put("Accept-Encoding", "gzip");
+        PIResponse response = privacyIDEA.validateCheck(username, otp, header);
+
+        assertEquals("matching 1 tokens", response.message);
+        assertEquals(Utils.matchingOneToken(), response.rawMessage);
+        assertTrue(response.value);
+    }
+
     @Test
     public void testOTPAddHeader()
     {
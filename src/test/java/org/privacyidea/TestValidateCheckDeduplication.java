@@ -0,0 +1,147 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestValidateCheckDeduplication
+{
+    // Keeps the first request in flight while the duplicates are sent
+    private static final int CHECK_DELAY_MS = 500;
+    private ClientAndServer mockServer;
+    private ExecutorService clients;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(checkRequest())
+                  .respond(HttpResponse.response()
+                                       .withBody(Utils.matchingOneToken())
+                                       .withDelay(TimeUnit.MILLISECONDS, CHECK_DELAY_MS));
+        clients = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown()
+    {
+        clients.shutdownNow();
+        mockServer.stop();
+    }
+
+    /**
+     * A double submit of the same OTP is sent once and both callers get the response.
+     */
+    @Test
+    public void testConcurrentDuplicatesShareResponse() throws Exception
+    {
+        try (PrivacyIDEA privacyIDEA = build().validateCheckDeduplication().build())
+        {
+            Future<PIResponse> first = clients.submit(() -> privacyIDEA.validateCheck("Test", "123456"));
+            Future<PIResponse> second = clients.submit(() -> privacyIDEA.validateCheck("Test", "123456"));
+            Future<PIResponse> serial = clients.submit(() -> privacyIDEA.validateCheckSerial("OATH0001", "123456"));
+            Future<PIResponse> otherPass = clients.submit(() -> privacyIDEA.validateCheck("Test", "654321"));
+            PIResponse response = first.get();
+            assertNotNull(response);
+            assertTrue(response.value);
+            // Each caller gets its own copy of the shared response
+            PIResponse duplicate = second.get();
+            assertNotSame(response, duplicate);
+            assertEquals(response.toJSON(), duplicate.toJSON());
+            assertNotSame(response, serial.get());
+            assertNotSame(response, otherPass.get());
+            assertEquals(3, checkRequests());
+        }
+    }
+
+    /**
+     * An accepted response is never replayed, a later request with the same OTP is sent again.
+     */
+    @Test
+    public void testCompletedResponseNotReused() throws Exception
+    {
+        try (PrivacyIDEA privacyIDEA = build().validateCheckDeduplication().build())
+        {
+            PIResponse response = privacyIDEA.validateCheck("Test", "123456");
+            assertTrue(response.value);
+            assertNotSame(response, privacyIDEA.validateCheck("Test", "123456"));
+            assertEquals(2, checkRequests());
+        }
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception
+    {
+        try (PrivacyIDEA privacyIDEA = build().build())
+        {
+            Future<PIResponse> first = clients.submit(() -> privacyIDEA.validateCheck("Test", "123456"));
+            Future<PIResponse> second = clients.submit(() -> privacyIDEA.validateCheck("Test", "123456"));
+            assertNotSame(first.get(), second.get());
+            assertEquals(2, checkRequests());
+        }
+    }
+
+    @Test
+    public void testKeyDoesNotContainPass() throws Exception
+    {
+        try (PrivacyIDEA first = build().validateCheckDeduplication().build();
+             PrivacyIDEA second = build().validateCheckDeduplication().build())
+        {
+            String key = first.validateCheckKey(PIConstants.USER, "Test", "123456", null, Collections.emptyMap());
+            assertFalse(key.contains("123456"));
+            assertEquals(key, first.validateCheckKey(PIConstants.USER, "Test", "123456", "", Collections.emptyMap()));
+            assertNotEquals(key, first.validateCheckKey(PIConstants.SERIAL, "Test", "123456", null, Collections.emptyMap()));
+            assertNotEquals(key, first.validateCheckKey(PIConstants.USER, "Test", "123456", null,
+                                                        Collections.singletonMap("client", "10.0.0.1")));
+            // The key is random, so the pass can not be guessed from the hash
+            assertNotEquals(key, second.validateCheckKey(PIConstants.USER, "Test", "123456", null, Collections.emptyMap()));
+        }
+    }
+
+    private static HttpRequest checkRequest()
+    {
+        return HttpRequest.request().withMethod("POST").withPath(PIConstants.ENDPOINT_VALIDATE_CHECK);
+    }
+
+    private int checkRequests()
+    {
+        return mockServer.retrieveRecordedRequests(checkRequest()).length;
+    }
+
+    private PrivacyIDEA.Builder build()
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                          .verifySSL(false)
+                          .disableLog()
+                          .logger(new PILogImplementation());
+    }
+}
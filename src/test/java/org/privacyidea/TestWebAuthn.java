@@ -16,6 +16,8 @@
  */
 package org.privacyidea;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
 import java.util.Optional;
 import org.junit.After;
 import org.junit.Before;
@@ -102,4 +104,55 @@ public class TestWebAuthn
 
         assertEquals(trimmedRequest, merged1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMergedSignRequestDeduplicatesCredentials()
+    {
+        JSONParser jsonParser = new JSONParser(privacyIDEA);
+        // The same credential in two challenges, e.g. if a token is assigned twice
+        PIResponse response = jsonParser.parsePIResponse(webAuthnResponse(3, 2));
+        JsonArray allowCredentials = JsonParser.parseString(response.mergedSignRequest())
+                                               .getAsJsonObject()
+                                               .getAsJsonArray("allowCredentials");
+        assertEquals(2, allowCredentials.size());
+        assertEquals("credential0", allowCredentials.get(0).getAsJsonObject().get("id").getAsString());
+        assertEquals("credential1", allowCredentials.get(1).getAsJsonObject().get("id").getAsString());
+        assertEquals("challenge", JsonParser.parseString(response.mergedSignRequest()).getAsJsonObject().get("challenge").getAsString());
+    }
+
+    @Test
+    public void testMergedSignRequestMultipleTokens()
+    {
+        JSONParser jsonParser = new JSONParser(privacyIDEA);
+        for (int tokens : new int[]{1, 5, 20})
+        {
+            PIResponse response = jsonParser.parsePIResponse(webAuthnResponse(tokens, tokens));
+            assertEquals(tokens, JsonParser.parseString(response.mergedSignRequest())
+                                           .getAsJsonObject()
+                                           .getAsJsonArray("allowCredentials")
+                                           .size());
+        }
+    }
+
+    static String webAuthnResponse(int challenges, int distinctCredentials)
+    {
+        StringBuilder sb = new StringBuilder("{\"detail\":{\"multi_challenge\":[");
+        for (int i = 0; i < challenges; i++)
+        {
+            if (i > 0)
+            {
+                sb.append(',');
+            }
+            sb.append("{\"attributes\":{\"hideResponseInput\":true,\"webAuthnSignRequest\":{\"allowCredentials\":[{\"id\":\"credential")
+              .append(i % distinctCredentials)
+              .append("\",\"transports\":[\"usb\",\"nfc\"],\"type\":\"public-key\"}],\"challenge\":\"challenge\",")
+              .append("\"rpId\":\"office.netknights.it\",\"timeout\":60000,\"userVerification\":\"preferred\"}},")
+              .append("\"message\":\"Please confirm with your WebAuthn token\",\"serial\":\"WAN")
+              .append(i)
+              .append("\",\"transaction_id\":\"00699705595414705468\",\"type\":\"webauthn\"}");
+        }
+        sb.append("],\"transaction_id\":\"00699705595414705468\"},\"id\":1,\"jsonrpc\":\"2.0\",")
+          .append("\"result\":{\"authentication\":\"CHALLENGE\",\"status\":true,\"value\":false}}");
+        return sb.toString();
+    }
+}
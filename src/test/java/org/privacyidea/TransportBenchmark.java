@@ -0,0 +1,138 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shows the time to the first response and the number of loaded classes of a new JVM, and the throughput with 20
+ * concurrent requests, for both transports. Not part of the unit tests, run it with: mvn -Pbenchmark test
+ */
+public class TransportBenchmark
+{
+    private ClientAndServer mockServer;
+
+    @Before
+    public void setup()
+    {
+        mockServer = ClientAndServer.startClientAndServer(1080);
+        mockServer.when(HttpRequest.request()).respond(HttpResponse.response().withBody(Utils.matchingOneToken()));
+    }
+
+    @After
+    public void teardown()
+    {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testStartupInNewJvm() throws Exception
+    {
+        for (TransportType type : TransportType.values())
+        {
+            String result = runInNewJvm(type);
+            System.out.println(type + " in a new JVM: " + result);
+            if (type == TransportType.JDK)
+            {
+                assertTrue(result, result.contains("okhttp loaded: false"));
+            }
+        }
+    }
+
+    @Test
+    public void testThroughput() throws Exception
+    {
+        for (TransportType type : TransportType.values())
+        {
+            PrivacyIDEA privacyIDEA = build(type).build();
+            int requests = 500;
+            ExecutorService executor = Executors.newFixedThreadPool(20);
+            // Warm up
+            runConcurrently(executor, privacyIDEA, 100);
+            long start = System.nanoTime();
+            runConcurrently(executor, privacyIDEA, requests);
+            long nanos = System.nanoTime() - start;
+            executor.shutdown();
+            privacyIDEA.close();
+            System.out.println(type + ": " + (requests * 1_000_000_000L / nanos) + " requests/s with 20 threads");
+        }
+    }
+
+    private static void runConcurrently(ExecutorService executor, PrivacyIDEA privacyIDEA, int requests) throws Exception
+    {
+        List<Future<PIResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < requests; i++)
+        {
+            futures.add(executor.submit(() -> privacyIDEA.validateCheck("Test", "123456")));
+        }
+        for (Future<PIResponse> future : futures)
+        {
+            assertTrue(future.get(30, TimeUnit.SECONDS).value);
+        }
+    }
+
+    private static String runInNewJvm(TransportType type) throws Exception
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "--add-opens", "java.base/java.lang=ALL-UNNAMED", "-cp",
+                                             ManagementFactory.getRuntimeMXBean().getClassPath(),
+                                             TransportStartup.class.getName(), type.name()).redirectErrorStream(true).start();
+        String result = "";
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                output.append(line).append('\n');
+                if (line.startsWith(TransportStartup.RESULT))
+                {
+                    result = line.substring(TransportStartup.RESULT.length());
+                }
+            }
+        }
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(output.toString(), 0, process.exitValue());
+        return result;
+    }
+
+    private static PrivacyIDEA.Builder build(TransportType type)
+    {
+        return PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                          .verifySSL(false)
+                          .disableLog()
+                          .transport(type)
+                          .logger(new PILogImplementation());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Run by {@link TransportBenchmark} in a new JVM to measure the time to the first response and the loaded classes with a
+ * transport. Expects the mock server on port 1080.
+ */
+public class TransportStartup
+{
+    static final String RESULT = "RESULT ";
+
+    public static void main(String[] args) throws Exception
+    {
+        TransportType type = TransportType.valueOf(args[0]);
+        int classesBefore = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+        long start = System.nanoTime();
+        PrivacyIDEA privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                             .verifySSL(false)
+                                             .disableLog()
+                                             .transport(type)
+                                             .logger(new PILogImplementation())
+                                             .build();
+        PIResponse response = privacyIDEA.validateCheck("Test", "123456");
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (response == null || !response.value)
+        {
+            System.exit(1);
+        }
+        int classes = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount() - classesBefore;
+        boolean okhttpLoaded = isLoaded("okhttp3.OkHttpClient") || isLoaded("okhttp3.Callback");
+        boolean kotlinLoaded = isLoaded("kotlin.jvm.internal.Intrinsics");
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        privacyIDEA.close();
+        System.out.println(RESULT + "first response after " + millis + " ms, " + classes + " classes loaded, okhttp loaded: " +
+                           okhttpLoaded + ", kotlin loaded: " + kotlinLoaded + ", heap used: " + heap.getUsed() / 1024 +
+                           " KB, non-heap used: " + nonHeap.getUsed() / 1024 + " KB");
+        System.exit(0);
+    }
+
+    private static boolean isLoaded(String className) throws Exception
+    {
+        // findLoadedClass is protected, so it is called via reflection on the application class loader
+        java.lang.reflect.Method findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+        findLoadedClass.setAccessible(true);
+        return findLoadedClass.invoke(TransportStartup.class.getClassLoader(), className) != null;
+    }
+}
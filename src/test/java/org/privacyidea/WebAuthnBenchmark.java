@@ -0,0 +1,75 @@
+/*
+ * Copyright 2026 NetKnights GmbH
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License here:
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">License</a>
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.privacyidea;
+
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Shows the time to parse a response with 1, 5 and 20 registered WebAuthn tokens, including the merge of their sign
+ * requests. Not part of the unit tests, run it with: mvn -Pbenchmark test
+ */
+public class WebAuthnBenchmark
+{
+    private static final int ITERATIONS = 2000;
+    private PrivacyIDEA privacyIDEA;
+
+    @Before
+    public void setup()
+    {
+        privacyIDEA = PrivacyIDEA.newBuilder("https://127.0.0.1:1080", "test")
+                                 .verifySSL(false)
+                                 .logger(new PILogImplementation())
+                                 .build();
+    }
+
+    @After
+    public void teardown() throws IOException
+    {
+        privacyIDEA.close();
+    }
+
+    @Test
+    public void testMergeSignRequestPerformance()
+    {
+        JSONParser jsonParser = new JSONParser(privacyIDEA);
+        for (int tokens : new int[]{1, 5, 20})
+        {
+            String json = TestWebAuthn.webAuthnResponse(tokens, tokens);
+            // Warm up
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                jsonParser.parsePIResponse(json);
+            }
+            long start = System.nanoTime();
+            PIResponse response = null;
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                response = jsonParser.parsePIResponse(json);
+            }
+            long nanos = (System.nanoTime() - start) / ITERATIONS;
+            assertEquals(tokens, JsonParser.parseString(response.mergedSignRequest())
+                                           .getAsJsonObject()
+                                           .getAsJsonArray("allowCredentials")
+                                           .size());
+            System.out.println(tokens + " WebAuthn token(s): " + nanos + " ns per response");
+        }
+    }
+}